@@ -0,0 +1,97 @@
+package com.github.michalbednarski.intentslab;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Tests for {@link NameTokenIndex}, comparing it with regular expression
+ * previously used by {@link NameAutocompleteAdapter}
+ */
+public class NameTokenIndexTest extends AndroidTestCase {
+
+    private static final String[] NAMES = {
+            "android.intent.action.BOOT_COMPLETED",
+            "android.intent.action.LOCKED_BOOT_COMPLETED",
+            "android.intent.action.SCREEN_ON",
+            "android.intent.action.SCREEN_OFF",
+            "android.intent.action.PACKAGE_ADDED",
+            "android.intent.action.ACTION_POWER_CONNECTED",
+            "android.intent.action.INPUT_METHOD_CHANGED",
+            "android.net.conn.CONNECTIVITY_CHANGE",
+            "android.bluetooth.adapter.action.STATE_CHANGED",
+            "com.example.ACTIVATE",
+            "com.example.v2.ACTION",
+    };
+
+    private static final String[] QUERIES = {
+            // Single part
+            "boot",
+            "SCREEN",
+            "v2",
+            // Multi-part
+            "boot comp",
+            "android.intent.action.SCREEN_O",
+            "act sta ch",
+            // Leading and trailing separator
+            ".boot",
+            "_on",
+            "screen.",
+            // Same token repeat, each part must match different token
+            "act act",
+            "in in",
+            "boot boot",
+            // Part not at token start
+            "oot",
+            "creen",
+            // No matches
+            "nonexistent",
+            "completed boot",
+    };
+
+    public void testMatchesOldRegex() throws Exception {
+        NameTokenIndex index = new NameTokenIndex(NAMES);
+        for (String query : QUERIES) {
+            List<String> results = index.query(NameTokenIndex.tokenize(query));
+            assertEquals("Results for \"" + query + "\"", matchWithOldRegex(query), new HashSet<String>(results));
+            assertEquals("Duplicate results for \"" + query + "\"", new HashSet<String>(results).size(), results.size());
+        }
+    }
+
+    public void testSeparatorOnlyQueryMatchesAll() throws Exception {
+        NameTokenIndex index = new NameTokenIndex(NAMES);
+        for (String query : new String[] {".", "..", " _ "}) {
+            List<String> results = index.query(NameTokenIndex.tokenize(query));
+            assertEquals(matchWithOldRegex(query), new HashSet<String>(results));
+            assertEquals(NAMES.length, results.size());
+        }
+    }
+
+    public void testExactTokenMatchesComeFirst() throws Exception {
+        NameTokenIndex index = new NameTokenIndex(NAMES);
+        List<String> results = index.query(NameTokenIndex.tokenize("action"));
+        assertEquals("com.example.v2.ACTION", results.get(0));
+        assertEquals("android.intent.action.SCREEN_ON", results.get(1));
+    }
+
+    /**
+     * Filtering done by {@link NameAutocompleteAdapter} before {@link NameTokenIndex} was introduced
+     */
+    private static HashSet<String> matchWithOldRegex(String query) {
+        String patternText = ".*";
+        for (String queryPart : query.split("[^0-9A-Za-z]+")) {
+            patternText += "(^|[^0-9A-Z])" + Pattern.quote(queryPart) + ".*";
+        }
+        Pattern pattern = Pattern.compile(patternText, Pattern.CASE_INSENSITIVE);
+        HashSet<String> matches = new HashSet<String>();
+        for (String name : NAMES) {
+            if (pattern.matcher(name).matches()) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+}
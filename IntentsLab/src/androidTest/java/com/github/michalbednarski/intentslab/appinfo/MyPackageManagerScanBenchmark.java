@@ -0,0 +1,92 @@
+package com.github.michalbednarski.intentslab.appinfo;
+
+import android.content.pm.PackageInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.jdeferred.DoneCallback;
+import org.jdeferred.ProgressCallback;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of cold scan of all packages in {@link MyPackageManagerImpl}
+ * with different sizes of scanning pool
+ *
+ * Each scan is checked to return same packages as system package manager
+ * and to notify progress once for each of them. Results are printed to logcat
+ */
+public class MyPackageManagerScanBenchmark extends AndroidTestCase {
+    private static final String TAG = "ScanBenchmark";
+
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+
+    public void testColdScanWallTime() throws Exception {
+        // Warm up system caches so first measured run isn't penalized
+        measureColdScan(MyPackageManagerImpl.DEFAULT_SCAN_THREADS);
+
+        for (int poolSize : POOL_SIZES) {
+            long time = measureColdScan(poolSize);
+            Log.i(TAG, "Pool size " + poolSize + ": " + time + "ms");
+        }
+    }
+
+    private long measureColdScan(int poolSize) throws InterruptedException {
+        // Drop snapshot so all packages are queried from system
+        PackagesSnapshot.getFile(getContext()).delete();
+
+        HashSet<String> expectedPackageNames = new HashSet<String>();
+        for (PackageInfo packageInfo : getContext().getPackageManager().getInstalledPackages(0)) {
+            expectedPackageNames.add(packageInfo.packageName);
+        }
+
+        final MyPackageManagerImpl packageManager = new MyPackageManagerImpl(getContext(), poolSize);
+        try {
+            // Callbacks are delivered on main thread, progress before done
+            final HashSet<String> progressPackageNames = new HashSet<String>();
+            final int[] progressCount = new int[1];
+            final HashSet<String> resultPackageNames = new HashSet<String>();
+            final long[] doneTime = new long[1];
+            final CountDownLatch doneLatch = new CountDownLatch(1);
+
+            // Subscribe on main thread, progress isn't replayed to late subscribers
+            final long startTime = SystemClock.elapsedRealtime();
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    packageManager.getPackages(false).progress(new ProgressCallback<MyPackageInfo>() {
+                        @Override
+                        public void onProgress(MyPackageInfo progress) {
+                            progressCount[0]++;
+                            progressPackageNames.add(progress.getPackageName());
+                        }
+                    }).done(new DoneCallback<Collection<MyPackageInfo>>() {
+                        @Override
+                        public void onDone(Collection<MyPackageInfo> result) {
+                            doneTime[0] = SystemClock.elapsedRealtime();
+                            for (MyPackageInfo packageInfo : result) {
+                                resultPackageNames.add(packageInfo.getPackageName());
+                            }
+                            doneLatch.countDown();
+                        }
+                    });
+                }
+            });
+
+            assertTrue(doneLatch.await(5, TimeUnit.MINUTES));
+            long time = doneTime[0] - startTime;
+            assertEquals(expectedPackageNames, resultPackageNames);
+            assertEquals(expectedPackageNames, progressPackageNames);
+            assertEquals(expectedPackageNames.size(), progressCount[0]);
+            return time;
+        } finally {
+            packageManager.release();
+        }
+    }
+}
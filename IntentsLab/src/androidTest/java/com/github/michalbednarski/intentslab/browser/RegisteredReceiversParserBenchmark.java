@@ -0,0 +1,177 @@
+package com.github.michalbednarski.intentslab.browser;
+
+import android.content.IntentFilter;
+import android.os.PatternMatcher;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Benchmark of {@link RegisteredReceiversParser} throughput
+ * and check of fields it parses from fixture
+ *
+ * Input is built from captured dump in test assets,
+ * with receivers section repeated to get size similar to busy devices.
+ * Results are printed to logcat
+ */
+public class RegisteredReceiversParserBenchmark extends InstrumentationTestCase {
+    private static final String TAG = "ReReParserBenchmark";
+
+    private static final String FIXTURE = "registered-receivers-dump.txt";
+    private static final int RECEIVERS_IN_FIXTURE = 3; // One receiver has no actions
+    private static final int REPEATS = 1000;
+    private static final int RUNS = 5;
+
+    private static class CountingParser extends RegisteredReceiversParser {
+        int mFound;
+
+        CountingParser() {
+            super(false);
+        }
+
+        @Override
+        protected void onReceiverFound(RegisteredReceiverInfo receiverInfo) {
+            mFound++;
+        }
+    }
+
+    private static class CollectingParser extends RegisteredReceiversParser {
+        final ArrayList<RegisteredReceiverInfo> mFound = new ArrayList<RegisteredReceiverInfo>();
+
+        CollectingParser() {
+            super(false);
+        }
+
+        @Override
+        protected void onReceiverFound(RegisteredReceiverInfo receiverInfo) {
+            mFound.add(receiverInfo);
+        }
+    }
+
+    public void testFixtureParsing() throws Exception {
+        CollectingParser parser = new CollectingParser();
+        parser.parse(new ByteArrayInputStream(readFixture()));
+        assertEquals(RECEIVERS_IN_FIXTURE, parser.mFound.size());
+
+        // ProcessRecord app line, single filter
+        RegisteredReceiverInfo receiver = parser.mFound.get(0);
+        assertReceiver(receiver, "41a3c5b8", "system", 742, 1000, 1);
+        IntentFilter filter = receiver.intentFilters[0];
+        assertActions(filter, "android.intent.action.SCREEN_OFF", "android.intent.action.SCREEN_ON");
+        assertEquals(0, filter.countCategories());
+        assertEquals(0, filter.countDataSchemes());
+        assertEquals(1000, filter.getPriority());
+        assertNull(receiver.filterPermissions[0]);
+
+        // Two filters, second with permission
+        receiver = parser.mFound.get(1);
+        assertReceiver(receiver, "41b0e3f0", "com.android.systemui", 1043, 10012, 2);
+        filter = receiver.intentFilters[0];
+        assertActions(filter, "android.intent.action.PACKAGE_ADDED", "android.intent.action.PACKAGE_REMOVED");
+        assertEquals(1, filter.countDataSchemes());
+        assertEquals("package", filter.getDataScheme(0));
+        assertEquals(0, filter.getPriority());
+        assertNull(receiver.filterPermissions[0]);
+        filter = receiver.intentFilters[1];
+        assertActions(filter, "com.android.systemui.DEMO");
+        assertEquals(1, filter.countCategories());
+        assertEquals("android.intent.category.DEFAULT", filter.getCategory(0));
+        assertEquals("android.permission.DUMP", receiver.filterPermissions[1]);
+
+        // App line without ProcessRecord, data filter, filter without actions is dropped
+        receiver = parser.mFound.get(2);
+        assertReceiver(receiver, "41c2a8e8", "com.google.android.gms.persistent", 1290, 10021, 1);
+        filter = receiver.intentFilters[0];
+        assertActions(filter, "android.intent.action.VIEW");
+        assertEquals(1, filter.countDataSchemes());
+        assertEquals("content", filter.getDataScheme(0));
+        assertEquals(1, filter.countDataAuthorities());
+        assertEquals("*com.google.android.gms.example", filter.getDataAuthority(0).getHost());
+        assertEquals(-1, filter.getDataAuthority(0).getPort());
+        assertEquals(1, filter.countDataPaths());
+        assertEquals("/data", filter.getDataPath(0).getPath());
+        assertEquals(PatternMatcher.PATTERN_PREFIX, filter.getDataPath(0).getType());
+        assertEquals(2, filter.countDataTypes());
+        assertTrue(filter.hasDataType("image/png")); // "image/*"
+        assertTrue(filter.hasDataType("text/plain")); // "text" without subtype
+        assertFalse(filter.hasDataType("audio/ogg"));
+        assertEquals(-10, filter.getPriority());
+        assertNull(receiver.filterPermissions[0]);
+
+        // Receiver with only filter without actions isn't reported
+        for (RegisteredReceiverInfo receiverInfo : parser.mFound) {
+            assertFalse("com.example.noactions".equals(receiverInfo.processName));
+        }
+    }
+
+    private static void assertReceiver(RegisteredReceiverInfo receiver, String id, String processName, int pid, int uid, int filterCount) {
+        assertEquals(id, receiver.id);
+        assertEquals(processName, receiver.processName);
+        assertEquals(pid, receiver.pid);
+        assertEquals(uid, receiver.uid);
+        assertEquals(filterCount, receiver.intentFilters.length);
+        assertEquals(filterCount, receiver.filterPermissions.length);
+    }
+
+    private static void assertActions(IntentFilter filter, String... actions) {
+        assertEquals(actions.length, filter.countActions());
+        for (int i = 0; i < actions.length; i++) {
+            assertEquals(actions[i], filter.getAction(i));
+        }
+    }
+
+    public void testParseThroughput() throws Exception {
+        byte[] dump = buildLargeDump(readFixture());
+
+        // Warm up
+        new CountingParser().parse(new ByteArrayInputStream(dump));
+
+        for (int i = 0; i < RUNS; i++) {
+            CountingParser parser = new CountingParser();
+            long startTime = SystemClock.elapsedRealtime();
+            parser.parse(new ByteArrayInputStream(dump));
+            long time = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+            assertEquals(RECEIVERS_IN_FIXTURE * REPEATS, parser.mFound);
+            Log.i(TAG, "Parsed " + dump.length + " bytes in " + time + "ms (" + (dump.length / time) + " bytes/ms)");
+        }
+    }
+
+    private byte[] readFixture() throws IOException {
+        InputStream inputStream = getInstrumentation().getContext().getAssets().open(FIXTURE);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Repeat part of fixture between list header and resolver table
+     */
+    private static byte[] buildLargeDump(byte[] fixture) {
+        String dump = new String(fixture);
+        int receiversStart = dump.indexOf('\n', dump.indexOf("Registered Receivers:")) + 1;
+        int receiversEnd = dump.indexOf("  Receiver Resolver Table:");
+        String receivers = dump.substring(receiversStart, receiversEnd);
+
+        StringBuilder builder = new StringBuilder(dump.length() + receivers.length() * REPEATS);
+        builder.append(dump, 0, receiversStart);
+        for (int i = 0; i < REPEATS; i++) {
+            builder.append(receivers);
+        }
+        builder.append(dump, receiversEnd, dump.length());
+        return builder.toString().getBytes();
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.michalbednarski.intentslab.editor;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.github.michalbednarski.intentslab.Utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark of {@link BundleAdapter#putInBundle(Bundle, String, Object)}
+ * against previous implementation scanning Bundle methods on every put
+ *
+ * Results are printed to logcat
+ */
+public class PutInBundleBenchmark extends AndroidTestCase {
+    private static final String TAG = "PutInBundleBenchmark";
+
+    private static final int ITERATIONS = 2000;
+
+    private static final Object[] VALUES = {
+            "string",
+            42,
+            42L,
+            true,
+            (byte) 1,
+            1.5f,
+            new int[] {1, 2},
+            new String[] {"a", "b"},
+            new Intent("test"),
+            new Bundle(),
+            new ArrayList<String>()
+    };
+
+    public void testSameTypesStored() throws Exception {
+        for (Object value : VALUES) {
+            Bundle bundle = new Bundle();
+            BundleAdapter.putInBundle(bundle, "k", value);
+            assertEquals(value, bundle.get("k"));
+        }
+
+        Bundle bundle = new Bundle();
+        BundleAdapter.putInBundle(bundle, "k", 42);
+        assertEquals(42, bundle.getInt("k"));
+        BundleAdapter.putInBundle(bundle, "k", "s");
+        assertEquals("s", bundle.getString("k"));
+    }
+
+    public void testPutThroughput() throws Exception {
+        // Warm up, this also fills dispatch table
+        runPuts(false);
+        runPuts(true);
+
+        long legacyTime = runPuts(true);
+        long tableTime = runPuts(false);
+        Log.i(TAG, "Legacy: " + legacyTime + "ms, dispatch table: " + tableTime + "ms for " + (ITERATIONS * VALUES.length) + " puts");
+    }
+
+    private static long runPuts(boolean legacy) {
+        Bundle bundle = new Bundle();
+        long startTime = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (Object value : VALUES) {
+                if (legacy) {
+                    legacyPutInBundle(bundle, "k", value);
+                } else {
+                    BundleAdapter.putInBundle(bundle, "k", value);
+                }
+            }
+        }
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    /**
+     * Previous implementation of {@link BundleAdapter#putInBundle(Bundle, String, Object)}
+     */
+    private static void legacyPutInBundle(Bundle bundle, String key, Object value) {
+        if (value == null) {
+            bundle.putString(key, null);
+            return;
+        }
+
+        Pattern putMethodName = Pattern.compile("put[A-Z][A-Za-z]+");
+        for (Method method : Bundle.class.getMethods()) {
+            if (
+                    putMethodName.matcher(method.getName()).matches() &&
+                    !method.isVarArgs()) {
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                if (
+                        parameterTypes.length == 2 &&
+                        parameterTypes[0] == String.class &&
+                        Utils.toWrapperClass(parameterTypes[1]).isInstance(value)) {
+                    try {
+                        method.invoke(bundle, key, value);
+                        return;
+                    } catch (IllegalAccessException e) {
+                        e.printStackTrace();
+                        // continue
+                    } catch (InvocationTargetException e) {
+                        throw new RuntimeException("Method " + method.getName() + " of bundle thrown exception", e);
+                    }
+                }
+            }
+        }
+        throw new RuntimeException("No put* method found");
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcel;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent log of broadcasts received by {@link ReceiveBroadcastService} in multiple receive mode
+ *
+ * Broadcasts are appended from any thread and written in batched transactions on writer thread,
+ * reading is done in pages, newest first, so list doesn't have to load whole log.
+ */
+class BroadcastCaptureLog extends SQLiteOpenHelper {
+    private static final String TAG = "BroadcastCaptureLog";
+    private static final int DB_VERSION = 2;
+
+    /**
+     * Delay before pending broadcasts are written, so broadcasts received in burst share transaction
+     */
+    private static final long WRITE_DELAY = 500;
+
+    /**
+     * Maximum number of broadcasts inserted in single transaction
+     */
+    private static final int MAX_BATCH_SIZE = 200;
+
+    /**
+     * Number of newest broadcasts kept in log, older ones are removed after each written batch
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    private static BroadcastCaptureLog sInstance = null;
+
+    static BroadcastCaptureLog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BroadcastCaptureLog(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Entry of log without intent, which is loaded only when needed with {@link #loadIntent(long)}
+     */
+    static class Entry {
+        long id;
+        long time;
+        String action;
+        String description;
+    }
+
+    private final ConcurrentLinkedQueue<ReceiveBroadcastService.ReceivedBroadcast> mPendingBroadcasts =
+            new ConcurrentLinkedQueue<ReceiveBroadcastService.ReceivedBroadcast>();
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+    private final Handler mWriterHandler;
+
+    private BroadcastCaptureLog(Context context) {
+        super(context.getApplicationContext(), "BroadcastCaptureLog", null, DB_VERSION);
+
+        HandlerThread writerThread = new HandlerThread("BroadcastCaptureLog");
+        writerThread.start();
+        mWriterHandler = new Handler(writerThread.getLooper());
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        onUpgrade(db, 0, DB_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        switch (oldVersion) {
+            case 0:
+                db.execSQL(
+                        "CREATE TABLE broadcasts (" +
+                                "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                                "time INTEGER NOT NULL," +
+                                "action TEXT," +
+                                "description TEXT," +
+                                "uri TEXT NOT NULL," + /* Intent.toUri(), used for export */
+                                "intent BLOB NOT NULL" + /* Marshalled Intent */
+                        ")"
+                );
+                db.execSQL("CREATE INDEX broadcasts_action_time ON broadcasts (action, time)");
+                db.execSQL("CREATE INDEX broadcasts_time ON broadcasts (time)");
+            case 1:
+                // Marshalled intents can't be read after system update, keep fingerprint of system that wrote them
+                db.execSQL("ALTER TABLE broadcasts ADD COLUMN fingerprint TEXT");
+            // case 2: // current version
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) { /* Do nothing */ }
+
+    /**
+     * Queue broadcast for writing, its description must be already generated
+     */
+    void append(ReceiveBroadcastService.ReceivedBroadcast receivedBroadcast) {
+        mPendingBroadcasts.offer(receivedBroadcast);
+        if (mWriteScheduled.compareAndSet(false, true)) {
+            mWriterHandler.postDelayed(mWritePendingRunnable, WRITE_DELAY);
+        }
+    }
+
+    private final Runnable mWritePendingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Clear flag before draining, so broadcasts added meanwhile schedule another run
+            mWriteScheduled.set(false);
+
+            SQLiteDatabase db = getWritableDatabase();
+            ContentValues values = new ContentValues();
+            ReceiveBroadcastService.ReceivedBroadcast receivedBroadcast = mPendingBroadcasts.poll();
+            while (receivedBroadcast != null) {
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < MAX_BATCH_SIZE && receivedBroadcast != null; i++) {
+                        // Failure of one broadcast mustn't abort whole batch or writer thread
+                        try {
+                            Intent intent = receivedBroadcast.intent;
+                            values.clear();
+                            values.put("time", receivedBroadcast.time);
+                            values.put("action", intent.getAction());
+                            values.put("description", receivedBroadcast.description);
+                            values.put("uri", intent.toUri(0));
+                            values.put("intent", marshallIntent(intent));
+                            values.put("fingerprint", Build.FINGERPRINT);
+                            db.insertOrThrow("broadcasts", null, values);
+                        } catch (Exception e) {
+                            Log.e(TAG, "Failed writing broadcast", e);
+                        }
+                        receivedBroadcast = mPendingBroadcasts.poll();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            // Drop oldest broadcasts, ids are increasing so this is range delete on primary key
+            try {
+                db.execSQL(
+                        "DELETE FROM broadcasts WHERE _id <= (SELECT MAX(_id) FROM broadcasts) - ?",
+                        new Object[] {MAX_ENTRIES}
+                );
+            } catch (Exception e) {
+                Log.e(TAG, "Failed pruning capture log", e);
+            }
+        }
+    };
+
+    /**
+     * Marshall intent for intent column
+     *
+     * @return Marshalled intent or empty array if it contains Binder objects or file descriptors,
+     *         which can't be marshalled. In that case intent is later restored from uri column
+     */
+    private static byte[] marshallIntent(Intent intent) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            intent.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Can't marshall broadcast, only its uri will be saved", e);
+            return new byte[0];
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Query page of log, newest entries first. This should be called off main thread
+     *
+     * @param action Action to filter by or null for all
+     * @param fromTime Minimum time of broadcast (inclusive)
+     * @param toTime Maximum time of broadcast (inclusive)
+     * @param beforeId Return only entries older than one with this id, Long.MAX_VALUE for first page
+     * @param limit Maximum number of returned entries
+     */
+    List<Entry> queryPage(String action, long fromTime, long toTime, long beforeId, int limit) {
+        String selection = "_id < ? AND time >= ? AND time <= ?";
+        String[] selectionArgs;
+        if (action != null) {
+            selection += " AND action = ?";
+            selectionArgs = new String[] {String.valueOf(beforeId), String.valueOf(fromTime), String.valueOf(toTime), action};
+        } else {
+            selectionArgs = new String[] {String.valueOf(beforeId), String.valueOf(fromTime), String.valueOf(toTime)};
+        }
+
+        Cursor cursor = getReadableDatabase().query(
+                "broadcasts",
+                new String[] {"_id", "time", "action", "description"},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                "_id DESC",
+                String.valueOf(limit)
+        );
+        try {
+            ArrayList<Entry> entries = new ArrayList<Entry>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                Entry entry = new Entry();
+                entry.id = cursor.getLong(0);
+                entry.time = cursor.getLong(1);
+                entry.action = cursor.getString(2);
+                entry.description = cursor.getString(3);
+                entries.add(entry);
+            }
+            return entries;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Load intent of log entry, this should be called off main thread
+     *
+     * @return Intent, restored from uri if marshalled one can't be used,
+     *         or null if entry doesn't exist or couldn't be read
+     */
+    Intent loadIntent(long id) {
+        Cursor cursor = getReadableDatabase().query(
+                "broadcasts",
+                new String[] {"intent", "uri", "fingerprint"},
+                "_id = ?",
+                new String[] {String.valueOf(id)},
+                null,
+                null,
+                null
+        );
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            // Parcel format isn't stable across system versions, so use marshalled intent
+            // only if it was written on this system. Empty if it couldn't be marshalled at all
+            byte[] data = cursor.getBlob(0);
+            if (data.length != 0 && Build.FINGERPRINT.equals(cursor.getString(2))) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(data, 0, data.length);
+                    parcel.setDataPosition(0);
+                    return Intent.CREATOR.createFromParcel(parcel);
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed reading intent of broadcast " + id + ", falling back to uri", e);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
+            // Fall back to uri, without extras that aren't representable in it
+            try {
+                return Intent.parseUri(cursor.getString(1), 0);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed reading uri of broadcast " + id, e);
+                return null;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Export whole log to gzipped tab separated file, one broadcast per line:
+     * time, action, intent uri and description with escaped tabs and newlines.
+     * This should be called off main thread
+     *
+     * @return Written file
+     */
+    File export(Context context) throws IOException {
+        File directory = null;
+        if (Build.VERSION.SDK_INT >= 8) {
+            directory = context.getExternalFilesDir(null);
+        }
+        if (directory == null) {
+            directory = context.getFilesDir();
+        }
+        File file = new File(directory, "broadcasts-" + System.currentTimeMillis() + ".tsv.gz");
+
+        Cursor cursor = getReadableDatabase().query(
+                "broadcasts",
+                new String[] {"time", "action", "uri", "description"},
+                null,
+                null,
+                null,
+                null,
+                "_id"
+        );
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8"));
+            while (cursor.moveToNext()) {
+                writer.write(String.valueOf(cursor.getLong(0)));
+                writer.write('\t');
+                writer.write(escapeForExport(cursor.getString(1)));
+                writer.write('\t');
+                writer.write(escapeForExport(cursor.getString(2)));
+                writer.write('\t');
+                writer.write(escapeForExport(cursor.getString(3)));
+                writer.write('\n');
+            }
+        } finally {
+            cursor.close();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return file;
+    }
+
+    private static String escapeForExport(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    void clear() {
+        // Clear on writer thread so pending broadcasts aren't reordered with it
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete("broadcasts", null, null);
+            }
+        });
+    }
+}
@@ -192,7 +192,8 @@ public class FormattedTextBuilder {
 
     @VisibleForTesting
     Spannable getTextAsMySpannable() {
-        return new MySpannable(sb.toString(), spans);
+        // MySpannable takes entries out of list, copy it so builder can still be appended to
+        return new MySpannable(sb.toString(), new ArrayList<>(spans));
     }
 
     @VisibleForTesting
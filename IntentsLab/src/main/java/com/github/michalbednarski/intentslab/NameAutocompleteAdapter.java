@@ -37,7 +37,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Autocomplete adapter for action names etc.
@@ -46,11 +47,15 @@ public class NameAutocompleteAdapter extends BaseAdapter implements Filterable {
     private static final String TAG = "NameAutocompleteAdapter";
     private final Context mContext;
     private final LayoutInflater mInflater;
-    private String[] mNames = null;
+    private volatile NameTokenIndex mIndex = null;
     private int mNamesResource;
-    private final Object mResourceLoadLock = new Object();
     private FilteredSuggestions mFilteredSuggestions = null;
 
+    /**
+     * Indexes of names loaded from resources, shared between adapters
+     */
+    private static final HashMap<Integer, NameTokenIndex> sResourceIndexes = new HashMap<Integer, NameTokenIndex>();
+
     public NameAutocompleteAdapter(Context context, int namesResource) {
         mContext = context;
         mNamesResource = namesResource;
@@ -59,7 +64,7 @@ public class NameAutocompleteAdapter extends BaseAdapter implements Filterable {
 
     public NameAutocompleteAdapter(Context context, String names[]) {
         mContext = context;
-        mNames = names;
+        mIndex = new NameTokenIndex(names);
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
     }
 
@@ -94,6 +99,10 @@ public class NameAutocompleteAdapter extends BaseAdapter implements Filterable {
         int endPos = 0;
         for (String highlightPart : mFilteredSuggestions.highlightParts) {
             int startPos = suggestion.indexOf(highlightPart, endPos);
+            // Highlight only at token starts, the same places where query matched
+            while (startPos > 0 && NameTokenIndex.isTokenChar(suggestion.charAt(startPos - 1))) {
+                startPos = suggestion.indexOf(highlightPart, startPos + 1);
+            }
             if (startPos == -1) {
                 // Shouldn't happen
                 Log.e(TAG, "Couldn't find part to highlight");
@@ -126,50 +135,16 @@ public class NameAutocompleteAdapter extends BaseAdapter implements Filterable {
             }
 
             // Load names from resource
-            if (mNames == null) { // Check first outside synchronized for performance since we don't lock it for reading
-                synchronized (mResourceLoadLock) {
-                    if (mNames == null) { // Check again to avoid race conditions
-                        try {
-                            final BufferedReader reader = new BufferedReader(new InputStreamReader(mContext.getResources().openRawResource(mNamesResource)));
-                            ArrayList<String> nameList = new ArrayList<String>();
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                line = line.split("#", 2)[0].trim();
-                                if (!line.equals("")) {
-                                    nameList.add(line);
-                                }
-                            }
-                            mNames = nameList.toArray(new String[nameList.size()]);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                            mNames = new String[0];
-                        }
-                    }
-                }
-            }
+            NameTokenIndex index = getIndex();
 
-            // Build Pattern from constraint text
-            String queryParts[] = constraint.toString().split("[^0-9A-Za-z]+");
-            ArrayList<String> highlightParts = new ArrayList<String>(queryParts.length);
-            String patternText = ".*";
-            for (String queryPart : queryParts) {
-                patternText += "(^|[^0-9A-Z])" + Pattern.quote(queryPart) + ".*";
-                highlightParts.add(queryPart.toLowerCase());
-            }
-            final Pattern pattern = Pattern.compile(patternText, Pattern.CASE_INSENSITIVE);
-
-            // Test all names
-            ArrayList<String> suggestions = new ArrayList<String>();
-            for (String name : mNames) {
-                if (pattern.matcher(name).matches()) {
-                    suggestions.add(name);
-                }
-            }
+            // Find names having tokens starting with query parts
+            String queryParts[] = NameTokenIndex.tokenize(constraint.toString());
+            List<String> suggestions = index.query(queryParts);
 
             // Return results
             FilteredSuggestions results = new FilteredSuggestions();
             results.suggestions = suggestions.toArray(new String[suggestions.size()]);
-            results.highlightParts = highlightParts.toArray(new String[highlightParts.size()]);
+            results.highlightParts = queryParts;
 
             FilterResults wrappedResults = new FilterResults();
             wrappedResults.values = results;
@@ -184,6 +159,40 @@ public class NameAutocompleteAdapter extends BaseAdapter implements Filterable {
         }
     }
 
+    private NameTokenIndex getIndex() {
+        if (mIndex == null) { // Check first outside synchronized for performance since we don't lock it for reading
+            synchronized (sResourceIndexes) {
+                if (mIndex == null) { // Check again to avoid race conditions
+                    NameTokenIndex index = sResourceIndexes.get(mNamesResource);
+                    if (index == null) {
+                        index = new NameTokenIndex(loadNamesFromResource());
+                        sResourceIndexes.put(mNamesResource, index);
+                    }
+                    mIndex = index;
+                }
+            }
+        }
+        return mIndex;
+    }
+
+    private String[] loadNamesFromResource() {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(mContext.getResources().openRawResource(mNamesResource)));
+            ArrayList<String> nameList = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.split("#", 2)[0].trim();
+                if (!line.equals("")) {
+                    nameList.add(line);
+                }
+            }
+            return nameList.toArray(new String[nameList.size()]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new String[0];
+        }
+    }
+
     @Override
     public Filter getFilter() {
         return new MyFilter();
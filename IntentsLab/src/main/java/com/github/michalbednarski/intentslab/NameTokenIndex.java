@@ -0,0 +1,211 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of names by prefixes of their tokens,
+ * tokens being runs of letters and digits (so "android.intent.action.BOOT_COMPLETED"
+ * has tokens "android", "intent", "action", "boot" and "completed")
+ *
+ * Query is split into parts the same way and matches names that have,
+ * in order, tokens starting with every part.
+ *
+ * Immutable once built, so it can be shared between threads
+ */
+class NameTokenIndex {
+    private final String[] mNames;
+
+    /**
+     * Lowercase tokens of each name
+     */
+    private final String[][] mNameTokens;
+
+    /**
+     * Distinct tokens, sorted, so tokens with same prefix are next to each other
+     */
+    private final String[] mTokens;
+
+    /**
+     * Ids of names having token with same index in {@link #mTokens}, ascending
+     */
+    private final int[][] mPostings;
+
+    NameTokenIndex(String[] names) {
+        mNames = names;
+        mNameTokens = new String[names.length][];
+
+        HashMap<String, ArrayList<Integer>> postings = new HashMap<String, ArrayList<Integer>>();
+        for (int nameId = 0; nameId < names.length; nameId++) {
+            String[] tokens = tokenize(names[nameId]);
+            mNameTokens[nameId] = tokens;
+            for (String token : tokens) {
+                ArrayList<Integer> tokenPostings = postings.get(token);
+                if (tokenPostings == null) {
+                    tokenPostings = new ArrayList<Integer>();
+                    postings.put(token, tokenPostings);
+                }
+                // Name ids are added in order, so only last one may be duplicate
+                if (tokenPostings.isEmpty() || tokenPostings.get(tokenPostings.size() - 1) != nameId) {
+                    tokenPostings.add(nameId);
+                }
+            }
+        }
+
+        mTokens = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(mTokens);
+        mPostings = new int[mTokens.length][];
+        for (int i = 0; i < mTokens.length; i++) {
+            ArrayList<Integer> tokenPostings = postings.get(mTokens[i]);
+            int[] postingsArray = new int[tokenPostings.size()];
+            for (int j = 0; j < postingsArray.length; j++) {
+                postingsArray[j] = tokenPostings.get(j);
+            }
+            mPostings[i] = postingsArray;
+        }
+    }
+
+    /**
+     * Split text into lowercase tokens, runs of ASCII letters and digits
+     */
+    static String[] tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int length = text.length();
+        int tokenStart = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean isTokenChar = i < length && isTokenChar(text.charAt(i));
+            if (isTokenChar && tokenStart == -1) {
+                tokenStart = i;
+            } else if (!isTokenChar && tokenStart != -1) {
+                tokens.add(text.substring(tokenStart, i).toLowerCase());
+                tokenStart = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    static boolean isTokenChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    /**
+     * Find names matching query
+     *
+     * Results are ranked: names where more query parts are whole tokens come first,
+     * then shorter names, then in original order
+     *
+     * Query without parts (consisting only of separators) matches all names, in original order
+     *
+     * @param queryParts Lowercase query parts, as returned by {@link #tokenize(String)}
+     */
+    List<String> query(final String[] queryParts) {
+        if (queryParts.length == 0) {
+            return new ArrayList<String>(Arrays.asList(mNames));
+        }
+
+        // Intersect sets of names having token with prefix of every part
+        BitSet candidates = null;
+        for (String queryPart : queryParts) {
+            BitSet partMatches = namesWithTokenPrefix(queryPart);
+            if (candidates == null) {
+                candidates = partMatches;
+            } else {
+                candidates.and(partMatches);
+            }
+            if (candidates.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        // Check order of parts and rank
+        final ArrayList<Integer> results = new ArrayList<Integer>();
+        final HashMap<Integer, Integer> exactMatches = new HashMap<Integer, Integer>();
+        for (int nameId = candidates.nextSetBit(0); nameId >= 0; nameId = candidates.nextSetBit(nameId + 1)) {
+            int exact = matchInOrder(mNameTokens[nameId], queryParts);
+            if (exact != -1) {
+                results.add(nameId);
+                exactMatches.put(nameId, exact);
+            }
+        }
+        Collections.sort(results, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int exactDiff = exactMatches.get(rhs) - exactMatches.get(lhs);
+                if (exactDiff != 0) {
+                    return exactDiff;
+                }
+                int lengthDiff = mNames[lhs].length() - mNames[rhs].length();
+                if (lengthDiff != 0) {
+                    return lengthDiff;
+                }
+                return lhs - rhs;
+            }
+        });
+
+        ArrayList<String> names = new ArrayList<String>(results.size());
+        for (int nameId : results) {
+            names.add(mNames[nameId]);
+        }
+        return names;
+    }
+
+    private BitSet namesWithTokenPrefix(String prefix) {
+        BitSet names = new BitSet(mNames.length);
+        int i = Arrays.binarySearch(mTokens, prefix);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < mTokens.length && mTokens[i].startsWith(prefix); i++) {
+            for (int nameId : mPostings[i]) {
+                names.set(nameId);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Check if query parts are prefixes of name tokens in order, each part matching different token
+     *
+     * @return Number of parts that matched whole token or -1 if name doesn't match
+     */
+    private static int matchInOrder(String[] nameTokens, String[] queryParts) {
+        int tokenIndex = 0;
+        int exactMatches = 0;
+        for (String queryPart : queryParts) {
+            while (tokenIndex < nameTokens.length && !nameTokens[tokenIndex].startsWith(queryPart)) {
+                tokenIndex++;
+            }
+            if (tokenIndex == nameTokens.length) {
+                return -1;
+            }
+            if (nameTokens[tokenIndex].length() == queryPart.length()) {
+                exactMatches++;
+            }
+            tokenIndex++;
+        }
+        return exactMatches;
+    }
+}
@@ -22,27 +22,38 @@ import android.annotation.TargetApi;
 import android.app.*;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.github.michalbednarski.intentslab.editor.IntentEditorActivity;
 import com.github.michalbednarski.intentslab.editor.IntentEditorConstants;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 public class ReceiveBroadcastService extends Service {
     private static final String TAG = "ReceiveBroadcast";
@@ -52,12 +63,85 @@ public class ReceiveBroadcastService extends Service {
 	static boolean sIsRunning = false;
 	private MyBroadcastReceiver mReceiver = null;
 	private boolean mGotBroadcast = false;
-    private static class ReceivedBroadcast {
+    static class ReceivedBroadcast {
         long time;
         Intent intent;
-        String description = "";
+        boolean initialSticky;
+
+        /**
+         * Previous broadcast with same action, cleared once description is generated
+         */
+        ReceivedBroadcast previous;
+
+        /**
+         * Changes since previous broadcast, generated on {@link #sDescribeHandler} thread
+         */
+        volatile String description = "";
+    }
+
+    /**
+     * Number of broadcasts kept in multiple receive mode, older ones are dropped
+     */
+    private static final int RECEIVED_BROADCASTS_CAPACITY = 1000;
+
+    /**
+     * Minimal interval between updates of lists and notification
+     * when broadcasts are received at high rate
+     */
+    private static final long LIST_UPDATE_INTERVAL = 16;
+    private static final long NOTIFICATION_UPDATE_INTERVAL = 1000;
+
+    private static ReceivedBroadcastsBuffer sReceivedBroadcasts = null;
+
+    /**
+     * Capture log to which received broadcasts are also written, null if persisting is disabled
+     */
+    private static BroadcastCaptureLog sCaptureLog = null;
+
+    /**
+     * Handler of background thread on which descriptions of broadcasts are generated
+     */
+    private static Handler sDescribeHandler;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static boolean sListUpdatePending = false;
+    private static final Runnable sUpdateListsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sListUpdatePending = false;
+            for (BroadcastsListActivity listActivity : sListActivities) {
+                listActivity.mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
+    /**
+     * Request update of open lists, updates are coalesced to at most one per frame
+     */
+    private static void requestListsUpdate() {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!sListUpdatePending) {
+                    sListUpdatePending = true;
+                    sMainHandler.postDelayed(sUpdateListsRunnable, LIST_UPDATE_INTERVAL);
+                }
+            }
+        });
+    }
+
+    private long mLastNotificationUpdateTime = 0;
+    private boolean mNotificationUpdatePending = false;
+    private final Runnable mUpdateNotificationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mNotificationUpdatePending = false;
+            if (sIsRunning && sReceivedBroadcasts != null) {
+                mLastNotificationUpdateTime = SystemClock.uptimeMillis();
+                showListeningMultipleNotification();
+            }
+        }
     };
-    private static ArrayList<ReceivedBroadcast> sReceivedBroadcasts = null;
 
     public static void startReceiving(Context context, IntentFilter[] filters, boolean multiple) {
         if (!multiple) {
@@ -100,9 +184,16 @@ public class ReceiveBroadcastService extends Service {
 		}
 
         if (intent.getBooleanExtra("multiple", false)) {
-            sReceivedBroadcasts = new ArrayList<ReceivedBroadcast>();
+            sReceivedBroadcasts = new ReceivedBroadcastsBuffer(RECEIVED_BROADCASTS_CAPACITY);
+            if (sDescribeHandler == null) {
+                HandlerThread describeThread = new HandlerThread("ReceiveBroadcastDescribe");
+                describeThread.start();
+                sDescribeHandler = new Handler(describeThread.getLooper());
+            }
+            sCaptureLog = isPersistEnabled() ? BroadcastCaptureLog.getInstance(this) : null;
         } else {
             sReceivedBroadcasts = null;
+            sCaptureLog = null;
         }
 
 		// Get IntentFilter and register receiver
@@ -136,6 +227,10 @@ public class ReceiveBroadcastService extends Service {
 		return PreferenceManager.getDefaultSharedPreferences(this).getBoolean("autoeditbroadcast", false);
 	}
 
+	private boolean isPersistEnabled() {
+		return PreferenceManager.getDefaultSharedPreferences(this).getBoolean("persistreceivedbroadcasts", false);
+	}
+
 	private NotificationManager getNotificationManager() {
 		return (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
 	}
@@ -202,7 +297,7 @@ public class ReceiveBroadcastService extends Service {
 					viewBroadcastsListIntent, 0);
 
         String title = getString(R.string.listening_for_multiple_broadcasts);
-        int receivedSoFar = sReceivedBroadcasts.size();
+        int receivedSoFar = sReceivedBroadcasts.getTotalReceived();
         String message =
             receivedSoFar == 0 ?
                 getString(R.string.nothing_received_so_far) :
@@ -223,6 +318,7 @@ public class ReceiveBroadcastService extends Service {
 	@Override
 	public void onDestroy() {
 		sIsRunning = false;
+		sMainHandler.removeCallbacks(mUpdateNotificationRunnable);
 		unregisterReceiver(mReceiver);
 		super.onDestroy();
 	}
@@ -237,70 +333,29 @@ public class ReceiveBroadcastService extends Service {
 		public void onReceive(Context context, Intent intent) {
             if (sReceivedBroadcasts != null) {
                 // Running in receive multiple mode, add broadcast to list
-                ReceivedBroadcast receivedBroadcast = new ReceivedBroadcast();
+                final ReceivedBroadcast receivedBroadcast = new ReceivedBroadcast();
                 receivedBroadcast.time = System.currentTimeMillis();
                 receivedBroadcast.intent = intent;
-
-                // Find last broadcast with same action
-                Intent previousBroadcastIntent = null;
-                ReceivedBroadcast previousBroadcast = null;
-                for (int i = sReceivedBroadcasts.size() - 1; i >= 0; i--) {
-                    previousBroadcast = sReceivedBroadcasts.get(i);
-                    previousBroadcastIntent = previousBroadcast.intent;
-                    if (previousBroadcastIntent.getAction().equals(intent.getAction())) {
-                        break;
-                    } else if (i == 0) {
-                        previousBroadcastIntent = null;
-                    }
-                }
-
-                // Generate description
-                String description = "";
-                if (previousBroadcastIntent == null) {
-                    if (isInitialStickyBroadcast()) {
-                        description = context.getString(R.string.initial_sticky);
-                    }
-                } else {
-
-                    if (intent.getData() != null) {
-                        description = intent.getDataString();
-                    } else {
-                        description = context.getString(R.string.s_after_previous_broadcast, (receivedBroadcast.time - previousBroadcast.time) / 1000);
-                    }
-
-                    if (previousBroadcastIntent.getFlags() != intent.getFlags()) {
-                        description += "\n" + context.getString(R.string.flags_changed);
-                    }
-
-                    // Extras changes
-                    Bundle extras = intent.getExtras();
-                    Bundle previousExtras = previousBroadcastIntent.getExtras();
-                    if (extras == null || extras.size() == 0) {
-                        receivedBroadcast.description += "\n" + context.getString(R.string.no_extras);
-                    } else if (previousExtras != null && previousExtras.size() != 0) {
-                        // Both have extras, compare them
-                        for (String extraName : extras.keySet()) {
-                            Object oldValue = previousExtras.get(extraName);
-                            Object newValue = extras.get(extraName);
-                            if (oldValue == null) {
-                                description += "\n" + getString(R.string.added_extra, extraName);
-                            } else if (Utils.hasOverriddenEqualsMethod(newValue) && !newValue.equals(oldValue)) {
-                                description += "\n" + extraName + ": " + oldValue + " -> " + newValue;
-                            }
-                            if (description.length() > 500) {
-                                description += "\n[...]";
-                                break;
-                            }
+                receivedBroadcast.initialSticky = isInitialStickyBroadcast();
+                receivedBroadcast.previous = sReceivedBroadcasts.add(receivedBroadcast);
+
+                // Compare with previous broadcast in background
+                final Context appContext = context.getApplicationContext();
+                final BroadcastCaptureLog captureLog = sCaptureLog;
+                sDescribeHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        receivedBroadcast.description = describeBroadcast(appContext, receivedBroadcast, receivedBroadcast.previous);
+                        receivedBroadcast.previous = null;
+                        if (captureLog != null) {
+                            captureLog.append(receivedBroadcast);
                         }
+                        requestListsUpdate();
                     }
-                }
-                receivedBroadcast.description = description;
+                });
 
-                sReceivedBroadcasts.add(receivedBroadcast);
-                for (BroadcastsListActivity listActivity : sListActivities) {
-                    listActivity.mAdapter.notifyDataSetChanged();
-                }
-                showListeningMultipleNotification();
+                requestListsUpdate();
+                updateListeningMultipleNotificationThrottled();
             } else {
                 showCaughtNotification(intent);
                 stopSelf(); // Stop my service, unregister receiver
@@ -308,28 +363,128 @@ public class ReceiveBroadcastService extends Service {
 		}
 	}
 
+    private void updateListeningMultipleNotificationThrottled() {
+        if (mNotificationUpdatePending) {
+            return;
+        }
+        long delay = mLastNotificationUpdateTime + NOTIFICATION_UPDATE_INTERVAL - SystemClock.uptimeMillis();
+        mNotificationUpdatePending = true;
+        sMainHandler.postDelayed(mUpdateNotificationRunnable, Math.max(0, delay));
+    }
+
+    /**
+     * Generate description of changes since previous broadcast with same action,
+     * this is called on background thread
+     */
+    private static String describeBroadcast(Context context, ReceivedBroadcast receivedBroadcast, ReceivedBroadcast previousBroadcast) {
+        Intent intent = receivedBroadcast.intent;
+        String description = "";
+        if (previousBroadcast == null) {
+            if (receivedBroadcast.initialSticky) {
+                description = context.getString(R.string.initial_sticky);
+            }
+            return description;
+        }
+        Intent previousBroadcastIntent = previousBroadcast.intent;
+
+        if (intent.getData() != null) {
+            description = intent.getDataString();
+        } else {
+            description = context.getString(R.string.s_after_previous_broadcast, (receivedBroadcast.time - previousBroadcast.time) / 1000);
+        }
+
+        if (previousBroadcastIntent.getFlags() != intent.getFlags()) {
+            description += "\n" + context.getString(R.string.flags_changed);
+        }
+
+        // Extras changes
+        Bundle extras = intent.getExtras();
+        Bundle previousExtras = previousBroadcastIntent.getExtras();
+        if (extras == null || extras.size() == 0) {
+            description += "\n" + context.getString(R.string.no_extras);
+        } else if (previousExtras != null && previousExtras.size() != 0) {
+            // Both have extras, compare them
+            for (String extraName : extras.keySet()) {
+                Object oldValue = previousExtras.get(extraName);
+                Object newValue = extras.get(extraName);
+                if (oldValue == null) {
+                    description += "\n" + context.getString(R.string.added_extra, extraName);
+                } else if (Utils.hasOverriddenEqualsMethod(newValue) && !newValue.equals(oldValue)) {
+                    description += "\n" + extraName + ": " + oldValue + " -> " + newValue;
+                }
+                if (description.length() > 500) {
+                    description += "\n[...]";
+                    break;
+                }
+            }
+        }
+        return description;
+    }
+
     // Activity for viewing multiple broadcasts
     private static ArrayList<BroadcastsListActivity> sListActivities = new ArrayList<BroadcastsListActivity>();
     public static class BroadcastsListActivity extends ListActivity implements AdapterView.OnItemClickListener {
-        ArrayAdapter<ReceivedBroadcast> mAdapter;
+        /**
+         * Boolean extra, if true {@link BroadcastCaptureLog} is shown instead of broadcasts received in current session
+         */
+        public static final String EXTRA_CAPTURE_LOG = "captureLog";
+
+        /**
+         * Number of capture log entries loaded at once
+         */
+        private static final int CAPTURE_LOG_PAGE_SIZE = 100;
+
+        /**
+         * Next page of capture log is loaded when list is scrolled to this many entries before end
+         */
+        private static final int CAPTURE_LOG_PREFETCH_DISTANCE = 20;
+
+        BaseAdapter mAdapter;
+        private CaptureLogAdapter mCaptureLogAdapter;
 
         @Override
         protected void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
 
+            // Capture log mode doesn't need running service, it's checked before sReceivedBroadcasts
+            if (getIntent().getBooleanExtra(EXTRA_CAPTURE_LOG, false)) {
+                mCaptureLogAdapter = new CaptureLogAdapter(BroadcastCaptureLog.getInstance(this));
+                mAdapter = mCaptureLogAdapter;
+                setListAdapter(mAdapter);
+                getListView().setOnItemClickListener(this);
+                mCaptureLogAdapter.reload(null);
+                return;
+            }
+
             if (sReceivedBroadcasts == null) {
                 Log.e(TAG, "Unexpected start of BroadcastsListActivity");
                 finish();
                 return;
             }
 
-            mAdapter = new ArrayAdapter<ReceivedBroadcast>(this, 0, sReceivedBroadcasts) {
+            final ReceivedBroadcastsBuffer receivedBroadcasts = sReceivedBroadcasts;
+            mAdapter = new BaseAdapter() {
+                @Override
+                public int getCount() {
+                    return receivedBroadcasts.size();
+                }
+
+                @Override
+                public ReceivedBroadcast getItem(int position) {
+                    return receivedBroadcasts.get(position);
+                }
+
+                @Override
+                public long getItemId(int position) {
+                    return position;
+                }
+
                 @Override
                 public View getView(int position, View convertView, ViewGroup parent) {
                     if (convertView == null) {
                         convertView = getLayoutInflater().inflate(android.R.layout.simple_list_item_2, parent, false);
                     }
-                    ReceivedBroadcast receivedBroadcast = mAdapter.getItem(position);
+                    ReceivedBroadcast receivedBroadcast = getItem(position);
                     ((TextView) convertView.findViewById(android.R.id.text1)).setText(Utils.afterLastDot(receivedBroadcast.intent.getAction()));
                     ((TextView) convertView.findViewById(android.R.id.text2)).setText(receivedBroadcast.description);
                     return convertView;
@@ -343,15 +498,27 @@ public class ReceiveBroadcastService extends Service {
         @Override
         protected void onDestroy() {
             sListActivities.remove(this);
+            if (mCaptureLogAdapter != null) {
+                mCaptureLogAdapter.cancelLoading();
+            }
             super.onDestroy();
         }
 
         @Override
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            if (mCaptureLogAdapter != null) {
+                // Intents aren't kept in list, load it from log
+                new OpenLogEntryTask(mCaptureLogAdapter.mCaptureLog, id).execute();
+                return;
+            }
+            openIntentEditor(((ReceivedBroadcast) mAdapter.getItem(position)).intent);
+        }
+
+        private void openIntentEditor(Intent intent) {
             startActivity(
                     new Intent(this, IntentEditorActivity.class)
                             .putExtra(IntentEditorActivity.EXTRA_COMPONENT_TYPE, IntentEditorConstants.BROADCAST)
-                            .putExtra(IntentEditorActivity.EXTRA_INTENT, mAdapter.getItem(position).intent)
+                            .putExtra(IntentEditorActivity.EXTRA_INTENT, intent)
             );
         }
 
@@ -363,22 +530,244 @@ public class ReceiveBroadcastService extends Service {
 
         @Override
         public boolean onPrepareOptionsMenu(Menu menu) {
+            boolean captureLog = mCaptureLogAdapter != null;
             menu.findItem(R.id.stop_listening_for_broadcasts).setVisible(sIsRunning).setEnabled(sIsRunning);
+            menu.findItem(R.id.view_capture_log).setVisible(!captureLog);
+            menu.findItem(R.id.filter_by_action).setVisible(captureLog);
+            menu.findItem(R.id.export_capture_log).setVisible(captureLog);
+            menu.findItem(R.id.clear_capture_log).setVisible(captureLog);
             return true;
         }
 
         @TargetApi(Build.VERSION_CODES.HONEYCOMB)
         @Override
         public boolean onOptionsItemSelected(MenuItem item) {
-            if (item.getItemId() == R.id.stop_listening_for_broadcasts) {
-                stopService(new Intent(this, ReceiveBroadcastService.class));
-                sIsRunning = false;
-                try {
-                    invalidateOptionsMenu();
-                } catch (NoSuchMethodError ignored) {}
-                return true;
+            switch (item.getItemId()) {
+                case R.id.stop_listening_for_broadcasts:
+                    stopService(new Intent(this, ReceiveBroadcastService.class));
+                    sIsRunning = false;
+                    try {
+                        invalidateOptionsMenu();
+                    } catch (NoSuchMethodError ignored) {}
+                    return true;
+                case R.id.view_capture_log:
+                    startActivity(
+                            new Intent(this, BroadcastsListActivity.class)
+                                    .putExtra(EXTRA_CAPTURE_LOG, true)
+                    );
+                    return true;
+                case R.id.filter_by_action:
+                    showFilterByActionDialog();
+                    return true;
+                case R.id.export_capture_log:
+                    new ExportCaptureLogTask(mCaptureLogAdapter.mCaptureLog).execute();
+                    return true;
+                case R.id.clear_capture_log:
+                    mCaptureLogAdapter.mCaptureLog.clear();
+                    mCaptureLogAdapter.showEmpty();
+                    return true;
             }
             return super.onOptionsItemSelected(item);
         }
+
+        private void showFilterByActionDialog() {
+            final AutoCompleteTextView actionTextView = new AutoCompleteTextView(this);
+            actionTextView.setSingleLine();
+            actionTextView.setText(mCaptureLogAdapter.mActionFilter);
+            actionTextView.setAdapter(new NameAutocompleteAdapter(this, R.raw.broadcast_actions));
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.filter_by_action)
+                    .setView(actionTextView)
+                    .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            String action = actionTextView.getText().toString();
+                            mCaptureLogAdapter.reload(action.length() != 0 ? action : null);
+                        }
+                    })
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .show();
+        }
+
+        /**
+         * Adapter showing {@link BroadcastCaptureLog}, newest first
+         *
+         * Entries are loaded in pages as list is scrolled, so whole log is never in memory
+         */
+        private class CaptureLogAdapter extends BaseAdapter {
+            final BroadcastCaptureLog mCaptureLog;
+            private final ArrayList<BroadcastCaptureLog.Entry> mEntries = new ArrayList<BroadcastCaptureLog.Entry>();
+            String mActionFilter;
+            private boolean mEndReached;
+            private LoadCaptureLogPageTask mLoadPageTask;
+
+            CaptureLogAdapter(BroadcastCaptureLog captureLog) {
+                mCaptureLog = captureLog;
+            }
+
+            /**
+             * Discard loaded entries and start loading from newest one
+             *
+             * @param actionFilter Action to filter by or null to show all broadcasts
+             */
+            void reload(String actionFilter) {
+                cancelLoading();
+                mActionFilter = actionFilter;
+                mEntries.clear();
+                mEndReached = false;
+                notifyDataSetChanged();
+                loadNextPageIfNeeded();
+            }
+
+            void showEmpty() {
+                cancelLoading();
+                mEntries.clear();
+                mEndReached = true;
+                notifyDataSetChanged();
+            }
+
+            void cancelLoading() {
+                if (mLoadPageTask != null) {
+                    mLoadPageTask.cancel(false);
+                    mLoadPageTask = null;
+                }
+            }
+
+            private void loadNextPageIfNeeded() {
+                if (mLoadPageTask != null || mEndReached) {
+                    return;
+                }
+                long beforeId = mEntries.isEmpty() ? Long.MAX_VALUE : mEntries.get(mEntries.size() - 1).id;
+                mLoadPageTask = new LoadCaptureLogPageTask(this, mActionFilter, beforeId);
+                mLoadPageTask.execute();
+            }
+
+            void onPageLoaded(LoadCaptureLogPageTask task, List<BroadcastCaptureLog.Entry> page) {
+                if (task != mLoadPageTask) {
+                    return;
+                }
+                mLoadPageTask = null;
+                mEntries.addAll(page);
+                mEndReached = page.size() < CAPTURE_LOG_PAGE_SIZE;
+                notifyDataSetChanged();
+            }
+
+            @Override
+            public int getCount() {
+                return mEntries.size();
+            }
+
+            @Override
+            public BroadcastCaptureLog.Entry getItem(int position) {
+                return mEntries.get(position);
+            }
+
+            @Override
+            public long getItemId(int position) {
+                return mEntries.get(position).id;
+            }
+
+            @Override
+            public boolean hasStableIds() {
+                return true;
+            }
+
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                if (position >= mEntries.size() - CAPTURE_LOG_PREFETCH_DISTANCE) {
+                    loadNextPageIfNeeded();
+                }
+                if (convertView == null) {
+                    convertView = getLayoutInflater().inflate(android.R.layout.simple_list_item_2, parent, false);
+                }
+                BroadcastCaptureLog.Entry entry = getItem(position);
+                String time = DateUtils.formatDateTime(
+                        BroadcastsListActivity.this,
+                        entry.time,
+                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME
+                );
+                ((TextView) convertView.findViewById(android.R.id.text1)).setText(Utils.afterLastDot(entry.action));
+                ((TextView) convertView.findViewById(android.R.id.text2)).setText(
+                        entry.description.length() != 0 ? time + "\n" + entry.description : time
+                );
+                return convertView;
+            }
+        }
+
+        private class LoadCaptureLogPageTask extends AsyncTask<Object, Object, List<BroadcastCaptureLog.Entry>> {
+            private final CaptureLogAdapter mCaptureLogAdapter;
+            private final String mActionFilter;
+            private final long mBeforeId;
+
+            LoadCaptureLogPageTask(CaptureLogAdapter captureLogAdapter, String actionFilter, long beforeId) {
+                mCaptureLogAdapter = captureLogAdapter;
+                mActionFilter = actionFilter;
+                mBeforeId = beforeId;
+            }
+
+            @Override
+            protected List<BroadcastCaptureLog.Entry> doInBackground(Object... params) {
+                return mCaptureLogAdapter.mCaptureLog.queryPage(mActionFilter, 0, Long.MAX_VALUE, mBeforeId, CAPTURE_LOG_PAGE_SIZE);
+            }
+
+            @Override
+            protected void onPostExecute(List<BroadcastCaptureLog.Entry> entries) {
+                mCaptureLogAdapter.onPageLoaded(this, entries);
+            }
+        }
+
+        private class OpenLogEntryTask extends AsyncTask<Object, Object, Intent> {
+            private final BroadcastCaptureLog mCaptureLog;
+            private final long mId;
+
+            OpenLogEntryTask(BroadcastCaptureLog captureLog, long id) {
+                mCaptureLog = captureLog;
+                mId = id;
+            }
+
+            @Override
+            protected Intent doInBackground(Object... params) {
+                return mCaptureLog.loadIntent(mId);
+            }
+
+            @Override
+            protected void onPostExecute(Intent intent) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (intent != null) {
+                    openIntentEditor(intent);
+                } else {
+                    Toast.makeText(BroadcastsListActivity.this, R.string.capture_log_entry_unreadable, Toast.LENGTH_SHORT).show();
+                }
+            }
+        }
+
+        private class ExportCaptureLogTask extends AsyncTask<Object, Object, File> {
+            private final BroadcastCaptureLog mCaptureLog;
+
+            ExportCaptureLogTask(BroadcastCaptureLog captureLog) {
+                mCaptureLog = captureLog;
+            }
+
+            @Override
+            protected File doInBackground(Object... params) {
+                try {
+                    return mCaptureLog.export(getApplicationContext());
+                } catch (IOException e) {
+                    Log.e(TAG, "Export of capture log failed", e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(File file) {
+                if (file != null) {
+                    Toast.makeText(getApplicationContext(), getString(R.string.capture_log_exported_to, file.getPath()), Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(getApplicationContext(), R.string.capture_log_export_failed, Toast.LENGTH_SHORT).show();
+                }
+            }
+        }
     }
 }
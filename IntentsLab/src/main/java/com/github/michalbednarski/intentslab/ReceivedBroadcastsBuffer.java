@@ -0,0 +1,75 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import java.util.HashMap;
+
+/**
+ * Fixed capacity store of broadcasts received by {@link ReceiveBroadcastService} in multiple receive mode
+ *
+ * When buffer is full oldest broadcasts are dropped.
+ * Last broadcast with each action is remembered (even if it was dropped),
+ * so previous broadcast for comparison can be found without scanning.
+ *
+ * Used only on main thread
+ */
+class ReceivedBroadcastsBuffer {
+    private final RingBuffer<ReceiveBroadcastService.ReceivedBroadcast> mItems;
+
+    private int mTotalReceived = 0;
+
+    private final HashMap<String, ReceiveBroadcastService.ReceivedBroadcast> mLastByAction =
+            new HashMap<String, ReceiveBroadcastService.ReceivedBroadcast>();
+
+    ReceivedBroadcastsBuffer(int capacity) {
+        mItems = new RingBuffer<ReceiveBroadcastService.ReceivedBroadcast>(capacity);
+    }
+
+    /**
+     * Add broadcast, dropping oldest one if buffer is full
+     *
+     * @return Previous broadcast with same action or null if this is first one
+     */
+    ReceiveBroadcastService.ReceivedBroadcast add(ReceiveBroadcastService.ReceivedBroadcast receivedBroadcast) {
+        mItems.add(receivedBroadcast);
+        mTotalReceived++;
+        return mLastByAction.put(receivedBroadcast.intent.getAction(), receivedBroadcast);
+    }
+
+    /**
+     * Number of broadcasts currently in buffer
+     */
+    int size() {
+        return mItems.size();
+    }
+
+    /**
+     * Get broadcast from buffer, 0 is oldest one
+     */
+    ReceiveBroadcastService.ReceivedBroadcast get(int position) {
+        return mItems.get(position);
+    }
+
+    /**
+     * Number of broadcasts received, including ones that were dropped
+     */
+    int getTotalReceived() {
+        return mTotalReceived;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+/**
+ * Fixed capacity list that drops oldest items when full
+ *
+ * Not thread safe
+ */
+public class RingBuffer<T> {
+    private final Object[] mItems;
+
+    /**
+     * Index of oldest item in {@link #mItems}
+     */
+    private int mStart = 0;
+    private int mSize = 0;
+
+    public RingBuffer(int capacity) {
+        mItems = new Object[capacity];
+    }
+
+    /**
+     * Add item, dropping oldest one if buffer is full
+     */
+    public void add(T item) {
+        if (mSize == mItems.length) {
+            mItems[mStart] = item;
+            mStart = (mStart + 1) % mItems.length;
+        } else {
+            mItems[(mStart + mSize) % mItems.length] = item;
+            mSize++;
+        }
+    }
+
+    /**
+     * Number of items currently in buffer
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get item from buffer, 0 is oldest one
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position=" + position + " size=" + mSize);
+        }
+        return (T) mItems[(mStart + position) % mItems.length];
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.inputmethod.InputMethodManager;
+import android.widget.EditText;
+import android.widget.SearchView;
+
+/**
+ * Base of text viewer fragments, handles search and find next options menu items
+ * so {@link TextFragment} and {@link TextLinesFragment} share them
+ */
+public abstract class SearchableTextFragment extends Fragment {
+
+    /**
+     * Query to prefill in search field, or null
+     */
+    protected abstract String getLastSearchQuery();
+
+    /**
+     * Search for query entered by user, highlighting hits and scrolling to first one
+     */
+    protected abstract void doSearch(String query);
+
+    /**
+     * Scroll to next search hit, called on find next
+     */
+    protected abstract void findNext();
+
+    protected abstract boolean canSearch();
+
+    protected abstract boolean hasSearchHits();
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.text_viewer, menu);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            final SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+            String lastSearchQuery = getLastSearchQuery();
+            if (lastSearchQuery != null) {
+                searchView.setQuery(lastSearchQuery, false);
+            }
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String query) {
+                    InputMethodManager imm = (InputMethodManager)
+                            getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
+                    imm.hideSoftInputFromWindow(searchView.getWindowToken(), 0);
+                    doSearch(query);
+                    return false;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String newText) {
+                    return true;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        boolean canSearch = canSearch();
+        boolean canFindNext = canSearch && hasSearchHits();
+        menu.findItem(R.id.action_search)
+                .setVisible(canSearch)
+                .setEnabled(canSearch);
+        menu.findItem(R.id.action_find_next)
+                .setVisible(canFindNext)
+                .setEnabled(canFindNext);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_search && !(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)) {
+            final EditText queryView = new EditText(getContext());
+            queryView.setSingleLine();
+            String lastSearchQuery = getLastSearchQuery();
+            if (lastSearchQuery != null) {
+                queryView.setText(lastSearchQuery);
+            }
+            new AlertDialog.Builder(getContext())
+                    .setTitle(R.string.search)
+                    .setView(queryView)
+                    .setPositiveButton(R.string.search, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            doSearch(queryView.getText().toString());
+                        }
+                    })
+                    .show();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_find_next) {
+            findNext();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
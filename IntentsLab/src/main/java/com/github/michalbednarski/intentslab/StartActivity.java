@@ -159,6 +159,13 @@ public class StartActivity extends FragmentActivity {
             case R.id.provider_lab:
                 startActivity(new Intent(StartActivity.this, AdvancedQueryActivity.class));
                 return true;
+            case R.id.view_capture_log:
+                // Capture log is kept after listening stopped, so it's available from here too
+                startActivity(
+                        new Intent(this, ReceiveBroadcastService.BroadcastsListActivity.class)
+                                .putExtra(ReceiveBroadcastService.BroadcastsListActivity.EXTRA_CAPTURE_LOG, true)
+                );
+                return true;
     	}
     	return false;
     }
@@ -18,31 +18,20 @@
 
 package com.github.michalbednarski.intentslab;
 
-import android.app.AlertDialog;
-import android.content.Context;
-import android.content.DialogInterface;
 import android.graphics.Rect;
-import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.ColorInt;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
-import android.support.v4.app.Fragment;
 import android.text.Layout;
 import android.text.Spannable;
 import android.text.Spanned;
 import android.text.method.LinkMovementMethod;
 import android.text.style.BackgroundColorSpan;
 import android.view.LayoutInflater;
-import android.view.Menu;
-import android.view.MenuInflater;
-import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.inputmethod.InputMethodManager;
-import android.widget.EditText;
 import android.widget.ScrollView;
-import android.widget.SearchView;
 import android.widget.TextView;
 
 import java.lang.ref.WeakReference;
@@ -55,7 +44,7 @@ import java.util.regex.Pattern;
 /**
  * Base fragment for displaying long text
  */
-public class TextFragment extends Fragment {
+public class TextFragment extends SearchableTextFragment {
     private View mLoaderView;
     private ScrollView mScrollView;
     private TextView mTextView;
@@ -74,7 +63,6 @@ public class TextFragment extends Fragment {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mSearchHighlightColor = getResources().getColor(R.color.search_highlight);
-        setHasOptionsMenu(true);
     }
 
     @Override
@@ -99,77 +87,37 @@ public class TextFragment extends Fragment {
     }
 
     @Override
-    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
-        inflater.inflate(R.menu.text_viewer, menu);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            final SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
-            if (mLastSearchQuery != null) {
-                searchView.setQuery(mLastSearchQuery, false);
-            }
-            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
-                @Override
-                public boolean onQueryTextSubmit(String query) {
-                    InputMethodManager imm = (InputMethodManager)
-                            getContext().getSystemService(Context.INPUT_METHOD_SERVICE);
-                    imm.hideSoftInputFromWindow(searchView.getWindowToken(), 0);
-                    doSearch(query, true);
-                    return false;
-                }
-
-                @Override
-                public boolean onQueryTextChange(String newText) {
-                    return true;
-                }
-            });
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+        if (isVisibleToUser && mIsPutTextPending) {
+            mIsPutTextPending = false;
+            putTextInView();
         }
     }
 
     @Override
-    public void onPrepareOptionsMenu(Menu menu) {
-        boolean canSearch = mText != null;
-        boolean canFindNext = canSearch && !mSearchHighlights.isEmpty();
-        menu.findItem(R.id.action_search)
-                .setVisible(canSearch)
-                .setEnabled(canSearch);
-        menu.findItem(R.id.action_find_next)
-                .setVisible(canFindNext)
-                .setEnabled(canFindNext);
+    protected String getLastSearchQuery() {
+        return mLastSearchQuery;
     }
 
     @Override
-    public boolean onOptionsItemSelected(MenuItem item) {
-        if (item.getItemId() == R.id.action_search && !(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)) {
-            final EditText queryView = new EditText(getContext());
-            queryView.setSingleLine();
-            if (mLastSearchQuery != null) {
-                queryView.setText(mLastSearchQuery);
-            }
-            new AlertDialog.Builder(getContext())
-                    .setTitle(R.string.search)
-                    .setView(queryView)
-                    .setPositiveButton(R.string.search, new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            doSearch(queryView.getText().toString(), true);
-                        }
-                    })
-                    .show();
-            return true;
-        }
-        if (item.getItemId() == R.id.action_find_next) {
-            scrollToSearchHit(true);
-            return true;
-        }
-        return super.onOptionsItemSelected(item);
+    protected void doSearch(String query) {
+        doSearch(query, true);
     }
 
     @Override
-    public void setUserVisibleHint(boolean isVisibleToUser) {
-        super.setUserVisibleHint(isVisibleToUser);
-        if (isVisibleToUser && mIsPutTextPending) {
-            mIsPutTextPending = false;
-            putTextInView();
-        }
+    protected void findNext() {
+        scrollToSearchHit(true);
+    }
+
+    @Override
+    protected boolean canSearch() {
+        return mText != null;
+    }
+
+    @Override
+    protected boolean hasSearchHits() {
+        return !mSearchHighlights.isEmpty();
     }
 
     private void doSearch(String query, boolean doScroll) {
@@ -200,7 +148,9 @@ public class TextFragment extends Fragment {
             scrollToSearchHit(false);
         }
 
-        ActivityCompat.invalidateOptionsMenu(getActivity());
+        if (getActivity() != null) {
+            ActivityCompat.invalidateOptionsMenu(getActivity());
+        }
     }
 
     private void clearSearchHighlights()
@@ -278,9 +228,17 @@ public class TextFragment extends Fragment {
         mScrollView.smoothScrollTo(0, lineBounds.top);
     }
 
+    /**
+     * Show text, may be called again to replace it (for example with more complete version)
+     */
     protected void publishText(Spannable text) {
         mSearchHighlights.clear();
+        mHitLines = null;
         mText = text;
+        if (mLastSearchQuery != null) {
+            // Highlight previous query in new text
+            doSearch(mLastSearchQuery, false);
+        }
         if (mLoaderView != null) {
             putTextInView();
         }
@@ -0,0 +1,102 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import java.util.ArrayList;
+
+/**
+ * Append-only store of text lines with index of their positions
+ *
+ * Characters are kept in fixed size chunks, so appending doesn't copy
+ * what was already stored and large texts don't need one huge allocation.
+ * Lines can be appended on one thread while being read on others.
+ */
+class TextLines {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ArrayList<char[]> mChunks = new ArrayList<char[]>();
+    private int mChunkUsed = 0;
+
+    /**
+     * Chunk, offset in chunk and length of each line
+     */
+    private int[] mLineChunks = new int[1024];
+    private int[] mLineStarts = new int[1024];
+    private int[] mLineLengths = new int[1024];
+    private int mLineCount = 0;
+
+    synchronized void add(String line) {
+        int length = line.length();
+
+        // Lines don't cross chunks, start new one if this doesn't fit
+        char[] chunk = mChunks.isEmpty() ? null : mChunks.get(mChunks.size() - 1);
+        if (chunk == null || chunk.length - mChunkUsed < length) {
+            chunk = new char[Math.max(CHUNK_SIZE, length)];
+            mChunks.add(chunk);
+            mChunkUsed = 0;
+        }
+        line.getChars(0, length, chunk, mChunkUsed);
+
+        // Add to index
+        if (mLineCount == mLineStarts.length) {
+            int newCapacity = mLineCount * 2;
+            mLineChunks = copyOf(mLineChunks, newCapacity);
+            mLineStarts = copyOf(mLineStarts, newCapacity);
+            mLineLengths = copyOf(mLineLengths, newCapacity);
+        }
+        mLineChunks[mLineCount] = mChunks.size() - 1;
+        mLineStarts[mLineCount] = mChunkUsed;
+        mLineLengths[mLineCount] = length;
+        mLineCount++;
+        mChunkUsed += length;
+    }
+
+    static int[] copyOf(int[] array, int newLength) {
+        int[] newArray = new int[newLength];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, newLength));
+        return newArray;
+    }
+
+    synchronized int size() {
+        return mLineCount;
+    }
+
+    synchronized String get(int line) {
+        if (line < 0 || line >= mLineCount) {
+            throw new IndexOutOfBoundsException("line=" + line + " size=" + mLineCount);
+        }
+        return new String(mChunks.get(mLineChunks[line]), mLineStarts[line], mLineLengths[line]);
+    }
+
+    /**
+     * Find query in text ignoring case
+     *
+     * Unlike searching in lower cased text this keeps offsets valid for original text
+     *
+     * @return Offset of first occurrence at or after fromIndex or -1
+     */
+    static int indexOfIgnoreCase(String text, String query, int fromIndex) {
+        for (int i = fromIndex, last = text.length() - query.length(); i <= last; i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
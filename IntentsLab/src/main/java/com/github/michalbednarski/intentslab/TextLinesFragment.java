@@ -0,0 +1,405 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.ColorInt;
+import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.os.AsyncTaskCompat;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base fragment for displaying long plain text, such as dumpsys output
+ *
+ * Unlike {@link TextFragment}, text is split into lines and only visible ones are laid out,
+ * lines can be appended (from any thread) while text is already displayed
+ * and search runs in background over lines as they come.
+ */
+public class TextLinesFragment extends SearchableTextFragment {
+
+    /**
+     * Delay before appended lines are shown, so lines streamed in aren't shown one by one
+     */
+    private static final long REFRESH_DELAY = 100;
+
+    /**
+     * Number of lines searched before found hits are shown
+     */
+    private static final int SEARCH_PUBLISH_INTERVAL = 5000;
+
+    private final TextLines mLines = new TextLines();
+    private volatile boolean mFinished = false;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mRefreshScheduled = new AtomicBoolean();
+
+    private View mLoaderView;
+    private ListView mListView;
+    private final LinesAdapter mAdapter = new LinesAdapter();
+
+    /**
+     * Number of lines known to adapter, updated on main thread
+     */
+    private int mShownLineCount = 0;
+
+    private @ColorInt int mSearchHighlightColor;
+    private String mLastSearchQuery;
+
+    /**
+     * Lines containing query, ascending
+     */
+    private int[] mHitLines = new int[16];
+    private int mHitLineCount = 0;
+
+    /**
+     * Number of lines that were already searched for {@link #mLastSearchQuery}
+     */
+    private int mSearchedLineCount = 0;
+    private SearchTask mSearchTask;
+    private boolean mScrollToFirstHit;
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshScheduled.set(false);
+            refresh();
+        }
+    };
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mSearchHighlightColor = getResources().getColor(R.color.search_highlight);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        final View view = inflater.inflate(R.layout.text_lines_viewer, container, false);
+        mLoaderView = view.findViewById(R.id.loader);
+        mListView = (ListView) view.findViewById(R.id.lines);
+        mListView.setAdapter(mAdapter);
+        updateViewsVisibility();
+        return view;
+    }
+
+    @Override
+    public void onDestroyView() {
+        mLoaderView = null;
+        mListView = null;
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+            mSearchTask = null;
+        }
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+
+    /**
+     * Add line at end of text, may be called from any thread
+     */
+    protected void appendLine(String line) {
+        mLines.add(line);
+        scheduleRefresh();
+    }
+
+    /**
+     * Mark that all lines were appended, may be called from any thread
+     */
+    protected void finishLines() {
+        mFinished = true;
+        scheduleRefresh();
+    }
+
+    private void scheduleRefresh() {
+        if (mRefreshScheduled.compareAndSet(false, true)) {
+            mHandler.postDelayed(mRefreshRunnable, REFRESH_DELAY);
+        }
+    }
+
+    /**
+     * Show lines appended since last refresh, called on main thread
+     */
+    private void refresh() {
+        boolean wasEmpty = mShownLineCount == 0;
+        mShownLineCount = mLines.size();
+        mAdapter.notifyDataSetChanged();
+        updateViewsVisibility();
+        if (wasEmpty || mFinished) {
+            invalidateOptionsMenu();
+        }
+
+        // Search new lines
+        if (mLastSearchQuery != null && mSearchTask == null && mSearchedLineCount < mShownLineCount) {
+            startSearchTask();
+        }
+    }
+
+    private void invalidateOptionsMenu() {
+        // Lines and search hits may arrive while retained fragment is detached
+        if (getActivity() != null) {
+            ActivityCompat.invalidateOptionsMenu(getActivity());
+        }
+    }
+
+    private void updateViewsVisibility() {
+        if (mListView == null) {
+            return;
+        }
+        boolean hasText = mShownLineCount != 0 || mFinished;
+        mListView.setVisibility(hasText ? View.VISIBLE : View.GONE);
+        mLoaderView.setVisibility(hasText ? View.GONE : View.VISIBLE);
+    }
+
+    @Override
+    protected String getLastSearchQuery() {
+        return mLastSearchQuery;
+    }
+
+    @Override
+    protected void findNext() {
+        scrollToSearchHit(true);
+    }
+
+    @Override
+    protected boolean canSearch() {
+        return mShownLineCount != 0;
+    }
+
+    @Override
+    protected boolean hasSearchHits() {
+        return mHitLineCount != 0;
+    }
+
+    @Override
+    protected void doSearch(String query) {
+        // Stop previous search and clear hits
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+            mSearchTask = null;
+        }
+        mHitLineCount = 0;
+        mSearchedLineCount = 0;
+        mLastSearchQuery = query == null || query.length() == 0 ? null : query;
+        mAdapter.notifyDataSetChanged();
+
+        if (mLastSearchQuery != null) {
+            mScrollToFirstHit = true;
+            startSearchTask();
+        }
+
+        invalidateOptionsMenu();
+    }
+
+    private void startSearchTask() {
+        mSearchTask = new SearchTask(mLastSearchQuery, mSearchedLineCount, mShownLineCount);
+        // Run in parallel, serial executor could be still busy with task producing lines
+        AsyncTaskCompat.executeParallel(mSearchTask);
+    }
+
+    private void addSearchHits(int[] hits) {
+        if (mHitLineCount + hits.length > mHitLines.length) {
+            int[] newHitLines = new int[Math.max(mHitLines.length * 2, mHitLineCount + hits.length)];
+            System.arraycopy(mHitLines, 0, newHitLines, 0, mHitLineCount);
+            mHitLines = newHitLines;
+        }
+        System.arraycopy(hits, 0, mHitLines, mHitLineCount, hits.length);
+        boolean hadHits = mHitLineCount != 0;
+        mHitLineCount += hits.length;
+
+        mAdapter.notifyDataSetChanged();
+        if (!hadHits && hits.length != 0) {
+            invalidateOptionsMenu();
+        }
+        if (mScrollToFirstHit && hits.length != 0) {
+            mScrollToFirstHit = false;
+            scrollToSearchHit(false);
+        }
+    }
+
+    /**
+     * Binary search in hit lines
+     *
+     * @return Index of hit or (-(insertion point) - 1) if line isn't hit
+     */
+    private int findHit(int line) {
+        int low = 0;
+        int high = mHitLineCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (mHitLines[middle] < line) {
+                low = middle + 1;
+            } else if (mHitLines[middle] > line) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return ~low;
+    }
+
+    private boolean isSearchHit(int line) {
+        return findHit(line) >= 0;
+    }
+
+    private void scrollToSearchHit(boolean next) {
+        if (mListView == null || mHitLineCount == 0) {
+            return;
+        }
+
+        int currentLine = mListView.getFirstVisiblePosition();
+        int nextOccurrenceIndex = findHit(currentLine);
+        if (nextOccurrenceIndex < 0) {
+            nextOccurrenceIndex = ~nextOccurrenceIndex;
+        } else if (next) {
+            nextOccurrenceIndex++;
+        }
+        if (nextOccurrenceIndex >= mHitLineCount) {
+            nextOccurrenceIndex = 0;
+        }
+
+        mListView.setSelection(mHitLines[nextOccurrenceIndex]);
+    }
+
+    /**
+     * Searches lines in given range, publishing hits as they're found
+     */
+    private class SearchTask extends AsyncTask<Object, int[], Object> {
+        private final String mQuery;
+        private final int mFromLine;
+        private final int mToLine;
+
+        SearchTask(String query, int fromLine, int toLine) {
+            mQuery = query;
+            mFromLine = fromLine;
+            mToLine = toLine;
+        }
+
+        @Override
+        protected Object doInBackground(Object... params) {
+            int[] hits = new int[16];
+            int hitCount = 0;
+            for (int line = mFromLine; line < mToLine && !isCancelled(); line++) {
+                if (TextLines.indexOfIgnoreCase(mLines.get(line), mQuery, 0) != -1) {
+                    if (hitCount == hits.length) {
+                        hits = TextLines.copyOf(hits, hitCount * 2);
+                    }
+                    hits[hitCount++] = line;
+                }
+                if ((line - mFromLine) % SEARCH_PUBLISH_INTERVAL == SEARCH_PUBLISH_INTERVAL - 1 && hitCount != 0) {
+                    publishProgress(TextLines.copyOf(hits, hitCount));
+                    hitCount = 0;
+                }
+            }
+            if (hitCount != 0) {
+                publishProgress(TextLines.copyOf(hits, hitCount));
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(int[]... values) {
+            if (mSearchTask == this) {
+                addSearchHits(values[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Object o) {
+            if (mSearchTask != this) {
+                return;
+            }
+            mSearchTask = null;
+            mSearchedLineCount = mToLine;
+
+            // Lines might have been appended during search
+            if (mSearchedLineCount < mShownLineCount) {
+                startSearchTask();
+            }
+        }
+    }
+
+    private class LinesAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mShownLineCount;
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mLines.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public boolean areAllItemsEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isEnabled(int position) {
+            return false;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = LayoutInflater.from(parent.getContext()).inflate(R.layout.text_line, parent, false);
+            }
+            String line = getItem(position);
+
+            // Highlight occurrences of query
+            if (mLastSearchQuery != null && isSearchHit(position)) {
+                SpannableString highlightedLine = new SpannableString(line);
+                int queryLength = mLastSearchQuery.length();
+                int start = 0;
+                while ((start = TextLines.indexOfIgnoreCase(line, mLastSearchQuery, start)) != -1) {
+                    highlightedLine.setSpan(new BackgroundColorSpan(mSearchHighlightColor), start, start + queryLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    start += queryLength;
+                }
+                ((TextView) convertView).setText(highlightedLine);
+            } else {
+                ((TextView) convertView).setText(line);
+            }
+            return convertView;
+        }
+    }
+}
@@ -26,13 +26,14 @@ import android.graphics.Color;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.annotation.ColorInt;
+import android.support.v4.util.LruCache;
 import android.text.Spannable;
 import android.text.style.ClickableSpan;
 import android.text.style.ForegroundColorSpan;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.view.View;
-
-import java.io.IOException;
+import android.widget.Toast;
 
 /**
  * Build formatted XML for display, may add clickable links to values
@@ -56,6 +57,23 @@ public class XmlPreviewBuilder {
 
     private int mDepth = 0;
 
+    /**
+     * Marker for resources that were resolved, but aren't strings
+     */
+    private static final Object NOT_A_STRING = new Object();
+
+    /**
+     * Resolved values of resources, keyed by package with configuration and then resource id,
+     * values are Strings or {@link #NOT_A_STRING}
+     */
+    private static final LruCache<String, SparseArray<Object>> sResolvedValues = new LruCache<String, SparseArray<Object>>(8);
+
+    /**
+     * Values from {@link #sResolvedValues} for last used package
+     */
+    private SparseArray<Object> mResolvedValues;
+    private Context mResolvedValuesContext;
+
     /**
      * If true next call to {@link #newLine()} will be ignored
      */
@@ -118,10 +136,26 @@ public class XmlPreviewBuilder {
 
     /**
      * Add attr from resource parser, resolving resources if needed
+     *
+     * Resolved values are cached and links to files are only checked when clicked,
+     * so this doesn't do IPC nor open files
      */
     public void attrFromResourceParser(XmlResourceParser resParser, int attrIndex, Context xmlOwnerContext, boolean inline) {
-        String name = resParser.getAttributeName(attrIndex);
-        String value = resParser.getAttributeValue(attrIndex);
+        attrFromResource(
+                resParser.getAttributeName(attrIndex),
+                resParser.getAttributeValue(attrIndex),
+                resParser.getAttributeResourceValue(attrIndex, 0),
+                xmlOwnerContext,
+                inline
+        );
+    }
+
+    /**
+     * Add attr read earlier from resource parser, resolving resources if needed
+     *
+     * @param resourceId Value of {@link XmlResourceParser#getAttributeResourceValue(int, int)} or 0
+     */
+    public void attrFromResource(String name, String value, final int resourceId, Context xmlOwnerContext, boolean inline) {
 
         // If string is empty or null we skip all following tests
         if ("".equals(value)) {
@@ -132,65 +166,34 @@ public class XmlPreviewBuilder {
         // Check if this is reference
         if (value.charAt(0) == '@') {
             try {
-                final int resourceId = resParser.getAttributeResourceValue(attrIndex, 0);
                 if (resourceId != 0) {
-                    TypedValue res = new TypedValue();
-                    xmlOwnerContext.getResources().getValue(resourceId, res, true);
-
                     // String? (also raw/xml types are represented as strings)
-                    if (res.type == TypedValue.TYPE_STRING) {
-                        String resStringValue = res.string.toString();
-
-                        // XML?
-                        if (resStringValue.endsWith(".xml")) {
-                            try {
-                                xmlOwnerContext.getResources().getXml(resourceId).close();
-                                final String attrOwnerPackageName = xmlOwnerContext.getPackageName();
-                                attr(name, resStringValue, new ClickableSpan() {
-                                    @Override
-                                    public void onClick(View widget) {
-                                        widget.getContext().startActivity(
-                                                new Intent(widget.getContext(), SingleFragmentActivity.class)
-                                                .putExtra(SingleFragmentActivity.EXTRA_FRAGMENT, XmlViewerFragment.class.getName())
-                                                .putExtra(XmlViewerFragment.ARG_PACKAGE_NAME, attrOwnerPackageName)
-                                                .putExtra(XmlViewerFragment.ARG_RESOURCE_ID, resourceId)
-                                        );
-                                    }
-                                }, inline);
-                                return;
-                            } catch (Resources.NotFoundException ignored) {}
+                    String resStringValue = resolveStringResource(xmlOwnerContext, resourceId);
+                    if (resStringValue != null) {
+                        final String attrOwnerPackageName = xmlOwnerContext.getPackageName();
+
+                        // Compiled XML file? (plain strings ending with ".xml" aren't file paths)
+                        if (resStringValue.startsWith("res/") &&
+                                resStringValue.endsWith(".xml") &&
+                                !resStringValue.startsWith("res/raw")) {
+                            attr(name, resStringValue, new ClickableSpan() {
+                                @Override
+                                public void onClick(View widget) {
+                                    widget.getContext().startActivity(
+                                            new Intent(widget.getContext(), SingleFragmentActivity.class)
+                                            .putExtra(SingleFragmentActivity.EXTRA_FRAGMENT, XmlViewerFragment.class.getName())
+                                            .putExtra(XmlViewerFragment.ARG_PACKAGE_NAME, attrOwnerPackageName)
+                                            .putExtra(XmlViewerFragment.ARG_RESOURCE_ID, resourceId)
+                                    );
+                                }
+                            }, inline);
+                            return;
                         }
 
                         // Another file resource
-                        {
-                            try {
-                                // Check if file can be accessed
-                                xmlOwnerContext.getResources().getAssets().openNonAssetFd(resStringValue).close();
-
-                                // Build an intent to view it
-                                final Intent intent = new Intent(
-                                        Intent.ACTION_VIEW,
-                                        Uri.parse(
-                                                "content://" + AssetProvider.AUTHORITY +
-                                                        "/" + xmlOwnerContext.getPackageName() + "/" + resStringValue
-                                        )
-                                );
-                                intent.setFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-
-                                // Get mime type
-                                intent.resolveType(xmlOwnerContext.getContentResolver());
-
-                                // Check if any app can handle this intent and if so display value as link
-                                if (!xmlOwnerContext.getPackageManager().queryIntentActivities(intent, 0).isEmpty()) {
-                                    attr(name, resStringValue, new ClickableSpan() {
-                                        @Override
-                                        public void onClick(View widget) {
-                                            widget.getContext().startActivity(intent);
-                                        }
-                                    }, inline);
-                                    return;
-                                } // Otherwise fall through
-                            } catch (IOException ignored) {}
+                        if (resStringValue.startsWith("res/")) {
+                            attr(name, resStringValue, new OpenResourceFileSpan(attrOwnerPackageName, resStringValue), inline);
+                            return;
                         }
 
                         attr(name, resStringValue, inline);
@@ -204,6 +207,81 @@ public class XmlPreviewBuilder {
         attr(name, value, inline);
     }
 
+    /**
+     * Get string value of resource, using cache of resolved values
+     *
+     * @return Value or null if resource isn't string
+     */
+    private String resolveStringResource(Context xmlOwnerContext, int resourceId) {
+        // Find cache for package
+        if (xmlOwnerContext != mResolvedValuesContext) {
+            // Keyed by path too, so values from before package was updated aren't used,
+            // and by configuration, since resolved values depend on locale, density and so on
+            String key =
+                    xmlOwnerContext.getPackageName() + ":" +
+                    xmlOwnerContext.getPackageResourcePath() + ":" +
+                    xmlOwnerContext.getResources().getConfiguration();
+            synchronized (sResolvedValues) {
+                mResolvedValues = sResolvedValues.get(key);
+                if (mResolvedValues == null) {
+                    mResolvedValues = new SparseArray<Object>();
+                    sResolvedValues.put(key, mResolvedValues);
+                }
+            }
+            mResolvedValuesContext = xmlOwnerContext;
+        }
+
+        // Check cache
+        Object resolved;
+        synchronized (mResolvedValues) {
+            resolved = mResolvedValues.get(resourceId);
+        }
+        if (resolved == null) {
+            TypedValue res = new TypedValue();
+            xmlOwnerContext.getResources().getValue(resourceId, res, true);
+            resolved = res.type == TypedValue.TYPE_STRING ? res.string.toString() : NOT_A_STRING;
+            synchronized (mResolvedValues) {
+                mResolvedValues.put(resourceId, resolved);
+            }
+        }
+        return resolved != NOT_A_STRING ? (String) resolved : null;
+    }
+
+    /**
+     * Link to file from resources of other package,
+     * checks if it can be opened only when clicked
+     */
+    private static class OpenResourceFileSpan extends ClickableSpan {
+        private final String mPackageName;
+        private final String mPath;
+
+        OpenResourceFileSpan(String packageName, String path) {
+            mPackageName = packageName;
+            mPath = path;
+        }
+
+        @Override
+        public void onClick(View widget) {
+            Context context = widget.getContext();
+            try {
+                // Check if file can be accessed
+                context.createPackageContext(mPackageName, 0).getResources().getAssets().openNonAssetFd(mPath).close();
+
+                // View it, mime type is resolved through AssetProvider
+                context.startActivity(
+                        new Intent(
+                                Intent.ACTION_VIEW,
+                                Uri.parse("content://" + AssetProvider.AUTHORITY + "/" + mPackageName + "/" + mPath)
+                        )
+                        .setFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                );
+            } catch (Exception e) {
+                // File can't be opened or no app can handle it
+                Toast.makeText(context, R.string.cant_open_resource_file, Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
     /**
      * Add attr to last opened tag
      */
@@ -275,6 +353,19 @@ public class XmlPreviewBuilder {
         }
     }
 
+    /**
+     * Write placeholder for children of currently opened element that aren't shown
+     *
+     * @param description Text of placeholder, such as number of hidden elements
+     * @param expandSpan Span that shows hidden elements when clicked
+     */
+    public void collapsedChildren(String description, ClickableSpan expandSpan) {
+        finishTag(false);
+        newLine();
+        mFtb.appendRaw(getPadding());
+        mFtb.appendSpan("[" + description + "]", expandSpan);
+    }
+
     /**
      * Write an exception description to show it to user
      */
@@ -286,10 +377,10 @@ public class XmlPreviewBuilder {
     }
 
     /**
-     * Create final text to be passed to
+     * Create text to be passed to
      * {@link com.github.michalbednarski.intentslab.TextFragment#publishText(Spannable)}
      *
-     * Do not modify text after calling this method
+     * Building may continue after this, later calls return snapshot with all text added so far
      */
     public Spannable getText() {
         return mFtb.getText();
@@ -26,19 +26,65 @@ import android.content.res.XmlResourceParser;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.Spannable;
+import android.text.style.ClickableSpan;
 import android.util.Log;
+import android.view.View;
 
 import org.xmlpull.v1.XmlPullParser;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 
 public class XmlViewerFragment extends TextFragment {
     public static final String ARG_PACKAGE_NAME = "packageName__Arg";
     public static final String ARG_RESOURCE_ID = "resIdArg";
 
+    /**
+     * Elements with more descendants than this are shown collapsed
+     * (unless they're root or its child), so large subtrees are built only when requested
+     */
+    private static final int COLLAPSE_DESCENDANTS_THRESHOLD = 500;
+
+    /**
+     * Number of elements after which partial text is first published,
+     * later publications are done each time number of elements doubles
+     */
+    private static final int FIRST_PUBLISH_ELEMENTS = 200;
+
     private ReserializeXmlTask mTask = null;
 
+    /**
+     * Parsed document, kept so expanding subtree doesn't parse it again
+     */
+    private XmlNode mDocument = null;
+    private Exception mParseException = null;
+    private Context mScannedAppContext = null;
+
+    /**
+     * Element or text node of parsed document
+     */
+    private static class XmlNode {
+        /**
+         * Tag name or null if this is text node
+         */
+        String name;
+        String text;
+
+        String[] attrNames;
+        String[] attrValues;
+        int[] attrResourceIds;
+
+        final ArrayList<XmlNode> children = new ArrayList<XmlNode>();
+        int descendantCount = 0;
+
+        /**
+         * True if user expanded this node that was collapsed because of size
+         */
+        boolean expanded = false;
+    }
+
     public static XmlViewerFragment create(String packageName, int resourceId) {
         Bundle arguments = new Bundle();
         arguments.putString(ARG_PACKAGE_NAME, packageName);
@@ -52,7 +98,7 @@ public class XmlViewerFragment extends TextFragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
-        mTask = new ReserializeXmlTask();
+        mTask = new ReserializeXmlTask(true);
         mTask.execute();
     }
 
@@ -65,13 +111,37 @@ public class XmlViewerFragment extends TextFragment {
         }
     }
 
-    private class ReserializeXmlTask extends AsyncTask<Object, Object, CharSequence[]> {
+    private void expandNode(XmlNode node) {
+        if (node.expanded || mDocument == null) {
+            return;
+        }
+        node.expanded = true;
+        if (mTask != null) {
+            mTask.cancel(true);
+        }
+        mTask = new ReserializeXmlTask(false);
+        mTask.execute();
+    }
+
+    private class ReserializeXmlTask extends AsyncTask<Object, Spannable, Object> {
+        private final boolean mPublishPartial;
         private String mPackageName;
         private int mResourceId;
 
         private XmlPreviewBuilder mXmlPreviewBuilder = null;
         private Context mApplicationContext;
 
+        private int mSerializedElements = 0;
+        private int mNextPublishAt = FIRST_PUBLISH_ELEMENTS;
+
+        /**
+         * @param publishPartial If true, text is published while being built,
+         *                       otherwise previously published text is shown until complete one is ready
+         */
+        ReserializeXmlTask(boolean publishPartial) {
+            mPublishPartial = publishPartial;
+        }
+
         @Override
         protected void onPreExecute() {
             final Bundle arguments = getArguments();
@@ -84,55 +154,148 @@ public class XmlViewerFragment extends TextFragment {
 
 
         @Override
-        protected CharSequence[] doInBackground(Object... args) {
+        protected Object doInBackground(Object... args) {
+            if (mDocument == null) {
+                parseDocument();
+            }
+            if (mDocument != null) {
+                for (XmlNode node : mDocument.children) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    serializeNode(node, 0);
+                }
+            }
+            if (mParseException != null) {
+                mXmlPreviewBuilder.showException(mParseException);
+            }
+            return null;
+        }
 
-            XmlResourceParser parser;
+        /**
+         * Parse xml into {@link #mDocument}
+         *
+         * Only structure is read here, resources are resolved while serializing
+         */
+        private void parseDocument() {
+            XmlNode document = new XmlNode();
             try {
                 // Get resource xml parser
                 Context scannedAppContext = mApplicationContext.createPackageContext(mPackageName, 0);
+                mScannedAppContext = scannedAppContext;
+                XmlResourceParser parser;
                 if (mResourceId != 0) {
                     parser = scannedAppContext.getResources().getXml(mResourceId);
                 } else {
                     parser = getManifest(mApplicationContext, mPackageName);
                 }
 
-                // Parse and reserialize xml
+                // Build tree
+                ArrayList<XmlNode> openElements = new ArrayList<XmlNode>();
+                openElements.add(document);
                 int token;
                 while ((token = parser.next()) != XmlPullParser.END_DOCUMENT) {
                     if (isCancelled()) {
-                        return null;
+                        return;
                     }
+                    XmlNode parent = openElements.get(openElements.size() - 1);
                     switch (token) {
-                        case XmlPullParser.START_TAG:
-                            mXmlPreviewBuilder.openTag(parser.getName());
-
-                            // Attributes
-                            for (int i = 0, attrCount = parser.getAttributeCount(); i < attrCount; i++) {
-                                mXmlPreviewBuilder.attrFromResourceParser(parser, i, scannedAppContext, attrCount == 1);
+                        case XmlPullParser.START_TAG: {
+                            XmlNode element = new XmlNode();
+                            element.name = parser.getName();
+                            int attrCount = parser.getAttributeCount();
+                            element.attrNames = new String[attrCount];
+                            element.attrValues = new String[attrCount];
+                            element.attrResourceIds = new int[attrCount];
+                            for (int i = 0; i < attrCount; i++) {
+                                element.attrNames[i] = parser.getAttributeName(i);
+                                element.attrValues[i] = parser.getAttributeValue(i);
+                                element.attrResourceIds[i] = parser.getAttributeResourceValue(i, 0);
+                            }
+                            parent.children.add(element);
+                            for (XmlNode ancestor : openElements) {
+                                ancestor.descendantCount++;
                             }
+                            openElements.add(element);
                             break;
+                        }
 
                         case XmlPullParser.END_TAG:
-                            mXmlPreviewBuilder.endTag(parser.getName());
+                            openElements.remove(openElements.size() - 1);
                             break;
 
-                        case XmlPullParser.TEXT:
-                            mXmlPreviewBuilder.text(parser.getText());
+                        case XmlPullParser.TEXT: {
+                            XmlNode text = new XmlNode();
+                            text.text = parser.getText();
+                            parent.children.add(text);
                             break;
+                        }
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
-                mXmlPreviewBuilder.showException(e);
+                mParseException = e;
             }
+            mDocument = document;
+        }
 
-            return null;
+        private void serializeNode(final XmlNode node, int depth) {
+            if (node.name == null) {
+                mXmlPreviewBuilder.text(node.text);
+                return;
+            }
+
+            mXmlPreviewBuilder.openTag(node.name);
+
+            // Attributes
+            int attrCount = node.attrNames.length;
+            for (int i = 0; i < attrCount; i++) {
+                mXmlPreviewBuilder.attrFromResource(node.attrNames[i], node.attrValues[i], node.attrResourceIds[i], mScannedAppContext, attrCount == 1);
+            }
+
+            // Children
+            if (depth >= 2 && node.descendantCount > COLLAPSE_DESCENDANTS_THRESHOLD && !node.expanded) {
+                mXmlPreviewBuilder.collapsedChildren(
+                        mApplicationContext.getResources().getQuantityString(R.plurals.n_hidden_xml_elements, node.descendantCount, node.descendantCount),
+                        new ClickableSpan() {
+                            @Override
+                            public void onClick(View widget) {
+                                expandNode(node);
+                            }
+                        }
+                );
+            } else {
+                for (XmlNode child : node.children) {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    serializeNode(child, depth + 1);
+                }
+            }
+
+            mXmlPreviewBuilder.endTag(node.name);
+
+            // Publish partial text so beginning of document can be viewed while rest is built
+            mSerializedElements++;
+            if (mPublishPartial && mSerializedElements >= mNextPublishAt) {
+                mNextPublishAt *= 2;
+                publishProgress(mXmlPreviewBuilder.getText());
+            }
         }
 
         @Override
-        protected void onPostExecute(CharSequence[] text) {
-            mTask = null;
-            publishText(mXmlPreviewBuilder.getText());
+        protected void onProgressUpdate(Spannable... values) {
+            if (mTask == this) {
+                publishText(values[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Object o) {
+            if (mTask == this) {
+                mTask = null;
+                publishText(mXmlPreviewBuilder.getText());
+            }
         }
     }
 
@@ -191,9 +354,14 @@ public class XmlViewerFragment extends TextFragment {
         final boolean isSystemPackage = "android".equals(packageName);
 
         // Check once if bug occurs on device
-        if (!sThemeManifestBugProbed && !isSystemPackage) {
-            sHasThemeManifestBug = probeManifestThemeBug(context);
-            sThemeManifestBugProbed = true;
+        // (synchronized as manifests may be loaded on multiple threads)
+        if (!isSystemPackage) {
+            synchronized (XmlViewerFragment.class) {
+                if (!sThemeManifestBugProbed) {
+                    sHasThemeManifestBug = probeManifestThemeBug(context);
+                    sThemeManifestBugProbed = true;
+                }
+            }
         }
 
 
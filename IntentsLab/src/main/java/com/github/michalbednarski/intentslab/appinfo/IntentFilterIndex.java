@@ -0,0 +1,262 @@
+package com.github.michalbednarski.intentslab.appinfo;
+
+import android.content.IntentFilter;
+
+import com.github.michalbednarski.intentslab.editor.IntentEditorConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of intent filter actions and categories to components
+ *
+ * Used for finding components by (possibly inexact) intent,
+ * this is maintained by {@link MyPackageManagerImpl} and updated per package
+ *
+ * All methods are synchronized, queries are expected to be done off main thread
+ */
+class IntentFilterIndex {
+
+    /**
+     * Single intent filter of component
+     */
+    private static class FilterEntry {
+        final MyComponentInfo component;
+
+        /**
+         * Sequence number of package, used for keeping result order stable
+         */
+        final int packageSeq;
+
+        /**
+         * Index of component within package
+         */
+        final int componentIndex;
+
+        FilterEntry(MyComponentInfo component, int packageSeq, int componentIndex) {
+            this.component = component;
+            this.packageSeq = packageSeq;
+            this.componentIndex = componentIndex;
+        }
+    }
+
+    private static final Comparator<FilterEntry> RESULT_ORDER = new Comparator<FilterEntry>() {
+        @Override
+        public int compare(FilterEntry lhs, FilterEntry rhs) {
+            if (lhs.packageSeq != rhs.packageSeq) {
+                return lhs.packageSeq < rhs.packageSeq ? -1 : 1;
+            }
+            return lhs.componentIndex < rhs.componentIndex ? -1 : (lhs.componentIndex == rhs.componentIndex ? 0 : 1);
+        }
+    };
+
+    /**
+     * Action or category string with filters using it
+     */
+    private static class Term {
+        final String lowerCase;
+        final ArrayList<FilterEntry> filters = new ArrayList<>();
+
+        Term(String value) {
+            lowerCase = value.toLowerCase();
+        }
+    }
+
+    /**
+     * Exact action/category => Term
+     */
+    private final HashMap<String, Term> mActions = new HashMap<>();
+    private final HashMap<String, Term> mCategories = new HashMap<>();
+
+    /**
+     * Indexed packages => their filter entries and terms they were added to
+     */
+    private final HashMap<String, ArrayList<FilterEntry>> mPackageFilters = new HashMap<>();
+    private final HashMap<String, ArrayList<Term>> mPackageTerms = new HashMap<>();
+
+    private int mNextPackageSeq = 0;
+
+    synchronized boolean isPackageIndexed(String packageName) {
+        return mPackageFilters.containsKey(packageName);
+    }
+
+    /**
+     * Add package to index, package must have intent filters loaded
+     */
+    synchronized void addPackage(MyPackageInfo packageInfo) {
+        String packageName = packageInfo.getPackageName();
+        if (mPackageFilters.containsKey(packageName)) {
+            removePackage(packageName);
+        }
+
+        ArrayList<FilterEntry> packageFilters = new ArrayList<>();
+        ArrayList<Term> packageTerms = new ArrayList<>();
+        int packageSeq = mNextPackageSeq++;
+        addComponents(packageInfo.getActivities(), packageSeq, packageFilters, packageTerms);
+        addComponents(packageInfo.getReceivers(), packageSeq, packageFilters, packageTerms);
+        addComponents(packageInfo.getServices(), packageSeq, packageFilters, packageTerms);
+        mPackageFilters.put(packageName, packageFilters);
+        mPackageTerms.put(packageName, packageTerms);
+    }
+
+    private void addComponents(MyComponentInfo[] components, int packageSeq, ArrayList<FilterEntry> outFilters, ArrayList<Term> outTerms) {
+        for (int i = 0; i < components.length; i++) {
+            MyComponentInfo component = components[i];
+            IntentFilter[] intentFilters = component.getIntentFilters();
+            if (intentFilters == null) {
+                continue;
+            }
+            for (IntentFilter intentFilter : intentFilters) {
+                // Filters without actions never match
+                if (intentFilter.countActions() == 0) {
+                    continue;
+                }
+                FilterEntry entry = new FilterEntry(component, packageSeq, i);
+                outFilters.add(entry);
+                for (Iterator<String> iterator = intentFilter.actionsIterator(); iterator.hasNext(); ) {
+                    addToTerm(mActions, iterator.next(), entry, outTerms);
+                }
+                if (intentFilter.countCategories() != 0) {
+                    for (Iterator<String> iterator = intentFilter.categoriesIterator(); iterator.hasNext(); ) {
+                        addToTerm(mCategories, iterator.next(), entry, outTerms);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addToTerm(HashMap<String, Term> terms, String value, FilterEntry entry, ArrayList<Term> outTerms) {
+        Term term = terms.get(value);
+        if (term == null) {
+            term = new Term(value);
+            terms.put(value, term);
+        }
+        term.filters.add(entry);
+        outTerms.add(term);
+    }
+
+    /**
+     * Remove package from index, does nothing if it wasn't indexed
+     */
+    synchronized void removePackage(String packageName) {
+        ArrayList<FilterEntry> packageFilters = mPackageFilters.remove(packageName);
+        ArrayList<Term> packageTerms = mPackageTerms.remove(packageName);
+        if (packageFilters == null) {
+            return;
+        }
+        IdentityHashMap<FilterEntry, Boolean> removedFilters = new IdentityHashMap<>();
+        for (FilterEntry filter : packageFilters) {
+            removedFilters.put(filter, true);
+        }
+        for (Term term : packageTerms) {
+            for (Iterator<FilterEntry> iterator = term.filters.iterator(); iterator.hasNext(); ) {
+                if (removedFilters.containsKey(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+        // Empty terms are left in maps, they'll be reused if package comes back
+    }
+
+    /**
+     * Find components which have intent filter matching given criteria
+     *
+     * @param componentType Type of components, see {@link IntentEditorConstants}
+     * @param action Required action or null if any
+     * @param categories Required categories or null if any
+     * @param insensitiveAndSubstring If true action and categories are matched
+     *                                case insensitively as substrings,
+     *                                in that case they must be already lower case
+     * @return Matching components grouped by package
+     */
+    synchronized List<MyComponentInfo[]> findComponents(int componentType, String action, Set<String> categories, boolean insensitiveAndSubstring) {
+        // Collect filters matching action
+        IdentityHashMap<FilterEntry, Boolean> matchingFilters = null;
+        if (action != null) {
+            matchingFilters = findFilters(mActions, action, insensitiveAndSubstring);
+        }
+
+        // Intersect with filters matching each category
+        if (categories != null) {
+            for (String category : categories) {
+                IdentityHashMap<FilterEntry, Boolean> filtersWithCategory = findFilters(mCategories, category, insensitiveAndSubstring);
+                if (matchingFilters == null) {
+                    matchingFilters = filtersWithCategory;
+                } else {
+                    matchingFilters.keySet().retainAll(filtersWithCategory.keySet());
+                }
+                if (matchingFilters.isEmpty()) {
+                    break;
+                }
+            }
+        }
+
+        // Collect matching components, without constraints every filter matches
+        ArrayList<FilterEntry> matchingEntries = new ArrayList<>();
+        IdentityHashMap<MyComponentInfo, Boolean> seenComponents = new IdentityHashMap<>();
+        if (matchingFilters != null) {
+            for (FilterEntry entry : matchingFilters.keySet()) {
+                addIfMatchesType(entry, componentType, seenComponents, matchingEntries);
+            }
+        } else {
+            for (ArrayList<FilterEntry> packageFilters : mPackageFilters.values()) {
+                for (FilterEntry entry : packageFilters) {
+                    addIfMatchesType(entry, componentType, seenComponents, matchingEntries);
+                }
+            }
+        }
+
+        // Group by package
+        Collections.sort(matchingEntries, RESULT_ORDER);
+        ArrayList<MyComponentInfo[]> result = new ArrayList<>();
+        ArrayList<MyComponentInfo> packageComponents = new ArrayList<>();
+        int currentPackageSeq = -1;
+        for (FilterEntry entry : matchingEntries) {
+            if (entry.packageSeq != currentPackageSeq && !packageComponents.isEmpty()) {
+                result.add(packageComponents.toArray(new MyComponentInfo[packageComponents.size()]));
+                packageComponents.clear();
+            }
+            currentPackageSeq = entry.packageSeq;
+            packageComponents.add(entry.component);
+        }
+        if (!packageComponents.isEmpty()) {
+            result.add(packageComponents.toArray(new MyComponentInfo[packageComponents.size()]));
+        }
+        return result;
+    }
+
+    private static void addIfMatchesType(FilterEntry entry, int componentType, Map<MyComponentInfo, Boolean> seenComponents, List<FilterEntry> outEntries) {
+        if (entry.component.getType() == componentType && seenComponents.put(entry.component, true) == null) {
+            outEntries.add(entry);
+        }
+    }
+
+    private static IdentityHashMap<FilterEntry, Boolean> findFilters(HashMap<String, Term> terms, String value, boolean insensitiveAndSubstring) {
+        IdentityHashMap<FilterEntry, Boolean> result = new IdentityHashMap<>();
+        if (insensitiveAndSubstring) {
+            // Scan distinct terms, these are already lower cased
+            for (Term term : terms.values()) {
+                if (term.lowerCase.contains(value)) {
+                    for (FilterEntry filter : term.filters) {
+                        result.put(filter, true);
+                    }
+                }
+            }
+        } else {
+            Term term = terms.get(value);
+            if (term != null) {
+                for (FilterEntry filter : term.filters) {
+                    result.put(filter, true);
+                }
+            }
+        }
+        return result;
+    }
+}
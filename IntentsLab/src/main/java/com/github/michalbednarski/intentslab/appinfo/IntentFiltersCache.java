@@ -0,0 +1,278 @@
+package com.github.michalbednarski.intentslab.appinfo;
+
+import android.content.Context;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Parcel;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import com.github.michalbednarski.intentslab.editor.IntentEditorConstants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Cache of intent filters parsed by {@link ScanManifestTask}
+ *
+ * Entries are keyed by package name and validated by APK path and its modification time,
+ * so after restart only changed APKs have to be parsed again
+ *
+ * File format (deflated):
+ * <pre>
+ *     int formatVersion
+ *     String Build.FINGERPRINT
+ *     int entryCount
+ *     entryCount times:
+ *         String packageName
+ *         String apkPath
+ *         long apkModificationTime
+ *         int parcelLength
+ *         byte[parcelLength] marshalled intent filters, see {@link #marshallIntentFilters(MyPackageInfoImpl)}
+ * </pre>
+ *
+ * Methods of this class are synchronized as manifests are parsed on multiple threads
+ */
+class IntentFiltersCache {
+    private static final String TAG = "IntentFiltersCache";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "intent-filters-cache";
+
+    private static class Entry {
+        String apkPath;
+        long apkModificationTime;
+        byte[] data;
+    }
+
+    private final AtomicFile mFile;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private boolean mDirty;
+
+    private IntentFiltersCache(Context context) {
+        mFile = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    /**
+     * Load cache from disk, returns empty cache if it doesn't exist or is invalid
+     */
+    static IntentFiltersCache load(Context context) {
+        IntentFiltersCache cache = new IntentFiltersCache(context);
+        cache.read();
+        return cache;
+    }
+
+    private static String getApkPath(MyPackageInfoImpl packageInfo) {
+        return packageInfo.mSystemPackageInfo.applicationInfo.sourceDir;
+    }
+
+    private void read() {
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new InflaterInputStream(mFile.openRead())));
+
+            // Check header
+            if (inputStream.readInt() != FORMAT_VERSION ||
+                    !Build.FINGERPRINT.equals(inputStream.readUTF())) {
+                return;
+            }
+
+            // Read entries
+            int count = inputStream.readInt();
+            for (int i = 0; i < count; i++) {
+                String packageName = inputStream.readUTF();
+                Entry entry = new Entry();
+                entry.apkPath = inputStream.readUTF();
+                entry.apkModificationTime = inputStream.readLong();
+                entry.data = new byte[inputStream.readInt()];
+                inputStream.readFully(entry.data);
+                mEntries.put(packageName, entry);
+            }
+        } catch (FileNotFoundException ignored) {
+            // No cache yet
+        } catch (Exception e) {
+            Log.w(TAG, "Failed reading intent filters cache", e);
+            mEntries.clear();
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Save cache to disk if it was modified
+     */
+    synchronized void writeIfNeeded() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = mFile.startWrite();
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(fileOutputStream);
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(deflaterOutputStream));
+
+            // Header
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(Build.FINGERPRINT);
+            outputStream.writeInt(mEntries.size());
+
+            // Entries
+            for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                outputStream.writeUTF(mapEntry.getKey());
+                outputStream.writeUTF(entry.apkPath);
+                outputStream.writeLong(entry.apkModificationTime);
+                outputStream.writeInt(entry.data.length);
+                outputStream.write(entry.data);
+            }
+
+            // Flush without closing underlying file, AtomicFile has to sync it
+            outputStream.flush();
+            deflaterOutputStream.finish();
+            mFile.finishWrite(fileOutputStream);
+            mDirty = false;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed writing intent filters cache", e);
+            if (fileOutputStream != null) {
+                mFile.failWrite(fileOutputStream);
+            }
+        }
+    }
+
+    /**
+     * Fill intent filters of given package from cache if they're up to date
+     *
+     * @return true if intent filters were filled and package doesn't need to be parsed
+     */
+    boolean fillFromCache(MyPackageInfoImpl packageInfo) {
+        String apkPath = getApkPath(packageInfo);
+        if (apkPath == null) {
+            return false;
+        }
+        long modificationTime = new File(apkPath).lastModified();
+
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(packageInfo.mPackageName);
+        }
+        if (entry == null || !apkPath.equals(entry.apkPath) || entry.apkModificationTime != modificationTime) {
+            return false;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(entry.data, 0, entry.data.length);
+            parcel.setDataPosition(0);
+            int componentCount = parcel.readInt();
+            for (int i = 0; i < componentCount; i++) {
+                int type = parcel.readInt();
+                String name = parcel.readString();
+                IntentFilter[] intentFilters = parcel.createTypedArray(IntentFilter.CREATOR);
+                MyComponentInfoImpl component = getComponentsMap(packageInfo, type).get(name);
+                if (component != null) {
+                    component.mIntentFilters = intentFilters;
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed reading cached intent filters for " + packageInfo.mPackageName, e);
+            return false;
+        } finally {
+            parcel.recycle();
+        }
+        packageInfo.mIntentFiltersLoaded = true;
+        return true;
+    }
+
+    /**
+     * Store intent filters of package that were just parsed
+     */
+    void put(MyPackageInfoImpl packageInfo) {
+        String apkPath = getApkPath(packageInfo);
+        if (apkPath == null) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.apkPath = apkPath;
+        entry.apkModificationTime = new File(apkPath).lastModified();
+        entry.data = marshallIntentFilters(packageInfo);
+        synchronized (this) {
+            mEntries.put(packageInfo.mPackageName, entry);
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Forget packages that are no longer installed
+     */
+    synchronized void retainPackages(Collection<String> installedPackages) {
+        if (mEntries.keySet().retainAll(installedPackages)) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Marshall intent filters of all components that have them
+     *
+     * Format is int componentCount, then for each component:
+     * int type, String name, typed array of IntentFilter-s
+     */
+    private static byte[] marshallIntentFilters(MyPackageInfoImpl packageInfo) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            int countPosition = parcel.dataPosition();
+            parcel.writeInt(0); // Count placeholder
+            int count = 0;
+            count += marshallComponents(parcel, packageInfo.mActivities);
+            count += marshallComponents(parcel, packageInfo.mReceivers);
+            count += marshallComponents(parcel, packageInfo.mServices);
+            int endPosition = parcel.dataPosition();
+            parcel.setDataPosition(countPosition);
+            parcel.writeInt(count);
+            parcel.setDataPosition(endPosition);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int marshallComponents(Parcel parcel, MyComponentInfo[] components) {
+        int count = 0;
+        for (MyComponentInfo component : components) {
+            IntentFilter[] intentFilters = component.getIntentFilters();
+            if (intentFilters != null) {
+                parcel.writeInt(component.getType());
+                parcel.writeString(component.getName());
+                parcel.writeTypedArray(intentFilters, 0);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, MyComponentInfoImpl> getComponentsMap(MyPackageInfoImpl packageInfo, int type) {
+        switch (type) {
+            case IntentEditorConstants.ACTIVITY:
+                return packageInfo.mActivitiesMap;
+            case IntentEditorConstants.BROADCAST:
+                return packageInfo.mReceiversMap;
+            case IntentEditorConstants.SERVICE:
+                return packageInfo.mServicesMap;
+        }
+        throw new IllegalArgumentException("Unexpected component type " + type);
+    }
+}
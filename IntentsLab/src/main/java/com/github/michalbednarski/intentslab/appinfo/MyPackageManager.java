@@ -5,7 +5,9 @@ import android.content.Context;
 import org.jdeferred.Promise;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Wrapper around package manager
@@ -13,11 +15,55 @@ import java.util.Map;
  * Get instance with {@link MyPackageManagerImpl#getInstance(Context)}
  */
 public interface MyPackageManager {
-    Promise<Collection<MyPackageInfo>, Void, Void> getPackages(boolean withIntentFilters);
+    /**
+     * Listener for packages being installed, updated or removed
+     */
+    interface OnPackageChangedListener {
+        /**
+         * Called on main thread after cached data of package was updated
+         *
+         * @param packageName Name of changed package
+         * @param oldPackageInfo Previously cached info or null if package wasn't loaded
+         * @param newPackageInfo Reloaded info or null if package was removed
+         */
+        void onPackageChanged(String packageName, MyPackageInfo oldPackageInfo, MyPackageInfo newPackageInfo);
+    }
+
+    /**
+     * Get all installed packages
+     *
+     * If packages have to be loaded, progress is notified with each package as soon as it's loaded,
+     * done is always called with complete collection
+     *
+     * Progress isn't replayed, callbacks for it have to be attached on main thread
+     * before returning to its looper
+     */
+    Promise<Collection<MyPackageInfo>, Void, MyPackageInfo> getPackages(boolean withIntentFilters);
 
     Promise<MyPackageInfo, Void, Void> getPackageInfo(boolean withIntentFilters, String packageName);
 
     Promise<Map<String, MyPermissionInfo>, Void, Void> getPermissions();
 
     Promise<PermissionDetails, Void, Void> getPermissionDetails(final String permissionName);
+
+    /**
+     * Find components which have intent filter matching given criteria
+     *
+     * Uses index of all intent filters, so this doesn't scan all packages
+     *
+     * @param componentType Type of components, see {@link com.github.michalbednarski.intentslab.editor.IntentEditorConstants}
+     * @param action Required action or null if any
+     * @param categories Required categories or null if any
+     * @param insensitiveAndSubstring If true action and categories must be lower case
+     *                                and are matched as substrings
+     * @return Matching components grouped by package
+     */
+    Promise<List<MyComponentInfo[]>, Void, Void> findComponentsByIntentFilter(int componentType, String action, Set<String> categories, boolean insensitiveAndSubstring);
+
+    /**
+     * Register listener for package changes, must be called on main thread
+     */
+    void addOnPackageChangedListener(OnPackageChangedListener listener);
+
+    void removeOnPackageChangedListener(OnPackageChangedListener listener);
 }
@@ -1,5 +1,6 @@
 package com.github.michalbednarski.intentslab.appinfo;
 
+import android.annotation.TargetApi;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -8,12 +9,14 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PermissionInfo;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.support.v4.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 
 import com.github.michalbednarski.intentslab.BuildConfig;
 
@@ -22,10 +25,17 @@ import org.jdeferred.android.AndroidDeferredObject;
 import org.jdeferred.impl.DeferredObject;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper around PackageManager that performs caching and additional information loading
@@ -42,6 +52,13 @@ public class MyPackageManagerImpl implements MyPackageManager {
             PackageManager.GET_URI_PERMISSION_PATTERNS |
             PackageManager.GET_META_DATA;
 
+    /**
+     * Default number of threads used for loading package infos,
+     * some packages (notably Google Play Services) take much longer to load than others,
+     * so we load few of them at once to avoid stalling everything behind them
+     */
+    static final int DEFAULT_SCAN_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private static MyPackageManagerImpl sInstance;
 
     public static MyPackageManager getInstance(Context context) {
@@ -63,28 +80,52 @@ public class MyPackageManagerImpl implements MyPackageManager {
     private PackageManager mPm;
 
     private Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private PackagesChangedReceiver mPackagesChangedReceiver;
+
+    /**
+     * Pool used for loading package infos in parallel,
+     * jobs are only submitted from {@link #mWorkerHandler} thread
+     */
+    private ExecutorService mScanExecutor;
 
+    /**
+     * Guards {@link #mPermissions} and loaded flags,
+     * {@link #mPackages} is concurrent map and doesn't need this lock
+     */
     final Object mLock = new Object();
 
     /**
      * Scanned and not stale packages
-     * Guarded by {@link #mLock}
      */
-    Map<String, MyPackageInfoImpl> mPackages = new ArrayMap<>();
+    final Map<String, MyPackageInfoImpl> mPackages = new ConcurrentHashMap<>();
 
     /**
      * True if we can just return mPackages.values()
      * in {@link #getPackages(boolean)} when intent filters are NOT requested
      * Guarded by {@link #mLock}
      */
-    boolean mLoadedAllPackages;
+    volatile boolean mLoadedAllPackages;
 
     /**
      * True if we can just return mPackages.values()
      * in {@link #getPackages(boolean)} when intent filters are requested
      */
-    boolean mLoadedAllPackagesIncludingIntentFilters;
+    volatile boolean mLoadedAllPackagesIncludingIntentFilters;
 
+    /**
+     * True if {@link PackagesSnapshot} was already consulted,
+     * after that {@link #mPackages} is kept up to date by {@link PackagesChangedReceiver}
+     * Used only on worker thread
+     */
+    private boolean mSnapshotRead;
+
+    /**
+     * Cache of parsed intent filters, loaded when intent filters are first needed
+     * Created only on worker thread
+     */
+    private IntentFiltersCache mIntentFiltersCache;
 
     /**
      * Scanned permissions
@@ -92,7 +133,59 @@ public class MyPackageManagerImpl implements MyPackageManager {
      */
     Map<String, MyPermissionInfoImpl> mPermissions = new ArrayMap<>();
 
+    /**
+     * Index of intent filters, packages are added to it lazily
+     * in {@link #findComponentsByIntentFilter(int, String, Set, boolean)}
+     * and removed when they change
+     */
+    final IntentFilterIndex mIntentFilterIndex = new IntentFilterIndex();
+
+    /**
+     * Index of components enforcing and packages requesting permissions,
+     * packages are added to it lazily in {@link #collectPermissionDetails(String)}
+     * and removed when they change
+     * Used only on worker thread
+     */
+    private final PermissionUsageIndex mPermissionUsageIndex = new PermissionUsageIndex();
+
+    /**
+     * Packages for which update from {@link PackagesChangedReceiver} is already posted,
+     * used to coalesce broadcasts sent for single install (ADDED and REPLACED)
+     * Guarded by {@link #mLock}
+     */
+    private final Set<String> mPendingPackageUpdates = new HashSet<>();
+
+    /**
+     * Delay after last package change before snapshot and intent filters cache are written,
+     * so updates of many apps in row don't rewrite files each time
+     */
+    private static final long WRITE_CACHES_DELAY = 5000;
+
+    private final Runnable mWriteCachesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            PackagesSnapshot.write(mContext, new ArrayList<>(mPackages.values()));
+            if (mIntentFiltersCache != null) {
+                mIntentFiltersCache.retainPackages(mPackages.keySet());
+                mIntentFiltersCache.writeIfNeeded();
+            }
+        }
+    };
+
+    /**
+     * Listeners for package changes, used only on main thread
+     */
+    private final ArrayList<OnPackageChangedListener> mOnPackageChangedListeners = new ArrayList<>();
+
     private MyPackageManagerImpl(Context context) {
+        this(context, DEFAULT_SCAN_THREADS);
+    }
+
+    /**
+     * Constructor allowing to specify scanning pool size,
+     * outside of benchmarks use {@link #getInstance(Context)}
+     */
+    MyPackageManagerImpl(Context context, int scanThreads) {
         // 'context' is application context
         mContext = context;
         mPm = context.getPackageManager();
@@ -108,21 +201,47 @@ public class MyPackageManagerImpl implements MyPackageManager {
             }
         };
 
+        // Create scanning pool
+        mScanExecutor = Executors.newFixedThreadPool(scanThreads, new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "MyPackageManager-scan-" + mThreadNumber.incrementAndGet());
+            }
+        });
+
         // Register receiver for updates
-        PackagesChangedReceiver receiver = new PackagesChangedReceiver();
-        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_REMOVED);
+        mPackagesChangedReceiver = new PackagesChangedReceiver();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
         filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
         filter.addDataScheme("package");
-        context.registerReceiver(receiver, filter);
+        context.registerReceiver(mPackagesChangedReceiver, filter);
     }
 
+    /**
+     * Stop threads and unregister receiver,
+     * used only for instances created for benchmarks
+     */
+    void release() {
+        mContext.unregisterReceiver(mPackagesChangedReceiver);
+        mWorkerHandler.getLooper().quit();
+        mScanExecutor.shutdown();
+    }
 
-    private void loadAllInstalledPackagesInfoIfNeeded() {
+
+    /**
+     * Load all packages if they're not loaded already
+     *
+     * @param progressDeferred If not null, every package is passed to
+     *                         {@link DeferredObject#notify(Object)} once it's loaded
+     */
+    private void loadAllInstalledPackagesInfoIfNeeded(final DeferredObject<?, ?, MyPackageInfo> progressDeferred) {
         // Check if we have to do update
-        synchronized (mLock) {
-            if (mLoadedAllPackages) {
-                return;
-            }
+        if (mLoadedAllPackages) {
+            return;
         }
 
         // Load all packages
@@ -130,73 +249,312 @@ public class MyPackageManagerImpl implements MyPackageManager {
         // some packages (notably Google Play Services) are too big
         List<PackageInfo> allPackages = mPm.getInstalledPackages(0);
 
+        // On first load take packages that weren't updated since last run from snapshot
+        Map<String, PackageInfo> snapshot = null;
+        if (!mSnapshotRead) {
+            snapshot = PackagesSnapshot.read(mContext, allPackages);
+            mSnapshotRead = true;
+        }
+
+        ArrayList<String> packagesToLoad = new ArrayList<>();
         for (PackageInfo pack : allPackages) {
-            loadPackageInfo(pack.packageName);
+            // Packages already loaded are kept up to date by PackagesChangedReceiver
+            MyPackageInfoImpl cachedPackageInfo = mPackages.get(pack.packageName);
+            if (cachedPackageInfo != null) {
+                if (progressDeferred != null) {
+                    progressDeferred.notify(cachedPackageInfo);
+                }
+                continue;
+            }
+
+            PackageInfo packageInfoFromSnapshot = snapshot != null ? snapshot.get(pack.packageName) : null;
+            if (packageInfoFromSnapshot != null) {
+                MyPackageInfoImpl myPackageInfo = convertPackageInfoAndAddToCache(packageInfoFromSnapshot);
+                if (myPackageInfo != null && progressDeferred != null) {
+                    progressDeferred.notify(myPackageInfo);
+                }
+            } else {
+                packagesToLoad.add(pack.packageName);
+            }
         }
+        boolean snapshotChanged = !packagesToLoad.isEmpty();
+
+        // Load remaining packages in parallel
+        ArrayList<Runnable> jobs = new ArrayList<>(packagesToLoad.size());
+        for (final String packageName : packagesToLoad) {
+            jobs.add(new Runnable() {
+                @Override
+                public void run() {
+                    MyPackageInfoImpl myPackageInfo = loadPackageInfo(packageName);
+                    if (myPackageInfo != null && progressDeferred != null) {
+                        progressDeferred.notify(myPackageInfo);
+                    }
+                }
+            });
+        }
+        runOnScanPoolAndWait(jobs);
 
         mLoadedAllPackages = true;
+
+        // Save snapshot for next run
+        if (snapshotChanged) {
+            PackagesSnapshot.write(mContext, new ArrayList<>(mPackages.values()));
+        }
+    }
+
+    /**
+     * Run jobs on {@link #mScanExecutor} and wait until all of them finish
+     */
+    private void runOnScanPoolAndWait(Collection<Runnable> jobs) {
+        final CountDownLatch remainingJobs = new CountDownLatch(jobs.size());
+        for (final Runnable job : jobs) {
+            mScanExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        job.run();
+                    } finally {
+                        Binder.flushPendingCommands();
+                        remainingJobs.countDown();
+                    }
+                }
+            });
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                remainingJobs.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reload single package after it was installed, updated or removed
+     *
+     * Package is removed from caches and indexes, its permissions are retracted
+     * and then it's loaded again if it's still installed and we were tracking it
+     */
+    private void updatePackage(final String packageName) {
+        synchronized (mLock) {
+            mPendingPackageUpdates.remove(packageName);
+        }
+
+        // Drop old version
+        final MyPackageInfoImpl oldPackageInfo = mPackages.remove(packageName);
+        mIntentFilterIndex.removePackage(packageName);
+        mPermissionUsageIndex.removePackage(packageName);
+        List<MyPermissionInfo> orphanedPermissions = oldPackageInfo != null ? retractPermissions(oldPackageInfo) : null;
+
+        // Load new version, unless we didn't know about this package and aren't going to list it anyway
+        final MyPackageInfoImpl newPackageInfo =
+                (oldPackageInfo != null || mLoadedAllPackages) ? loadPackageInfo(packageName) : null;
+        if (newPackageInfo != null && mLoadedAllPackagesIncludingIntentFilters) {
+            // Keep intent filters loaded for all packages, index picks them up on next query
+            fillIntentFiltersForPackage(newPackageInfo);
+        }
+
+        // Grants of package's uid and of permissions it defines may have changed
+        invalidateGrantStates(oldPackageInfo);
+        invalidateGrantStates(newPackageInfo);
+
+        // Permissions that lost owner get it from package manager
+        if (orphanedPermissions != null) {
+            for (MyPermissionInfo permission : orphanedPermissions) {
+                MyPermissionInfoImpl permissionImpl = (MyPermissionInfoImpl) permission;
+                PermissionInfo permissionInfoFromPM = null;
+                try {
+                    permissionInfoFromPM = mPm.getPermissionInfo(permissionImpl.getName(), 0);
+                } catch (PackageManager.NameNotFoundException ignored) {}
+                synchronized (mLock) {
+                    if (!permissionImpl.mOwnerVerified && mPermissions.get(permissionImpl.getName()) == permissionImpl) {
+                        permissionImpl.fillWithInfoFromPackageManager(permissionInfoFromPM);
+                    }
+                }
+            }
+        }
+
+        // Persist changes once updates settle down
+        if (oldPackageInfo != null || newPackageInfo != null) {
+            mWorkerHandler.removeCallbacks(mWriteCachesRunnable);
+            mWorkerHandler.postDelayed(mWriteCachesRunnable, WRITE_CACHES_DELAY);
+        }
+
+        // Notify listeners
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnPackageChangedListener listener : new ArrayList<>(mOnPackageChangedListeners)) {
+                    listener.onPackageChanged(packageName, oldPackageInfo, newPackageInfo);
+                }
+            }
+        });
+    }
+
+    private void invalidateGrantStates(MyPackageInfoImpl packageInfo) {
+        if (packageInfo == null) {
+            return;
+        }
+        mPermissionUsageIndex.invalidateGrantStates(packageInfo.mSystemPackageInfo.applicationInfo.uid);
+        if (packageInfo.mDefinedPermissions != null) {
+            for (MyPermissionInfo permission : packageInfo.mDefinedPermissions) {
+                mPermissionUsageIndex.invalidateGrantStates(permission.getName());
+            }
+        }
+    }
+
+    /**
+     * Remove package from permissions it defines, permissions no longer defined by anyone are removed from map
+     *
+     * @return Permissions which lost their owner and have to be verified again
+     */
+    private List<MyPermissionInfo> retractPermissions(MyPackageInfoImpl packageInfo) {
+        ArrayList<MyPermissionInfo> orphanedPermissions = new ArrayList<>();
+        if (packageInfo.mDefinedPermissions == null) {
+            return orphanedPermissions;
+        }
+        synchronized (mLock) {
+            for (MyPermissionInfo permission : packageInfo.mDefinedPermissions) {
+                MyPermissionInfoImpl permissionImpl = (MyPermissionInfoImpl) permission;
+                if (permissionImpl.removeDefiningPackage(packageInfo)) {
+                    if (mPermissions.get(permissionImpl.getName()) == permissionImpl) {
+                        mPermissions.remove(permissionImpl.getName());
+                    }
+                } else if (!permissionImpl.mOwnerVerified) {
+                    orphanedPermissions.add(permissionImpl);
+                }
+            }
+        }
+        return orphanedPermissions;
     }
 
+    private IntentFiltersCache getIntentFiltersCache() {
+        if (mIntentFiltersCache == null) {
+            mIntentFiltersCache = IntentFiltersCache.load(mContext);
+        }
+        return mIntentFiltersCache;
+    }
+
+    /**
+     * Fill intent filters from cache if package wasn't modified or parse manifest otherwise
+     *
+     * This may be called on scanning pool
+     */
     private void fillIntentFiltersForPackage(MyPackageInfoImpl myPackageInfo) {
         if (!myPackageInfo.mIntentFiltersLoaded) {
-            ScanManifestTask.parseInstalledPackage(mContext, myPackageInfo);
+            IntentFiltersCache cache = getIntentFiltersCache();
+            if (!cache.fillFromCache(myPackageInfo) &&
+                    ScanManifestTask.parseInstalledPackage(mContext, myPackageInfo)) {
+                cache.put(myPackageInfo);
+            }
         }
     }
 
     private void fillIntentFiltersForAllPackages() {
+        // Load cache before jobs start so they don't race to do so
+        IntentFiltersCache cache = getIntentFiltersCache();
+
+        // Parse manifests in parallel
+        ArrayList<Runnable> jobs = new ArrayList<>();
+        for (final MyPackageInfoImpl myPackageInfo : mPackages.values()) {
+            if (!myPackageInfo.mIntentFiltersLoaded) {
+                jobs.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillIntentFiltersForPackage(myPackageInfo);
+                    }
+                });
+            }
+        }
+        runOnScanPoolAndWait(jobs);
+
+        cache.retainPackages(mPackages.keySet());
+        cache.writeIfNeeded();
+    }
+
+    private void updateIntentFilterIndex() {
         for (MyPackageInfoImpl myPackageInfo : mPackages.values()) {
-            fillIntentFiltersForPackage(myPackageInfo);
+            if (!mIntentFilterIndex.isPackageIndexed(myPackageInfo.mPackageName)) {
+                mIntentFilterIndex.addPackage(myPackageInfo);
+            }
         }
     }
 
-    private MyPackageInfoImpl loadPackageInfoOrGetCached(String packageName) {
-        synchronized (mLock) {
-            if (mPackages.containsKey(packageName)) {
-                return mPackages.get(packageName);
+    private void updatePermissionUsageIndex() {
+        for (MyPackageInfoImpl myPackageInfo : mPackages.values()) {
+            if (!mPermissionUsageIndex.isPackageIndexed(myPackageInfo.mPackageName)) {
+                mPermissionUsageIndex.addPackage(myPackageInfo);
             }
         }
+    }
+
+    private MyPackageInfoImpl loadPackageInfoOrGetCached(String packageName) {
+        MyPackageInfoImpl cachedPackageInfo = mPackages.get(packageName);
+        if (cachedPackageInfo != null) {
+            return cachedPackageInfo;
+        }
         return loadPackageInfo(packageName);
     }
 
-    // Note: this function is currently run in synchronized(mLock)
+    /**
+     * Register permissions defined by package in {@link #mPermissions}
+     *
+     * Takes {@link #mLock} only for updating map, package manager is queried without holding it
+     */
     private void fillPermissionsBasedOnPackageInfo(MyPackageInfoImpl packageInfo, PermissionInfo[] permissions, List<MyPermissionInfo> outAppPermissions) {
         if (permissions == null || permissions.length == 0) {
             return;
         }
 
-        for (PermissionInfo permissionInfo : permissions) {
-
-            // TODO: convert mPermissions to parameter used only on one thread
+        ArrayList<MyPermissionInfoImpl> needingInfoFromPackageManager = new ArrayList<>();
+        synchronized (mLock) {
+            for (PermissionInfo permissionInfo : permissions) {
 
-            // Get MyPermissionInfoImpl from map or add new to it
-            MyPermissionInfoImpl nowRegisteredPermission = mPermissions.get(permissionInfo.name);
-            if (nowRegisteredPermission == null) {
-                nowRegisteredPermission = new MyPermissionInfoImpl();
-                mPermissions.put(permissionInfo.name, nowRegisteredPermission);
-            }
+                // TODO: convert mPermissions to parameter used only on one thread
 
-            // Fill it with info from PackageInfo
-            boolean needInfoFromPackageManager = nowRegisteredPermission.fillWithInfoFromApp(permissionInfo, packageInfo);
+                // Get MyPermissionInfoImpl from map or add new to it
+                MyPermissionInfoImpl nowRegisteredPermission = mPermissions.get(permissionInfo.name);
+                if (nowRegisteredPermission == null) {
+                    nowRegisteredPermission = new MyPermissionInfoImpl();
+                    mPermissions.put(permissionInfo.name, nowRegisteredPermission);
+                }
 
-            // Fill it with info from PackageManagerImpl
-            if (needInfoFromPackageManager) {
-                PermissionInfo permissionInfoFromPM = null;
-                try {
-                    permissionInfoFromPM = mPm.getPermissionInfo(permissionInfo.name, 0);
-                } catch (PackageManager.NameNotFoundException e) {
-                    Log.w(TAG, "Found permission in package but not in system", e);
-                    // Pass null to fillWithInfoFromPackageManager
+                // Fill it with info from PackageInfo
+                if (nowRegisteredPermission.fillWithInfoFromApp(permissionInfo, packageInfo)) {
+                    needingInfoFromPackageManager.add(nowRegisteredPermission);
                 }
-                nowRegisteredPermission.fillWithInfoFromPackageManager(permissionInfoFromPM);
+
+                outAppPermissions.add(nowRegisteredPermission);
             }
+        }
 
-            outAppPermissions.add(nowRegisteredPermission);
+        // Fill it with info from PackageManagerImpl
+        for (MyPermissionInfoImpl permission : needingInfoFromPackageManager) {
+            PermissionInfo permissionInfoFromPM = null;
+            try {
+                permissionInfoFromPM = mPm.getPermissionInfo(permission.getName(), 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "Found permission in package but not in system", e);
+                // Pass null to fillWithInfoFromPackageManager
+            }
+            synchronized (mLock) {
+                // Other thread might have verified it in meantime
+                if (!permission.mOwnerVerified) {
+                    permission.fillWithInfoFromPackageManager(permissionInfoFromPM);
+                }
+            }
         }
     }
 
     private PermissionDetails collectPermissionDetails(String permission) {
         // Fill packages details
-        loadAllInstalledPackagesInfoIfNeeded();
+        loadAllInstalledPackagesInfoIfNeeded(null);
+        updatePermissionUsageIndex();
 
         // Get permission details from package manager
         // TODO: deduplicate this code
@@ -218,37 +576,40 @@ public class MyPackageManagerImpl implements MyPackageManager {
         ArrayList<MyPackageInfo> grantedTo = new ArrayList<>();
         ArrayList<MyPackageInfo> implicitlyGrantedTo = new ArrayList<>();
         ArrayList<MyPackageInfo> deniedTo = new ArrayList<>();
-        ArrayList<MyComponentInfo> enforcingComponents = new ArrayList<>();
+        List<MyComponentInfo> enforcingComponents = mPermissionUsageIndex.getEnforcingComponents(permission);
+        HashSet<MyPackageInfo> requestingPackages = new HashSet<>(mPermissionUsageIndex.getRequestingPackages(permission));
+
+        // Grants of runtime permissions can be changed by user at any time, so don't cache them
+        boolean cacheGrantStates =
+                Build.VERSION.SDK_INT < 23 ||
+                myPermissionInfo.mSystemPermissionInfo == null ||
+                !myPermissionInfo.isDangerous();
+        SparseBooleanArray grantStates = cacheGrantStates ? mPermissionUsageIndex.getGrantStates(permission) : new SparseBooleanArray();
+
+        // If grants aren't cached get them all in one call where available
+        Set<String> holdingPackages = null;
+        if (grantStates.size() == 0 && Build.VERSION.SDK_INT >= 18) {
+            holdingPackages = getPackagesHoldingPermission(permission);
+        }
 
         for (MyPackageInfoImpl packageInfo : mPackages.values()) {
-            // Find enforcing components
-            for (MyComponentInfo component : packageInfo.mActivities) {
-                if (permission.equals(component.getPermission())) {
-                    enforcingComponents.add(component);
-                }
-            }
-            for (MyComponentInfo component : packageInfo.mReceivers) {
-                if (permission.equals(component.getPermission())) {
-                    enforcingComponents.add(component);
-                }
-            }
-            for (MyComponentInfo component : packageInfo.mServices) {
-                if (permission.equals(component.getPermission())) {
-                    enforcingComponents.add(component);
-                }
-            }
-            for (MyComponentInfo component : packageInfo.mProviders) {
-                if (permission.equals(component.getPermission()) ||
-                        permission.equals(component.getWritePermission())) {
-                    enforcingComponents.add(component);
+            // Check grant once per uid, packages sharing uid share permissions
+            int uid = packageInfo.mSystemPackageInfo.applicationInfo.uid;
+            int grantStateIndex = grantStates.indexOfKey(uid);
+            boolean granted;
+            if (grantStateIndex >= 0) {
+                granted = grantStates.valueAt(grantStateIndex);
+            } else {
+                if (holdingPackages != null) {
+                    granted = holdingPackages.contains(packageInfo.mPackageName);
+                } else {
+                    granted = mPm.checkPermission(permission, packageInfo.mPackageName) == PackageManager.PERMISSION_GRANTED;
                 }
+                grantStates.put(uid, granted);
             }
 
             // Categorize to granted/denied
-            String[] requestedPermissions = packageInfo.mSystemPackageInfo.requestedPermissions;
-            boolean requested = requestedPermissions != null &&
-                    Arrays.asList(requestedPermissions).contains(permission);
-            boolean granted = mPm.checkPermission(permission, packageInfo.mPackageName) == PackageManager.PERMISSION_GRANTED;
+            boolean requested = requestingPackages.contains(packageInfo);
             if (granted) {
                 if (requested) {
                     grantedTo.add(packageInfo);
@@ -270,6 +631,26 @@ public class MyPackageManagerImpl implements MyPackageManager {
         return permissionDetails;
     }
 
+    /**
+     * Get names of packages that are granted permission, in single call to package manager
+     *
+     * @return Package names or null if they couldn't be retrieved this way
+     */
+    @TargetApi(18)
+    private Set<String> getPackagesHoldingPermission(String permission) {
+        try {
+            List<PackageInfo> packages = mPm.getPackagesHoldingPermissions(new String[] {permission}, 0);
+            HashSet<String> packageNames = new HashSet<>();
+            for (PackageInfo packageInfo : packages) {
+                packageNames.add(packageInfo.packageName);
+            }
+            return packageNames;
+        } catch (Exception e) {
+            Log.w(TAG, "getPackagesHoldingPermissions() failed, falling back to checking packages one by one", e);
+            return null;
+        }
+    }
+
     private MyPackageInfoImpl loadPackageInfo(String packageName) {
         PackageInfo packageInfo;
         try {
@@ -330,65 +711,73 @@ public class MyPackageManagerImpl implements MyPackageManager {
 
         // Convert package info
         MyPackageInfoImpl myPackageInfo = new MyPackageInfoImpl(packageInfo);
-        synchronized (mLock) {
-            mPackages.put(packageInfo.packageName, myPackageInfo);
+        mPackages.put(packageInfo.packageName, myPackageInfo);
 
-            // And scan permissions
-            ArrayList<MyPermissionInfo> appPermissions = new ArrayList<>();
-            fillPermissionsBasedOnPackageInfo(myPackageInfo, packageInfo.permissions, appPermissions);
-            myPackageInfo.mDefinedPermissions = appPermissions;
-        }
+        // Scan permissions
+        ArrayList<MyPermissionInfo> appPermissions = new ArrayList<>();
+        fillPermissionsBasedOnPackageInfo(myPackageInfo, packageInfo.permissions, appPermissions);
+        myPackageInfo.mDefinedPermissions = appPermissions;
         return myPackageInfo;
     }
 
 
     @Override
     @SuppressWarnings("unchecked")
-    public Promise<Collection<MyPackageInfo>, Void, Void> getPackages(final boolean withIntentFilters) {
-        final DeferredObject<Collection<MyPackageInfo>, Void, Void> deferred = new DeferredObject<>();
+    public Promise<Collection<MyPackageInfo>, Void, MyPackageInfo> getPackages(final boolean withIntentFilters) {
+        final DeferredObject<Collection<MyPackageInfo>, Void, MyPackageInfo> deferred = new DeferredObject<>();
+
+        // Wrap before starting load, progress isn't replayed to late subscribers
+        Promise<Collection<MyPackageInfo>, Void, MyPackageInfo> promise = new AndroidDeferredObject<>(deferred);
+
         synchronized (mLock) {
             if (mLoadedAllPackages && (mLoadedAllPackagesIncludingIntentFilters || !withIntentFilters)) {
                 deferred.resolve((Collection) mPackages.values());
             } else {
-                mWorkerHandler.post(new Runnable() {
+                // Start load from main thread, so callbacks attached to returned promise
+                // by caller on main thread are registered before first progress is sent
+                mMainHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        loadAllInstalledPackagesInfoIfNeeded();
-                        if (withIntentFilters) {
-                            fillIntentFiltersForAllPackages();
-                            mLoadedAllPackagesIncludingIntentFilters = true;
-                        }
-                        deferred.resolve((Collection) mPackages.values());
+                        mWorkerHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                loadAllInstalledPackagesInfoIfNeeded(deferred);
+                                if (withIntentFilters) {
+                                    fillIntentFiltersForAllPackages();
+                                    mLoadedAllPackagesIncludingIntentFilters = true;
+                                }
+                                deferred.resolve((Collection) mPackages.values());
+                            }
+                        });
                     }
                 });
             }
         }
 
-        return new AndroidDeferredObject<>(deferred);
+        return promise;
     }
 
     @Override
     public Promise<MyPackageInfo, Void, Void> getPackageInfo(final boolean withIntentFilters, final String packageName) {
         final DeferredObject<MyPackageInfo, Void, Void> deferred = new DeferredObject<>();
-        synchronized (mLock) {
-            if (mPackages.containsKey(packageName) && !withIntentFilters) { // TODO: load intent filters only if needed
-                deferred.resolve(mPackages.get(packageName));
-            } else {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        MyPackageInfoImpl myPackageInfo = loadPackageInfoOrGetCached(packageName);
-                        if (myPackageInfo == null) {
-                            deferred.reject(null);
-                            return;
-                        }
-                        if (withIntentFilters) {
-                            fillIntentFiltersForPackage(myPackageInfo);
-                        }
-                        deferred.resolve(myPackageInfo);
+        MyPackageInfoImpl cachedPackageInfo = mPackages.get(packageName);
+        if (cachedPackageInfo != null && !withIntentFilters) { // TODO: load intent filters only if needed
+            deferred.resolve(cachedPackageInfo);
+        } else {
+            mWorkerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    MyPackageInfoImpl myPackageInfo = loadPackageInfoOrGetCached(packageName);
+                    if (myPackageInfo == null) {
+                        deferred.reject(null);
+                        return;
                     }
-                });
-            }
+                    if (withIntentFilters) {
+                        fillIntentFiltersForPackage(myPackageInfo);
+                    }
+                    deferred.resolve(myPackageInfo);
+                }
+            });
         }
 
         return new AndroidDeferredObject<>(deferred);
@@ -405,7 +794,7 @@ public class MyPackageManagerImpl implements MyPackageManager {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        loadAllInstalledPackagesInfoIfNeeded();
+                        loadAllInstalledPackagesInfoIfNeeded(null);
                         deferred.resolve((Map) mPermissions);
                     }
                 });
@@ -430,15 +819,57 @@ public class MyPackageManagerImpl implements MyPackageManager {
 
 
 
+    @Override
+    public Promise<List<MyComponentInfo[]>, Void, Void> findComponentsByIntentFilter(final int componentType, final String action, final Set<String> categories, final boolean insensitiveAndSubstring) {
+        final DeferredObject<List<MyComponentInfo[]>, Void, Void> deferred = new DeferredObject<>();
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadAllInstalledPackagesInfoIfNeeded(null);
+                if (!mLoadedAllPackagesIncludingIntentFilters) {
+                    fillIntentFiltersForAllPackages();
+                    mLoadedAllPackagesIncludingIntentFilters = true;
+                }
+                updateIntentFilterIndex();
+                deferred.resolve(mIntentFilterIndex.findComponents(componentType, action, categories, insensitiveAndSubstring));
+            }
+        });
+
+        return new AndroidDeferredObject<>(deferred);
+    }
+
+    @Override
+    public void addOnPackageChangedListener(OnPackageChangedListener listener) {
+        mOnPackageChangedListeners.add(listener);
+    }
+
+    @Override
+    public void removeOnPackageChangedListener(OnPackageChangedListener listener) {
+        mOnPackageChangedListeners.remove(listener);
+    }
+
     private class PackagesChangedReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            String packageName = intent.getData().getSchemeSpecificPart();
+            // Removal that is part of update is followed by ADDED and REPLACED
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction()) &&
+                    intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                return;
+            }
+
+            final String packageName = intent.getData().getSchemeSpecificPart();
             synchronized (mLock) {
-                mPackages.remove(packageName);
-                mLoadedAllPackages = false;
-                mLoadedAllPackagesIncludingIntentFilters = false;
+                if (!mPendingPackageUpdates.add(packageName)) {
+                    // Update already scheduled
+                    return;
+                }
             }
+            mWorkerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updatePackage(packageName);
+                }
+            });
         }
     }
 }
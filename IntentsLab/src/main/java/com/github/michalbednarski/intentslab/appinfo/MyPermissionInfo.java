@@ -1,5 +1,7 @@
 package com.github.michalbednarski.intentslab.appinfo;
 
+import android.content.pm.PackageManager;
+
 /**
  * Information about permission
  */
@@ -8,6 +10,8 @@ public interface MyPermissionInfo {
 
     MyPackageInfo getOwnerPackage();
 
+    CharSequence loadLabel(PackageManager pm);
+
     boolean isNormal();
 
     boolean isDangerous();
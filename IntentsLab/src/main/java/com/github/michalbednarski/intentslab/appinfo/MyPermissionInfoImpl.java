@@ -1,6 +1,7 @@
 package com.github.michalbednarski.intentslab.appinfo;
 
 import android.annotation.SuppressLint;
+import android.content.pm.PackageManager;
 import android.content.pm.PermissionInfo;
 
 import java.util.ArrayList;
@@ -27,6 +28,11 @@ class MyPermissionInfoImpl implements MyPermissionInfo {
         return mOwnerPackage;
     }
 
+    @Override
+    public CharSequence loadLabel(PackageManager pm) {
+        return mSystemPermissionInfo.loadLabel(pm);
+    }
+
     @Override
     public boolean isNormal() {
         return (mSystemPermissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE)
@@ -89,6 +95,21 @@ class MyPermissionInfoImpl implements MyPermissionInfo {
         mSystemPermissionInfo = permissionInfo;
     }
 
+    /**
+     * Forget given package as definer of this permission, used when package is updated or removed.
+     * If it was owner, owner is cleared and has to be verified again
+     *
+     * @return True if no remaining package defines this permission
+     */
+    boolean removeDefiningPackage(MyPackageInfoImpl packageInfo) {
+        mPackagesTryingDefine.remove(packageInfo);
+        if (mOwnerPackage == packageInfo) {
+            mOwnerPackage = null;
+            mOwnerVerified = false;
+        }
+        return mOwnerPackage == null && mPackagesTryingDefine.isEmpty();
+    }
+
     /**
      * Add data gathered from getInstalledPackages() to this object
      *
@@ -0,0 +1,183 @@
+package com.github.michalbednarski.intentslab.appinfo;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.os.Parcel;
+import android.support.v4.util.ArrayMap;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk snapshot of {@link PackageInfo}-s loaded by {@link MyPackageManagerImpl}
+ *
+ * This allows us to skip asking system for components of packages
+ * that weren't updated since last run
+ *
+ * File format (deflated):
+ * <pre>
+ *     int formatVersion
+ *     String Build.FINGERPRINT
+ *     int entryCount
+ *     entryCount times:
+ *         String packageName
+ *         long lastUpdateTime
+ *         int versionCode
+ *         int parcelLength
+ *         byte[parcelLength] marshalled PackageInfo
+ * </pre>
+ *
+ * Parcel format isn't stable across system versions so whole snapshot
+ * is discarded when system fingerprint changes
+ *
+ * Snapshot isn't used below API 9, where {@link PackageInfo#lastUpdateTime} isn't available
+ */
+class PackagesSnapshot {
+    private static final String TAG = "PackagesSnapshot";
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_NAME = "packages-snapshot";
+
+    static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    /**
+     * Read snapshot, returning only entries that are still up to date
+     *
+     * @param installedPackages Packages currently installed, as returned by getInstalledPackages(0)
+     * @return Map of package names to full PackageInfo-s (loaded with {@link MyPackageManagerImpl#STANDARD_FLAGS}),
+     *         empty if there's no usable snapshot
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    static Map<String, PackageInfo> read(Context context, List<PackageInfo> installedPackages) {
+        if (Build.VERSION.SDK_INT < 9) {
+            return new ArrayMap<>();
+        }
+
+        ArrayMap<String, PackageInfo> installedMap = new ArrayMap<>(installedPackages.size());
+        for (PackageInfo installedPackage : installedPackages) {
+            installedMap.put(installedPackage.packageName, installedPackage);
+        }
+
+        ArrayMap<String, PackageInfo> result = new ArrayMap<>();
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new InflaterInputStream(getFile(context).openRead())));
+
+            // Check header
+            if (inputStream.readInt() != FORMAT_VERSION ||
+                    !Build.FINGERPRINT.equals(inputStream.readUTF())) {
+                return result;
+            }
+
+            // Read entries
+            int count = inputStream.readInt();
+            byte[] buffer = new byte[0];
+            for (int i = 0; i < count; i++) {
+                String packageName = inputStream.readUTF();
+                long lastUpdateTime = inputStream.readLong();
+                int versionCode = inputStream.readInt();
+                int length = inputStream.readInt();
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                inputStream.readFully(buffer, 0, length);
+
+                // Unparcel only entries that weren't updated
+                PackageInfo installedPackage = installedMap.get(packageName);
+                if (installedPackage == null ||
+                        installedPackage.lastUpdateTime != lastUpdateTime ||
+                        installedPackage.versionCode != versionCode) {
+                    continue;
+                }
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(buffer, 0, length);
+                    parcel.setDataPosition(0);
+                    result.put(packageName, PackageInfo.CREATOR.createFromParcel(parcel));
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        } catch (FileNotFoundException ignored) {
+            // No snapshot yet
+        } catch (Exception e) {
+            Log.w(TAG, "Failed reading packages snapshot", e);
+            result.clear();
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {}
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Save snapshot of given packages, replacing previous one
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    static void write(Context context, Collection<MyPackageInfoImpl> packages) {
+        if (Build.VERSION.SDK_INT < 9) {
+            return;
+        }
+
+        AtomicFile file = getFile(context);
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = file.startWrite();
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(fileOutputStream);
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(deflaterOutputStream));
+
+            // Header
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(Build.FINGERPRINT);
+            outputStream.writeInt(packages.size());
+
+            // Entries
+            for (MyPackageInfoImpl myPackageInfo : packages) {
+                PackageInfo packageInfo = myPackageInfo.mSystemPackageInfo;
+                Parcel parcel = Parcel.obtain();
+                byte[] data;
+                try {
+                    packageInfo.writeToParcel(parcel, 0);
+                    data = parcel.marshall();
+                } finally {
+                    parcel.recycle();
+                }
+                outputStream.writeUTF(packageInfo.packageName);
+                outputStream.writeLong(packageInfo.lastUpdateTime);
+                outputStream.writeInt(packageInfo.versionCode);
+                outputStream.writeInt(data.length);
+                outputStream.write(data);
+            }
+
+            // Flush without closing underlying file, AtomicFile has to sync it
+            outputStream.flush();
+            deflaterOutputStream.finish();
+            file.finishWrite(fileOutputStream);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed writing packages snapshot", e);
+            if (fileOutputStream != null) {
+                file.failWrite(fileOutputStream);
+            }
+        }
+    }
+}
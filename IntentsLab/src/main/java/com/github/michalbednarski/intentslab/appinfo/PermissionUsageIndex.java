@@ -0,0 +1,168 @@
+package com.github.michalbednarski.intentslab.appinfo;
+
+import android.util.SparseBooleanArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Reverse index of permission usage: permission => components enforcing it
+ * and permission => packages requesting it, along with cache of grant states
+ *
+ * This is maintained by {@link MyPackageManagerImpl}, packages are added lazily
+ * when permission details are requested and removed when they change
+ *
+ * Used only on worker thread
+ */
+class PermissionUsageIndex {
+
+    /**
+     * Permission => components enforcing it (either as read or write permission)
+     */
+    private final HashMap<String, ArrayList<MyComponentInfo>> mEnforcingComponents = new HashMap<>();
+
+    /**
+     * Permission => packages that have it in requestedPermissions
+     */
+    private final HashMap<String, ArrayList<MyPackageInfo>> mRequestingPackages = new HashMap<>();
+
+    /**
+     * Indexed packages => permissions under which they were added,
+     * used for removing package from index
+     */
+    private final HashMap<String, ArrayList<String>> mPackagePermissions = new HashMap<>();
+
+    /**
+     * Permission => uid => is granted
+     *
+     * Grant state is checked per uid, so packages sharing uid are checked once
+     */
+    private final HashMap<String, SparseBooleanArray> mGrantStates = new HashMap<>();
+
+    boolean isPackageIndexed(String packageName) {
+        return mPackagePermissions.containsKey(packageName);
+    }
+
+    void addPackage(MyPackageInfoImpl packageInfo) {
+        if (mPackagePermissions.containsKey(packageInfo.mPackageName)) {
+            removePackage(packageInfo.mPackageName);
+        }
+
+        ArrayList<String> packagePermissions = new ArrayList<>();
+
+        // Enforcing components
+        addEnforcingComponents(packageInfo.mActivities, packagePermissions);
+        addEnforcingComponents(packageInfo.mReceivers, packagePermissions);
+        addEnforcingComponents(packageInfo.mServices, packagePermissions);
+        addEnforcingComponents(packageInfo.mProviders, packagePermissions);
+
+        // Requested permissions
+        String[] requestedPermissions = packageInfo.mSystemPackageInfo.requestedPermissions;
+        if (requestedPermissions != null) {
+            HashSet<String> seenPermissions = new HashSet<>();
+            for (String permission : requestedPermissions) {
+                if (permission != null && seenPermissions.add(permission)) {
+                    getOrCreate(mRequestingPackages, permission).add(packageInfo);
+                    packagePermissions.add(permission);
+                }
+            }
+        }
+
+        mPackagePermissions.put(packageInfo.mPackageName, packagePermissions);
+    }
+
+    private void addEnforcingComponents(MyComponentInfo[] components, ArrayList<String> outPackagePermissions) {
+        for (MyComponentInfo component : components) {
+            String permission = component.getPermission();
+            if (permission != null) {
+                getOrCreate(mEnforcingComponents, permission).add(component);
+                outPackagePermissions.add(permission);
+            }
+            String writePermission = component.getWritePermission();
+            if (writePermission != null && !writePermission.equals(permission)) {
+                getOrCreate(mEnforcingComponents, writePermission).add(component);
+                outPackagePermissions.add(writePermission);
+            }
+        }
+    }
+
+    private static <T> ArrayList<T> getOrCreate(HashMap<String, ArrayList<T>> map, String key) {
+        ArrayList<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Remove package from index, does nothing if it wasn't indexed
+     */
+    void removePackage(String packageName) {
+        ArrayList<String> packagePermissions = mPackagePermissions.remove(packageName);
+        if (packagePermissions == null) {
+            return;
+        }
+        for (String permission : packagePermissions) {
+            removeOwnedBy(mEnforcingComponents, permission, packageName);
+            removeOwnedBy(mRequestingPackages, permission, packageName);
+        }
+    }
+
+    private static void removeOwnedBy(HashMap<String, ? extends ArrayList<?>> map, String permission, String packageName) {
+        ArrayList<?> list = map.get(permission);
+        if (list == null) {
+            return;
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Object item = list.get(i);
+            MyPackageInfo owner = item instanceof MyComponentInfo ? ((MyComponentInfo) item).getOwnerPackage() : (MyPackageInfo) item;
+            if (packageName.equals(owner.getPackageName())) {
+                list.remove(i);
+            }
+        }
+        if (list.isEmpty()) {
+            map.remove(permission);
+        }
+    }
+
+    List<MyComponentInfo> getEnforcingComponents(String permission) {
+        ArrayList<MyComponentInfo> components = mEnforcingComponents.get(permission);
+        return components != null ? components : new ArrayList<MyComponentInfo>();
+    }
+
+    List<MyPackageInfo> getRequestingPackages(String permission) {
+        ArrayList<MyPackageInfo> packages = mRequestingPackages.get(permission);
+        return packages != null ? packages : new ArrayList<MyPackageInfo>();
+    }
+
+    /**
+     * Get grant states cached for permission, returned array can be modified to add new entries
+     */
+    SparseBooleanArray getGrantStates(String permission) {
+        SparseBooleanArray grantStates = mGrantStates.get(permission);
+        if (grantStates == null) {
+            grantStates = new SparseBooleanArray();
+            mGrantStates.put(permission, grantStates);
+        }
+        return grantStates;
+    }
+
+    /**
+     * Forget cached grant states of given uid, called when any package using it changes
+     */
+    void invalidateGrantStates(int uid) {
+        for (SparseBooleanArray grantStates : mGrantStates.values()) {
+            grantStates.delete(uid);
+        }
+    }
+
+    /**
+     * Forget cached grant states of given permission, called when package defining it changes
+     */
+    void invalidateGrantStates(String permission) {
+        mGrantStates.remove(permission);
+    }
+}
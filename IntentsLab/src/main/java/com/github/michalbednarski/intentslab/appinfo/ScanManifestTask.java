@@ -23,16 +23,23 @@ class ScanManifestTask {
 
     private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
 
-    static void parseInstalledPackage(Context context, MyPackageInfoImpl packageInfo) {
+    /**
+     * Parse intent filters from manifest of installed package
+     *
+     * @return True if manifest was parsed, only then intent filters are marked as loaded,
+     *         so failed parse can be retried and isn't cached as package without intent filters
+     */
+    static boolean parseInstalledPackage(Context context, MyPackageInfoImpl packageInfo) {
         try {
             XmlPullParser manifest = XmlViewerFragment.getManifest(context, packageInfo.mPackageName);
             parseManifest(manifest, packageInfo);
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
 
-        // We set this flag even if we fail so we're not trying to load them again
         packageInfo.mIntentFiltersLoaded = true;
+        return true;
     }
 
     private static void parseManifest(XmlPullParser manifest, MyPackageInfoImpl mPackageInfo)
@@ -0,0 +1,311 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.bindservice;
+
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.SystemClock;
+
+import com.github.michalbednarski.intentslab.bindservice.manager.AidlInterface;
+import com.github.michalbednarski.intentslab.runas.IRemoteInterface;
+import com.github.michalbednarski.intentslab.sandbox.InvokeMethodResult;
+import com.github.michalbednarski.intentslab.sandbox.SandboxedObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invokes AIDL method many times on background threads, measuring latency of each call
+ *
+ * Calls go over given argument sets in turn, each set is used {@code repeats} times.
+ * Listener is called on main thread.
+ */
+class BatchInvocationRunner {
+
+    /**
+     * Minimal interval between progress reports
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * Maximal number of calls in batch,
+     * kept well below int range since workers take call numbers past total before they stop
+     */
+    static final int MAX_TOTAL_CALLS = Integer.MAX_VALUE / 2;
+
+    /**
+     * Maximal number of threads making calls
+     */
+    static final int MAX_CONCURRENCY = 64;
+
+    interface Listener {
+        void onBatchProgress(int completed, int total);
+
+        void onBatchFinished(Results results);
+    }
+
+    private final AidlInterface mAidlInterface;
+    private final int mMethodNumber;
+    private final SandboxedObject[][] mArgumentSets;
+    private final int mTotalCalls;
+    private final int mConcurrency;
+    private final IRemoteInterface mRunAs;
+    private final IBinder mBinder;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mExecutor;
+    private volatile boolean mCancelled = false;
+
+    private final AtomicInteger mNextCall = new AtomicInteger();
+    private final AtomicInteger mCompletedCalls = new AtomicInteger();
+    private final AtomicInteger mRunningWorkers = new AtomicInteger();
+    private final AtomicLong mLastProgressTime = new AtomicLong();
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private final AtomicInteger mFailedCalls = new AtomicInteger();
+    private final HashMap<String, Integer> mExceptionCounts = new HashMap<String, Integer>();
+    private long mStartTime;
+
+    /**
+     * @param argumentSets Arguments used for calls, in turn
+     * @param repeats Number of times each argument set is used
+     * @param concurrency Number of threads making calls, clamped to {@link #MAX_CONCURRENCY}
+     * @param runAs Remote interface through which calls are made, or null to call directly
+     * @param binder Binder of service, used only if runAs is set
+     */
+    BatchInvocationRunner(AidlInterface aidlInterface, int methodNumber, List<SandboxedObject[]> argumentSets, int repeats, int concurrency, IRemoteInterface runAs, IBinder binder) {
+        mAidlInterface = aidlInterface;
+        mMethodNumber = methodNumber;
+        mArgumentSets = argumentSets.toArray(new SandboxedObject[argumentSets.size()][]);
+        long totalCalls = (long) mArgumentSets.length * repeats;
+        if (totalCalls > MAX_TOTAL_CALLS) {
+            throw new IllegalArgumentException("Too many calls in batch: " + totalCalls);
+        }
+        mTotalCalls = (int) totalCalls;
+        mConcurrency = Math.max(1, Math.min(Math.min(concurrency, MAX_CONCURRENCY), mTotalCalls));
+        mRunAs = runAs;
+        mBinder = binder;
+    }
+
+    int getTotalCalls() {
+        return mTotalCalls;
+    }
+
+    void start(final Listener listener) {
+        mStartTime = SystemClock.elapsedRealtime();
+        mExecutor = Executors.newFixedThreadPool(mConcurrency);
+        mRunningWorkers.set(mConcurrency);
+        for (int i = 0; i < mConcurrency; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker(listener);
+                }
+            });
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stop making new calls, listener will still get results of calls made so far
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private void runWorker(final Listener listener) {
+        // Unwrapping SandboxedObject reads its shared Parcel, so each worker needs own copies
+        SandboxedObject[][] argumentSets = mConcurrency == 1 ? mArgumentSets : copyArgumentSets();
+
+        int call;
+        while (!mCancelled && (call = mNextCall.getAndIncrement()) < mTotalCalls) {
+            invokeOnce(argumentSets[call % argumentSets.length]);
+            final int completed = mCompletedCalls.incrementAndGet();
+
+            // Report progress, throttled
+            long now = SystemClock.uptimeMillis();
+            long lastProgressTime = mLastProgressTime.get();
+            if (now - lastProgressTime >= PROGRESS_INTERVAL && mLastProgressTime.compareAndSet(lastProgressTime, now)) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onBatchProgress(completed, mTotalCalls);
+                    }
+                });
+            }
+        }
+
+        // Last finished worker reports results
+        if (mRunningWorkers.decrementAndGet() == 0) {
+            final Results results = buildResults();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onBatchFinished(results);
+                }
+            });
+        }
+    }
+
+    /**
+     * Make copy of argument sets by marshalling them through Parcel
+     */
+    private SandboxedObject[][] copyArgumentSets() {
+        SandboxedObject[][] copy = new SandboxedObject[mArgumentSets.length][];
+        Parcel parcel = Parcel.obtain();
+        try {
+            synchronized (mArgumentSets) {
+                for (SandboxedObject[] arguments : mArgumentSets) {
+                    parcel.writeTypedArray(arguments, 0);
+                }
+            }
+            parcel.setDataPosition(0);
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = parcel.createTypedArray(SandboxedObject.CREATOR);
+            }
+        } finally {
+            parcel.recycle();
+        }
+        return copy;
+    }
+
+    private void invokeOnce(SandboxedObject[] arguments) {
+        String exception;
+        long startTime = System.nanoTime();
+        try {
+            InvokeMethodResult result;
+            if (mRunAs != null) {
+                result = mAidlInterface.invokeMethodUsingBinder(mRunAs.createOneShotProxyBinder(mBinder), mMethodNumber, arguments);
+            } else {
+                result = mAidlInterface.invokeMethod(mMethodNumber, arguments);
+            }
+            exception = result.exception;
+        } catch (Exception e) {
+            exception = "[Internal] " + e.getClass().getName();
+        }
+        mHistogram.record((System.nanoTime() - startTime) / 1000);
+
+        if (exception != null) {
+            mFailedCalls.incrementAndGet();
+            String type = exceptionType(exception);
+            synchronized (mExceptionCounts) {
+                Integer count = mExceptionCounts.get(type);
+                mExceptionCounts.put(type, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Extract exception type from description made by {@link com.github.michalbednarski.intentslab.Utils#describeException(Throwable)}
+     */
+    private static String exceptionType(String exceptionDescription) {
+        int separator = exceptionDescription.indexOf(": ");
+        return separator != -1 ? exceptionDescription.substring(0, separator) : exceptionDescription;
+    }
+
+    private Results buildResults() {
+        Results results = new Results();
+        results.completedCalls = mCompletedCalls.get();
+        results.totalCalls = mTotalCalls;
+        results.failedCalls = mFailedCalls.get();
+        results.cancelled = mCancelled;
+        results.concurrency = mConcurrency;
+        results.wallTime = SystemClock.elapsedRealtime() - mStartTime;
+        results.p50 = mHistogram.getPercentile(50);
+        results.p90 = mHistogram.getPercentile(90);
+        results.p99 = mHistogram.getPercentile(99);
+        results.max = mHistogram.getMax();
+        synchronized (mExceptionCounts) {
+            results.exceptionCounts = new ArrayList<Map.Entry<String, Integer>>(mExceptionCounts.entrySet());
+        }
+        Collections.sort(results.exceptionCounts, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> lhs, Map.Entry<String, Integer> rhs) {
+                return rhs.getValue() - lhs.getValue();
+            }
+        });
+        return results;
+    }
+
+    static class Results {
+        int completedCalls;
+        int totalCalls;
+        int failedCalls;
+        boolean cancelled;
+        int concurrency;
+
+        /**
+         * Time of whole batch in milliseconds
+         */
+        long wallTime;
+
+        /**
+         * Latencies in microseconds
+         */
+        long p50, p90, p99, max;
+
+        /**
+         * Exception types with number of calls that thrown them, most common first
+         */
+        List<Map.Entry<String, Integer>> exceptionCounts;
+
+        /**
+         * Format results as plain text table
+         */
+        String toTable() {
+            StringBuilder table = new StringBuilder();
+            appendRow(table, "Calls", completedCalls + (cancelled ? " of " + totalCalls + " (cancelled)" : ""));
+            appendRow(table, "Succeeded", String.valueOf(completedCalls - failedCalls));
+            appendRow(table, "Failed", String.valueOf(failedCalls));
+            appendRow(table, "Threads", String.valueOf(concurrency));
+            appendRow(table, "Wall time", wallTime + " ms");
+            appendRow(table, "Throughput", String.format(Locale.US, "%.1f calls/s", completedCalls * 1000.0 / Math.max(1, wallTime)));
+            appendRow(table, "Latency p50", formatMicros(p50));
+            appendRow(table, "Latency p90", formatMicros(p90));
+            appendRow(table, "Latency p99", formatMicros(p99));
+            appendRow(table, "Latency max", formatMicros(max));
+            if (!exceptionCounts.isEmpty()) {
+                table.append("\nExceptions:\n");
+                for (Map.Entry<String, Integer> entry : exceptionCounts) {
+                    appendRow(table, entry.getKey(), String.valueOf(entry.getValue()));
+                }
+            }
+            return table.toString();
+        }
+
+        private static void appendRow(StringBuilder table, String name, String value) {
+            table.append(name).append(": ").append(value).append('\n');
+        }
+
+        private static String formatMicros(long micros) {
+            return String.format(Locale.US, "%.2f ms", micros / 1000.0);
+        }
+    }
+}
@@ -21,20 +21,18 @@ package com.github.michalbednarski.intentslab.bindservice;
 import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.text.SpannableString;
 
-import com.github.michalbednarski.intentslab.TextFragment;
+import com.github.michalbednarski.intentslab.TextLinesFragment;
 import com.github.michalbednarski.intentslab.Utils;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 
 /**
  * Created by mb on 18.08.14.
  */
-public class DumpSysFragment extends TextFragment {
+public class DumpSysFragment extends TextLinesFragment {
     public static final String ARG_SERVICE_NAME = "svcN";
 
     @Override
@@ -45,38 +43,28 @@ public class DumpSysFragment extends TextFragment {
         new DumpTask().execute();
     }
 
+    /**
+     * Reads dump, streaming lines to viewer as they're produced
+     */
     private class DumpTask extends AsyncTask<Object, Object, Object> {
         Context mContext = getActivity().getApplicationContext();
         String mServiceName = getArguments().getString(ARG_SERVICE_NAME);
 
-        private StringBuilder mText = new StringBuilder();
-
-        private void addLine(String line) {
-            if (mText.length() != 0) {
-                mText.append('\n');
-            }
-            mText.append(line);
-        }
-
         @Override
-        protected ArrayList<String> doInBackground(Object[] params) {
+        protected Object doInBackground(Object[] params) {
             try {
                 InputStream inputStream = Utils.dumpSystemService(mContext, mServiceName, new String[0]);
                 BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    addLine(line);
+                    appendLine(line);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
-                addLine(Utils.describeException(e));
+                appendLine(Utils.describeException(e));
             }
+            finishLines();
             return null;
         }
-
-        @Override
-        protected void onPostExecute(Object o) {
-            publishText(new SpannableString(mText));
-        }
     }
 }
@@ -20,16 +20,20 @@ package com.github.michalbednarski.intentslab.bindservice;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.v4.app.DialogFragment;
+import android.support.v4.app.FragmentManager;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.github.michalbednarski.intentslab.R;
@@ -47,12 +51,17 @@ import com.github.michalbednarski.intentslab.valueeditors.framework.EditorLaunch
 import com.github.michalbednarski.intentslab.valueeditors.methodcall.ArgumentsEditorHelper;
 import com.github.michalbednarski.intentslab.valueeditors.object.InlineValueEditorsLayout;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by mb on 03.10.13.
  */
-public class InvokeAidlMethodFragment extends BaseServiceFragment implements BindServiceManager.AidlReadyCallback, EditorLauncher.EditorLauncherCallbackDelegate {
+public class InvokeAidlMethodFragment extends BaseServiceFragment implements BindServiceManager.AidlReadyCallback, EditorLauncher.EditorLauncherCallbackDelegate, BatchInvocationRunner.Listener {
     static final String ARG_METHOD_NUMBER = "method-number";
     private static final String STATE_METHOD_ARGUMENTS = "method-arguments";
+    private static final String STATE_BATCH_ARGUMENT_SETS = "batch-argument-sets";
 
     private AidlInterface mAidlInterface;
     private int mMethodNumber;
@@ -62,6 +71,12 @@ public class InvokeAidlMethodFragment extends BaseServiceFragment implements Bin
     private InlineValueEditorsLayout mEditorsLayout;
     private ArgumentsEditorHelper mArgumentsEditorHelper;
 
+    /**
+     * Argument sets added to batch, each element is arguments for one call
+     */
+    private ArrayList<SandboxedObject[]> mBatchArgumentSets = new ArrayList<SandboxedObject[]>();
+    private BatchInvocationRunner mBatchRunner;
+
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -78,6 +93,15 @@ public class InvokeAidlMethodFragment extends BaseServiceFragment implements Bin
                     (savedInstanceState.getParcelableArray(STATE_METHOD_ARGUMENTS),
                     SandboxedObject[].class
             );
+            Bundle batchArgumentSets = savedInstanceState.getBundle(STATE_BATCH_ARGUMENT_SETS);
+            if (batchArgumentSets != null) {
+                for (int i = 0; batchArgumentSets.containsKey(String.valueOf(i)); i++) {
+                    mBatchArgumentSets.add((SandboxedObject[]) Utils.deepCastArray(
+                            batchArgumentSets.getParcelableArray(String.valueOf(i)),
+                            SandboxedObject[].class
+                    ));
+                }
+            }
         }
 
         // Read arguments and continue to preparing aidl
@@ -134,6 +158,20 @@ public class InvokeAidlMethodFragment extends BaseServiceFragment implements Bin
                 mMethodArgumentsToRestore != null ? mMethodArgumentsToRestore : // Not fully restored
                         mArgumentsEditorHelper != null ? mArgumentsEditorHelper.getSandboxedArguments() : null
         );
+        Bundle batchArgumentSets = new Bundle();
+        for (int i = 0; i < mBatchArgumentSets.size(); i++) {
+            batchArgumentSets.putParcelableArray(String.valueOf(i), mBatchArgumentSets.get(i));
+        }
+        outState.putBundle(STATE_BATCH_ARGUMENT_SETS, batchArgumentSets);
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mBatchRunner != null) {
+            mBatchRunner.cancel();
+            mBatchRunner = null;
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -162,6 +200,26 @@ public class InvokeAidlMethodFragment extends BaseServiceFragment implements Bin
             case R.id.execute:
                 invokeAidlMethod();
                 return true;
+            case R.id.add_to_batch:
+                if (mArgumentsEditorHelper != null) {
+                    mBatchArgumentSets.add(mArgumentsEditorHelper.getSandboxedArguments());
+                    Toast.makeText(
+                            getActivity(),
+                            getResources().getQuantityString(R.plurals.n_argument_sets_in_batch, mBatchArgumentSets.size(), mBatchArgumentSets.size()),
+                            Toast.LENGTH_SHORT
+                    ).show();
+                }
+                return true;
+            case R.id.run_batch:
+                if (mArgumentsEditorHelper != null && mBatchRunner == null) {
+                    BatchInvokeDialog dialog = new BatchInvokeDialog();
+                    dialog.setTargetFragment(this, 0);
+                    dialog.show(getFragmentManager(), "batchInvokeDialog");
+                }
+                return true;
+            case R.id.clear_batch:
+                mBatchArgumentSets.clear();
+                return true;
         }
         return false;
     }
@@ -198,6 +256,155 @@ public class InvokeAidlMethodFragment extends BaseServiceFragment implements Bin
         Toast.makeText(getActivity(), "Something went wrong...", Toast.LENGTH_SHORT).show(); // Should never happen
     }
 
+    void runBatch(int repeats, int concurrency) {
+        if (mAidlInterface == null || mArgumentsEditorHelper == null || mBatchRunner != null) {
+            return;
+        }
+        List<SandboxedObject[]> argumentSets = mBatchArgumentSets;
+        if (argumentSets.isEmpty()) {
+            argumentSets = Collections.singletonList(mArgumentsEditorHelper.getSandboxedArguments());
+        }
+        if ((long) argumentSets.size() * repeats > BatchInvocationRunner.MAX_TOTAL_CALLS) {
+            Toast.makeText(getActivity(), R.string.batch_too_large, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mBatchRunner = new BatchInvocationRunner(
+                mAidlInterface,
+                mMethodNumber,
+                argumentSets,
+                repeats,
+                concurrency,
+                RunAsManager.getSelectedRemoteInterface(),
+                getServiceHelper().getBinderIfAvailable()
+        );
+        if (mBatchRunner.getTotalCalls() == 0) {
+            mBatchRunner = null;
+            return;
+        }
+        BatchProgressDialog progressDialog = new BatchProgressDialog();
+        progressDialog.setTargetFragment(this, 0);
+        progressDialog.show(getFragmentManager(), "batchProgressDialog");
+        mBatchRunner.start(this);
+    }
+
+    void cancelBatch() {
+        if (mBatchRunner != null) {
+            mBatchRunner.cancel();
+        }
+    }
+
+    @Override
+    public void onBatchProgress(int completed, int total) {
+        if (mBatchRunner == null || getFragmentManager() == null) {
+            return;
+        }
+        BatchProgressDialog progressDialog = (BatchProgressDialog) getFragmentManager().findFragmentByTag("batchProgressDialog");
+        if (progressDialog != null) {
+            progressDialog.setProgress(completed, total);
+        }
+    }
+
+    @Override
+    public void onBatchFinished(BatchInvocationRunner.Results results) {
+        if (mBatchRunner == null) {
+            return; // Fragment was destroyed
+        }
+        mBatchRunner = null;
+        FragmentManager fragmentManager = getFragmentManager();
+        if (fragmentManager == null) {
+            return;
+        }
+        BatchProgressDialog progressDialog = (BatchProgressDialog) fragmentManager.findFragmentByTag("batchProgressDialog");
+        if (progressDialog != null) {
+            progressDialog.dismissAllowingStateLoss();
+        }
+        BatchResultsDialog resultsDialog = new BatchResultsDialog();
+        Bundle args = new Bundle();
+        args.putString(BatchResultsDialog.ARG_RESULTS_TABLE, results.toTable());
+        resultsDialog.setArguments(args);
+        fragmentManager.beginTransaction().add(resultsDialog, "batchResultsDialog").commitAllowingStateLoss();
+    }
+
+    public static class BatchInvokeDialog extends DialogFragment {
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            final InvokeAidlMethodFragment fragment = (InvokeAidlMethodFragment) getTargetFragment();
+            final View view = getActivity().getLayoutInflater().inflate(R.layout.dialog_batch_invoke, null);
+            int argumentSets = fragment.mBatchArgumentSets.size();
+            ((TextView) view.findViewById(R.id.argument_sets)).setText(
+                    argumentSets == 0 ?
+                            getString(R.string.batch_uses_current_arguments) :
+                            getResources().getQuantityString(R.plurals.n_argument_sets_in_batch, argumentSets, argumentSets)
+            );
+            ((TextView) view.findViewById(R.id.concurrency_label)).setText(
+                    getString(R.string.batch_concurrency, BatchInvocationRunner.MAX_CONCURRENCY)
+            );
+            return new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.run_batch)
+                    .setView(view)
+                    .setPositiveButton(R.string.method_invoke, new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            fragment.runBatch(
+                                    parsePositiveInt(view, R.id.repeats, Integer.MAX_VALUE),
+                                    parsePositiveInt(view, R.id.concurrency, BatchInvocationRunner.MAX_CONCURRENCY)
+                            );
+                        }
+                    })
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .create();
+        }
+
+        private static int parsePositiveInt(View view, int editTextId, int max) {
+            try {
+                return Math.max(1, Math.min(max, Integer.parseInt(((EditText) view.findViewById(editTextId)).getText().toString())));
+            } catch (NumberFormatException e) {
+                return 1;
+            }
+        }
+    }
+
+    public static class BatchProgressDialog extends DialogFragment {
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            ProgressDialog progressDialog = new ProgressDialog(getActivity());
+            progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            progressDialog.setMessage(getString(R.string.running_batch));
+            progressDialog.setIndeterminate(false);
+            return progressDialog;
+        }
+
+        void setProgress(int completed, int total) {
+            ProgressDialog progressDialog = (ProgressDialog) getDialog();
+            if (progressDialog != null) {
+                progressDialog.setMax(total);
+                progressDialog.setProgress(completed);
+            }
+        }
+
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            super.onCancel(dialog);
+            InvokeAidlMethodFragment fragment = (InvokeAidlMethodFragment) getTargetFragment();
+            if (fragment != null) {
+                fragment.cancelBatch();
+            }
+        }
+    }
+
+    public static class BatchResultsDialog extends DialogFragment {
+        static final String ARG_RESULTS_TABLE = "invokeAidl.BatchResultsDialog.Table";
+
+        @Override
+        public Dialog onCreateDialog(Bundle savedInstanceState) {
+            return new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.batch_results)
+                    .setMessage(getArguments().getString(ARG_RESULTS_TABLE))
+                    .setNegativeButton(getString(R.string.dismiss), null)
+                    .create();
+        }
+    }
+
     public static class ResultDialog extends DialogFragment {
         public static final String ARG_RESULT = "invokeAidl.ResultDialog.TheResult";
         public static final String ARG_RESULT_AS_STRING = "invokeAidl.ResultDialog.TheResultAsString";
@@ -21,6 +21,7 @@ package com.github.michalbednarski.intentslab.bindservice.callback;
 import android.os.Binder;
 import android.os.IBinder;
 import android.os.Parcel;
+import android.util.Log;
 
 import com.github.michalbednarski.intentslab.Utils;
 import com.google.dexmaker.Code;
@@ -33,20 +34,47 @@ import com.google.dexmaker.MethodId;
 import com.google.dexmaker.TypeId;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import dalvik.system.DexClassLoader;
 
 /**
  * Helper for generating aidl implementations
  */
 class AidlImplGenerator {
+    private static final String TAG = "AidlImplGenerator";
 
     private static final TypeId<ThreadLocal> THREAD_LOCAL_TYPE_ID = TypeId.get(ThreadLocal.class);
     private static final TypeId<Parcel> PARCEL_TYPE_ID = TypeId.get(Parcel.class);
     private static final TypeId<InvocationHandler> INVOCATION_HANDLER_TYPE_ID = TypeId.get(InvocationHandler.class);
 
 
+    /**
+     * Version of generated code, included in names of cached dex files.
+     * Must be changed when {@link #generateImplClass(Class, String)} output changes
+     */
+    private static final int GENERATOR_VERSION = 1;
+
+    /**
+     * Stub class => constructor of generated implementation
+     *
+     * Classes are distinct per class loader, so this is also keyed by class loader
+     */
+    private static final HashMap<Class<?>, Constructor<?>> sImplConstructors = new HashMap<Class<?>, Constructor<?>>();
+
+
     private final File mCacheDir;
 
 
@@ -57,19 +85,94 @@ class AidlImplGenerator {
 
     public IBinder makeAidlImpl(Class<? extends Binder> stubClass, BaseAidlInvocationHandler handler) {
         try {
-            // "b" suffix is only to avoid mis-detection by SandboxedObject aidl wrapping
-            final String implClassName = "generated/AidlImpl_" + stubClass.getName().replace('.', '/') + "b";
-            return (IBinder)
-                    generateImplClass(stubClass, implClassName)
-                    .generateAndLoad(stubClass.getClassLoader(), mCacheDir)
-                    .loadClass(implClassName)
-                    .getConstructor(InvocationHandler.class)
-                    .newInstance(handler);
+            return (IBinder) getImplConstructor(stubClass).newInstance(handler);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Get constructor of implementation class for given stub,
+     * generating it only if it isn't already loaded or cached on disk
+     */
+    private Constructor<?> getImplConstructor(Class<? extends Binder> stubClass) throws Exception {
+        synchronized (sImplConstructors) {
+            Constructor<?> constructor = sImplConstructors.get(stubClass);
+            if (constructor == null) {
+                // "b" suffix is only to avoid mis-detection by SandboxedObject aidl wrapping
+                final String implClassName = "generated/AidlImpl_" + stubClass.getName().replace('.', '/') + "b";
+                constructor = loadImplClass(stubClass, implClassName).getConstructor(InvocationHandler.class);
+                sImplConstructors.put(stubClass, constructor);
+            }
+            return constructor;
+        }
+    }
+
+    /**
+     * Load implementation class from dex cached on disk, generating it if needed
+     *
+     * Cached file name includes hash of stub methods signatures,
+     * so changed interface with same name won't use stale implementation
+     */
+    private Class<?> loadImplClass(Class<? extends Binder> stubClass, String implClassName) throws Exception {
+        File jarFile = new File(mCacheDir, "AidlImpl_" + stubClass.getName() + "_" + hashMethodSignatures(stubClass) + ".jar");
+        ClassLoader parentClassLoader = stubClass.getClassLoader();
+
+        if (jarFile.exists()) {
+            try {
+                return new DexClassLoader(jarFile.getPath(), mCacheDir.getPath(), null, parentClassLoader).loadClass(implClassName);
+            } catch (Throwable e) {
+                // Damaged cache file, generate again
+                Log.w(TAG, "Failed loading cached implementation of " + stubClass.getName(), e);
+                jarFile.delete();
+            }
+        }
+
+        // Generate and write to temporary file, then move it in place so incomplete file is never used
+        byte[] dex = generateImplClass(stubClass, implClassName).generate();
+        File tempFile = new File(mCacheDir, jarFile.getName() + ".tmp");
+        JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(tempFile));
+        try {
+            JarEntry entry = new JarEntry("classes.dex");
+            entry.setSize(dex.length);
+            jarOutputStream.putNextEntry(entry);
+            jarOutputStream.write(dex);
+            jarOutputStream.closeEntry();
+        } finally {
+            jarOutputStream.close();
+        }
+        if (!tempFile.renameTo(jarFile)) {
+            throw new IOException("Cannot move generated implementation to " + jarFile);
+        }
+        return new DexClassLoader(jarFile.getPath(), mCacheDir.getPath(), null, parentClassLoader).loadClass(implClassName);
+    }
+
+    private static String hashMethodSignatures(Class<?> stubClass) throws NoSuchAlgorithmException {
+        ArrayList<String> signatures = new ArrayList<String>();
+        for (Method method : stubClass.getMethods()) {
+            if ((method.getModifiers() & Modifier.ABSTRACT) != 0) {
+                signatures.add(method.toString());
+            }
+        }
+        Collections.sort(signatures);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(String.valueOf(GENERATOR_VERSION).getBytes());
+        for (String signature : signatures) {
+            digest.update((byte) '\n');
+            digest.update(signature.getBytes());
+        }
+        byte[] hash = digest.digest();
+
+        // First 8 bytes are enough to tell versions of interface apart
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(hash[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
     /**
      *
      * Generate implementation class for aidl generated stub
@@ -0,0 +1,127 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.bindservice.callback;
+
+import com.github.michalbednarski.intentslab.RingBuffer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Log of calls made to callback, keeping only most recent ones
+ * along with per method counters that include dropped calls
+ *
+ * Used only on main thread
+ */
+class CallLog {
+
+    /**
+     * Weight of newest interval in smoothed interval between calls
+     */
+    private static final float RATE_SMOOTHING = 0.1f;
+
+    private final RingBuffer<CallbackInterfacesManager.BaseCallInfo> mCalls;
+    private int mTotalCalls = 0;
+
+    private final LinkedHashMap<String, MethodStats> mMethodStats = new LinkedHashMap<String, MethodStats>();
+
+    static class MethodStats {
+        final String methodName;
+        int count;
+        long firstCallTime;
+        long lastCallTime;
+
+        /**
+         * Exponentially smoothed interval between calls in milliseconds
+         */
+        float smoothedInterval;
+
+        MethodStats(String methodName) {
+            this.methodName = methodName;
+        }
+
+        /**
+         * Recent rate of calls per second, weighted towards newest calls
+         */
+        float getRecentRate() {
+            return count < 2 ? 0 : 1000f / Math.max(1f, smoothedInterval);
+        }
+
+        /**
+         * Average rate of calls per second since first call
+         */
+        float getAverageRate() {
+            return count < 2 ? 0 : (count - 1) * 1000f / Math.max(1, lastCallTime - firstCallTime);
+        }
+    }
+
+    CallLog(int capacity) {
+        mCalls = new RingBuffer<CallbackInterfacesManager.BaseCallInfo>(capacity);
+    }
+
+    void add(CallbackInterfacesManager.BaseCallInfo callInfo) {
+        mCalls.add(callInfo);
+        mTotalCalls++;
+
+        // Update stats
+        MethodStats stats = mMethodStats.get(callInfo.methodName);
+        if (stats == null) {
+            stats = new MethodStats(callInfo.methodName);
+            stats.firstCallTime = callInfo.time;
+            mMethodStats.put(callInfo.methodName, stats);
+        } else {
+            long interval = callInfo.time - stats.lastCallTime;
+            stats.smoothedInterval =
+                    stats.count == 1 ?
+                            interval :
+                            stats.smoothedInterval + RATE_SMOOTHING * (interval - stats.smoothedInterval);
+        }
+        stats.count++;
+        stats.lastCallTime = callInfo.time;
+    }
+
+    /**
+     * Number of calls currently kept
+     */
+    int size() {
+        return mCalls.size();
+    }
+
+    /**
+     * Get kept call, 0 is oldest one
+     */
+    CallbackInterfacesManager.BaseCallInfo get(int position) {
+        return mCalls.get(position);
+    }
+
+    /**
+     * Number of all calls, including ones that were dropped
+     */
+    int getTotalCalls() {
+        return mTotalCalls;
+    }
+
+    /**
+     * Stats of called methods, in order of first call
+     */
+    List<MethodStats> getMethodStats() {
+        return new ArrayList<MethodStats>(mMethodStats.values());
+    }
+}
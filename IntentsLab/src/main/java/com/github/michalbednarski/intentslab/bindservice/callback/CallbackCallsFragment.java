@@ -29,6 +29,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.Utils;
 
 /**
@@ -38,6 +39,7 @@ public class CallbackCallsFragment extends ListFragment {
     static final String ARG_CALLBACK_INFO = "IL.CallbackCF.callbackInfoLiveRef";
 
     private CallbackInterfacesManager.CallbackInfo mCallbackInfo;
+    private TextView mStatsHeader;
 
 
     @Override
@@ -58,9 +60,52 @@ public class CallbackCallsFragment extends ListFragment {
             return;
         }
 
+        // Header with per method stats
+        mStatsHeader = new TextView(getActivity());
+        int padding = getResources().getDimensionPixelSize(R.dimen.list_header_padding);
+        mStatsHeader.setPadding(padding, padding, padding, padding);
+        getListView().addHeaderView(mStatsHeader, null, false);
+        updateStatsHeader();
+
         // Set list adapter
         setListShownNoAnimation(true);
         setListAdapter(mAdapter);
+        mCallbackInfo.callsObservable.registerObserver(mStatsObserver);
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (mCallbackInfo != null) {
+            mCallbackInfo.callsObservable.unregisterObserver(mStatsObserver);
+        }
+        mStatsHeader = null;
+        super.onDestroyView();
+    }
+
+    private final DataSetObserver mStatsObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            updateStatsHeader();
+        }
+    };
+
+    private void updateStatsHeader() {
+        if (mStatsHeader == null) {
+            return;
+        }
+        CallLog calls = mCallbackInfo.calls;
+        StringBuilder stats = new StringBuilder();
+        stats.append(getResources().getQuantityString(R.plurals.n_calls_to_callback, calls.getTotalCalls(), calls.getTotalCalls()));
+        for (CallLog.MethodStats methodStats : calls.getMethodStats()) {
+            stats.append('\n').append(getString(
+                    R.string.callback_method_stats,
+                    methodStats.methodName,
+                    methodStats.count,
+                    methodStats.getRecentRate(),
+                    methodStats.getAverageRate()
+            ));
+        }
+        mStatsHeader.setText(stats);
     }
 
     /**
@@ -88,10 +133,15 @@ public class CallbackCallsFragment extends ListFragment {
 
             if (convertView == null) {
                 convertView = LayoutInflater.from(parent.getContext())
-                        .inflate(android.R.layout.simple_list_item_1, parent, false);
+                        .inflate(android.R.layout.simple_list_item_2, parent, false);
             }
 
-            ((TextView) convertView).setText(callInfo.methodName);
+            ((TextView) convertView.findViewById(android.R.id.text1)).setText(callInfo.methodName);
+            ((TextView) convertView.findViewById(android.R.id.text2)).setText(
+                    callInfo instanceof CallbackInterfacesManager.LocalCallInfo ?
+                            ((CallbackInterfacesManager.LocalCallInfo) callInfo).argumentsSummary :
+                            null
+            );
 
             return convertView;
         }
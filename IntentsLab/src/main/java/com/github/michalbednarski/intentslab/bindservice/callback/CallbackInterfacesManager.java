@@ -22,13 +22,18 @@ import android.database.DataSetObservable;
 import android.database.DataSetObserver;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 
 import com.github.michalbednarski.intentslab.uihelpers.MasterDetailActivity;
 import com.github.michalbednarski.intentslab.Utils;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by mb on 25.03.14.
@@ -38,8 +43,32 @@ public class CallbackInterfacesManager {
     private static final ArrayList<CallbackInfo> sCallbacks = new ArrayList<CallbackInfo>();
     private static final DataSetObservable sCallbacksObservable = new DataSetObservable();
 
+    /**
+     * Number of most recent calls kept for each callback
+     */
+    private static final int MAX_CALLS_PER_CALLBACK = 500;
+
+    /**
+     * Maximum length of summary of call arguments
+     */
+    private static final int MAX_ARGUMENTS_SUMMARY_LENGTH = 200;
+
+    /**
+     * Minimal interval between notifications about new calls
+     */
+    private static final long CALLS_UPDATE_INTERVAL = 100;
+
+    /**
+     * Number of callbacks that can't be called anymore, but are kept because they have recorded calls
+     */
+    private static final int MAX_DEAD_CALLBACKS_WITH_CALLS = 20;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
 
     static IBinder createLocalCallback(Class<?> anInterface, File cacheDir) {
+        pruneDeadCallbacks();
+
         CallbackInfo callbackInfo = new CallbackInfo();
         final IBinder iBinder;
 
@@ -53,7 +82,7 @@ public class CallbackInterfacesManager {
         }
 
         // Fill callback info
-        callbackInfo.binder = iBinder;
+        callbackInfo.binder = new WeakReference<IBinder>(iBinder);
 
         // Register callback info
         sCallbacks.add(callbackInfo);
@@ -69,6 +98,34 @@ public class CallbackInterfacesManager {
 
     public static void registerCallbacksObserver(DataSetObserver observer) {
         sCallbacksObservable.registerObserver(observer);
+        pruneDeadCallbacks();
+    }
+
+    /**
+     * Remove callbacks which binders were garbage collected, that is,
+     * nobody (including remote processes) holds references to them and they can't be called anymore
+     *
+     * Callbacks that were called are kept so their calls can still be inspected,
+     * only oldest of them are removed when there are more than {@link #MAX_DEAD_CALLBACKS_WITH_CALLS}
+     */
+    static void pruneDeadCallbacks() {
+        boolean removed = false;
+        int keptDeadCallbacks = 0;
+        for (int i = sCallbacks.size() - 1; i >= 0; i--) {
+            CallbackInfo callbackInfo = sCallbacks.get(i);
+            if (callbackInfo.isAlive()) {
+                continue;
+            }
+            if (callbackInfo.hasCalls() && keptDeadCallbacks < MAX_DEAD_CALLBACKS_WITH_CALLS) {
+                keptDeadCallbacks++;
+            } else {
+                sCallbacks.remove(i);
+                removed = true;
+            }
+        }
+        if (removed) {
+            sCallbacksObservable.notifyChanged();
+        }
     }
 
     public static void unregisterCallbacksObserver(DataSetObserver observer) {
@@ -85,18 +142,84 @@ public class CallbackInterfacesManager {
     }
 
 
+    /**
+     * Make short description of call arguments, to not keep arguments objects alive
+     */
+    static String summarizeArguments(Object[] arguments) {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < arguments.length && summary.length() < MAX_ARGUMENTS_SUMMARY_LENGTH; i++) {
+            if (i != 0) {
+                summary.append(", ");
+            }
+            String argument;
+            try {
+                argument = String.valueOf(arguments[i]);
+            } catch (Exception e) {
+                argument = "[" + Utils.describeException(e) + "]";
+            }
+            summary.append(argument);
+        }
+        if (summary.length() > MAX_ARGUMENTS_SUMMARY_LENGTH) {
+            summary.setLength(MAX_ARGUMENTS_SUMMARY_LENGTH);
+            summary.append("\u2026");
+        }
+        return summary.toString();
+    }
+
     // Models
     static class CallbackInfo {
-        ArrayList<BaseCallInfo> calls = new ArrayList<BaseCallInfo>();
-        DataSetObservable callsObservable = new DataSetObservable();
-        IBinder binder;
+        /**
+         * Recent calls and stats, accessed only on main thread
+         */
+        final CallLog calls = new CallLog(MAX_CALLS_PER_CALLBACK);
+        final DataSetObservable callsObservable = new DataSetObservable();
+        WeakReference<IBinder> binder;
+
+        /**
+         * Calls made on binder threads, waiting to be moved to {@link #calls}
+         */
+        private final ConcurrentLinkedQueue<BaseCallInfo> mPendingCalls = new ConcurrentLinkedQueue<BaseCallInfo>();
+        private final AtomicBoolean mUpdateScheduled = new AtomicBoolean();
+
+        private final Runnable mUpdateCallsRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mUpdateScheduled.set(false);
+                BaseCallInfo callInfo;
+                while ((callInfo = mPendingCalls.poll()) != null) {
+                    calls.add(callInfo);
+                }
+                callsObservable.notifyChanged();
+            }
+        };
+
+        /**
+         * Record call, may be called from any thread.
+         * Observers are notified at most once per CALLS_UPDATE_INTERVAL
+         */
+        void recordCall(BaseCallInfo callInfo) {
+            mPendingCalls.offer(callInfo);
+            if (mUpdateScheduled.compareAndSet(false, true)) {
+                sMainHandler.postDelayed(mUpdateCallsRunnable, CALLS_UPDATE_INTERVAL);
+            }
+        }
+
+        boolean hasCalls() {
+            return calls.getTotalCalls() != 0 || !mPendingCalls.isEmpty();
+        }
+
+        boolean isAlive() {
+            IBinder iBinder = binder != null ? binder.get() : null;
+            return iBinder != null && iBinder.isBinderAlive();
+        }
     }
 
     static abstract class BaseCallInfo {
         String methodName;
+        long time;
     }
 
     static class LocalCallInfo extends BaseCallInfo {
-        Object[] arguments;
+        String argumentsSummary;
     }
 }
@@ -18,14 +18,11 @@
 
 package com.github.michalbednarski.intentslab.bindservice.callback;
 
-import android.os.Handler;
-
 /**
  * Created by mb on 26.03.14.
  */
 class LocalAidlInvocationHandlerImpl extends BaseAidlInvocationHandler {
     private CallbackInterfacesManager.CallbackInfo mCallbackInfo;
-    private Handler mHandler = new Handler();
 
     LocalAidlInvocationHandlerImpl(CallbackInterfacesManager.CallbackInfo callbackInfo) {
         mCallbackInfo = callbackInfo;
@@ -33,18 +30,13 @@ class LocalAidlInvocationHandlerImpl extends BaseAidlInvocationHandler {
 
     @Override
     protected Object invokeAidl(final Object[] args, final String methodName, Class returnType, boolean oneWay) {
-        // Since this method is called from binder thread
-        // we have to post call to UI thread
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                final CallbackInterfacesManager.LocalCallInfo callInfo = new CallbackInterfacesManager.LocalCallInfo();
-                callInfo.methodName = methodName;
-                callInfo.arguments = args;
-                mCallbackInfo.calls.add(callInfo);
-                mCallbackInfo.callsObservable.notifyChanged();
-            }
-        });
+        // This method is called from binder thread,
+        // summarize arguments here and let CallbackInfo pass call to UI thread
+        final CallbackInterfacesManager.LocalCallInfo callInfo = new CallbackInterfacesManager.LocalCallInfo();
+        callInfo.methodName = methodName;
+        callInfo.time = System.currentTimeMillis();
+        callInfo.argumentsSummary = CallbackInterfacesManager.summarizeArguments(args);
+        mCallbackInfo.recordCall(callInfo);
 
         return null;
     }
@@ -28,6 +28,7 @@ import com.github.michalbednarski.intentslab.sandbox.SandboxManager;
 import com.github.michalbednarski.intentslab.sandbox.SandboxedMethod;
 import com.github.michalbednarski.intentslab.sandbox.SandboxedObject;
 
+import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,32 +38,57 @@ import java.util.regex.Pattern;
 public abstract class AidlInterface {
     private static final Pattern AOSP_MANUAL_AIDL_PATTERN = Pattern.compile("(android\\.(\\w+\\.)+)I(\\w+)");
 
+    /**
+     * Interface descriptor => locally available stub class, or null if there's none
+     */
+    private static final HashMap<String, Class<?>> sLocalStubClasses = new HashMap<String, Class<?>>();
+
+    /**
+     * Find stub class for interface in our class loader, results are cached
+     *
+     * @return Stub class or null if there's no such class available locally
+     */
+    private static Class<?> findLocalStubClass(String interfaceDescriptor) {
+        synchronized (sLocalStubClasses) {
+            if (sLocalStubClasses.containsKey(interfaceDescriptor)) {
+                return sLocalStubClasses.get(interfaceDescriptor);
+            }
+        }
+
+        Class<?> stubClass = null;
+        try {
+            // Normal aidl-generated interface
+            stubClass = Class.forName(interfaceDescriptor + "$Stub");
+        } catch (ClassNotFoundException e) {
+            // Some interfaces are built manually and have Native suffix
+            // android.app.IActivityManager => android.app.ActivityManagerNative
+            Matcher matcher = AOSP_MANUAL_AIDL_PATTERN.matcher(interfaceDescriptor);
+            if (matcher.find()) {
+                try {
+                    stubClass = Class.forName(matcher.group(1) + matcher.group(3) + "Native");
+                } catch (ClassNotFoundException ignored) {}
+            }
+        }
+
+        synchronized (sLocalStubClasses) {
+            sLocalStubClasses.put(interfaceDescriptor, stubClass);
+        }
+        return stubClass;
+    }
+
     static void getAidlInterface(final IBinder binder, final ClassLoaderDescriptor classLoaderDescriptor, Context context, final BindServiceManager.Helper.AidlInterfaceMediator callback) {
         try {
             final String interfaceDescriptor = binder.getInterfaceDescriptor();
 
             // Try getting interface locally
-            Class<?> stubClass = null;
-            try {
-                // Normal aidl-generated interface
-                stubClass = Class.forName(interfaceDescriptor + "$Stub");
-            } catch (ClassNotFoundException e) {
-                // Some interfaces are built manually and have Native suffix
-                // android.app.IActivityManager => android.app.ActivityManagerNative
-                Matcher matcher = AOSP_MANUAL_AIDL_PATTERN.matcher(interfaceDescriptor);
-                if (matcher.find()) {
-                    try {
-                        stubClass = Class.forName(matcher.group(1) + matcher.group(3) + "Native");
-                    } catch (ClassNotFoundException ignored) {}
-                }
-            }
+            Class<?> stubClass = findLocalStubClass(interfaceDescriptor);
 
             // Get an interface
             if (stubClass != null) {
-                Object anInterface = wrapInterface(stubClass, binder);
+                StubClassInfo stubClassInfo = StubClassInfo.forStubClass(stubClass);
                 callback.handleAidlReady(new LocalAidlInterface(
-                        anInterface,
-                        stubClass,
+                        stubClassInfo.asInterface(binder),
+                        stubClassInfo,
                         interfaceDescriptor
                 ));
                 return;
@@ -96,16 +122,6 @@ public abstract class AidlInterface {
         }
     }
 
-    static Object wrapInterface(Class<?> stubClass, IBinder binder) throws Exception {
-        Object anInterface = stubClass
-                .getMethod("asInterface", IBinder.class)
-                .invoke(null, binder);
-        if (anInterface == null) {
-            throw new NullPointerException();
-        }
-        return anInterface;
-    }
-
     public abstract String getInterfaceName();
 
     public abstract SandboxedMethod[] getMethods();
@@ -28,8 +28,6 @@ import com.github.michalbednarski.intentslab.sandbox.SandboxedObject;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
 
 /**
  * Created by mb on 21.07.14.
@@ -37,30 +35,21 @@ import java.util.ArrayList;
 class LocalAidlInterface extends AidlInterface {
 
     private final Object mAnInterface;
-    private final Class mStubClass;
+    private final StubClassInfo mStubClassInfo;
     private final String mInterfaceDescriptor;
 
     private final SandboxedMethod[] mSandboxedMethods;
     private final Method[] mMethods;
 
-    LocalAidlInterface(Object anInterface, Class stubClass, String interfaceDescriptor) {
+    LocalAidlInterface(Object anInterface, StubClassInfo stubClassInfo, String interfaceDescriptor) {
 
         mAnInterface = anInterface;
-        mStubClass = stubClass;
+        mStubClassInfo = stubClassInfo;
         mInterfaceDescriptor = interfaceDescriptor;
 
-        // Get it's methods
-        final Method[] methods = mStubClass.getMethods();
-        ArrayList<SandboxedMethod> sandboxedMethods = new ArrayList<SandboxedMethod>();
-        ArrayList<Method> filteredMethods = new ArrayList<Method>();
-        for (Method method : methods) {
-            if (Modifier.isAbstract(method.getModifiers())) {
-                sandboxedMethods.add(new SandboxedMethod(method));
-                filteredMethods.add(method);
-            }
-        }
-        mSandboxedMethods = sandboxedMethods.toArray(new SandboxedMethod[sandboxedMethods.size()]);
-        mMethods = filteredMethods.toArray(new Method[filteredMethods.size()]);
+        // Methods are reflected once per stub class
+        mSandboxedMethods = stubClassInfo.sandboxedMethods;
+        mMethods = stubClassInfo.methods;
     }
 
     @Override
@@ -104,7 +93,7 @@ class LocalAidlInterface extends AidlInterface {
     public InvokeMethodResult invokeMethodUsingBinder(IBinder binder, int methodNumber, SandboxedObject[] arguments) {
         Object anInterface;
         try {
-            anInterface = wrapInterface(mStubClass, binder);
+            anInterface = mStubClassInfo.asInterface(binder);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
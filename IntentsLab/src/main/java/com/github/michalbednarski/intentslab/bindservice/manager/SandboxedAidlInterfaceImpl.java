@@ -40,8 +40,8 @@ public class SandboxedAidlInterfaceImpl extends IAidlInterface.Stub {
             Class<?> stubClass;
             stubClass = classLoader.loadClass(interfaceDescriptor + "$Stub");
 
-            Object object = AidlInterface.wrapInterface(stubClass, binder);
-            mWrappedInterface = new LocalAidlInterface(object, stubClass, null);
+            StubClassInfo stubClassInfo = StubClassInfo.forStubClass(stubClass);
+            mWrappedInterface = new LocalAidlInterface(stubClassInfo.asInterface(binder), stubClassInfo, null);
 
         } catch (Exception e) {
             throw new UnknownInterfaceException();
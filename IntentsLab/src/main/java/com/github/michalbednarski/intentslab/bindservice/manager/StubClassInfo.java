@@ -0,0 +1,88 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.bindservice.manager;
+
+import android.os.IBinder;
+
+import com.github.michalbednarski.intentslab.sandbox.SandboxedMethod;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reflected information about aidl Stub class: its asInterface() method and interface methods
+ *
+ * Cached process-wide per class (so also per class loader),
+ * repeated binds to same interface don't go through reflection again
+ */
+class StubClassInfo {
+    private static final HashMap<Class<?>, StubClassInfo> sCache = new HashMap<Class<?>, StubClassInfo>();
+
+    final Class<?> stubClass;
+    private final Method mAsInterfaceMethod;
+
+    /**
+     * Interface methods, abstract methods of stub
+     */
+    final Method[] methods;
+    final SandboxedMethod[] sandboxedMethods;
+
+    private StubClassInfo(Class<?> stubClass) throws NoSuchMethodException {
+        this.stubClass = stubClass;
+        mAsInterfaceMethod = stubClass.getMethod("asInterface", IBinder.class);
+
+        ArrayList<SandboxedMethod> sandboxedMethods = new ArrayList<SandboxedMethod>();
+        ArrayList<Method> filteredMethods = new ArrayList<Method>();
+        for (Method method : stubClass.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                sandboxedMethods.add(new SandboxedMethod(method));
+                filteredMethods.add(method);
+            }
+        }
+        this.sandboxedMethods = sandboxedMethods.toArray(new SandboxedMethod[sandboxedMethods.size()]);
+        methods = filteredMethods.toArray(new Method[filteredMethods.size()]);
+    }
+
+    static StubClassInfo forStubClass(Class<?> stubClass) throws NoSuchMethodException {
+        synchronized (sCache) {
+            StubClassInfo info = sCache.get(stubClass);
+            if (info == null) {
+                info = new StubClassInfo(stubClass);
+                sCache.put(stubClass, info);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Wrap binder using Stub.asInterface()
+     *
+     * @throws NullPointerException if asInterface() returned null
+     */
+    Object asInterface(IBinder binder) throws InvocationTargetException, IllegalAccessException {
+        Object anInterface = mAsInterfaceMethod.invoke(null, binder);
+        if (anInterface == null) {
+            throw new NullPointerException();
+        }
+        return anInterface;
+    }
+}
@@ -18,7 +18,6 @@
 
 package com.github.michalbednarski.intentslab.browser;
 
-import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Parcel;
@@ -29,22 +28,17 @@ import android.widget.CompoundButton;
 
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
-import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
+import com.github.michalbednarski.intentslab.appinfo.MyPermissionInfo;
 
-import org.jdeferred.DoneFilter;
-import org.jdeferred.Promise;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Comparator;
+import java.util.Map;
 
 /**
  * Fetcher for applications
  */
-public class ApplicationFetcher extends Fetcher {
+public class ApplicationFetcher extends PackagesFetcher {
     private static final String TAG = "ApplicationFetcher";
 
 
@@ -61,49 +55,32 @@ public class ApplicationFetcher extends Fetcher {
 
     // Fetching
     @Override
-    Promise<Object, Throwable, Void> getEntriesAsync(final Context context) {
-        return MyPackageManagerImpl
-                .getInstance(context)
-                .getPackages(false)
-                .then(new DoneFilter<Collection<MyPackageInfo>, Object>() {
-                    @Override
-                    public Object filterDone(Collection<MyPackageInfo> result) {
-                        PackageManager pm = context.getPackageManager();
-
-                        ArrayList<Component> selectedApps = new ArrayList<>();
-
-                        for (MyPackageInfo pack : result) {
-                            // System app filter
-                            if ((
-                                    (pack.isSystemApplication() ?
-                                            APP_TYPE_SYSTEM :
-                                            APP_TYPE_USER)
-                                    & appType) == 0) {
-                                continue;
-                            }
-
-                            // Metadata filter
-                            if (!checkMetaDataFilter(pack.getMetaData())) {
-                                continue;
-                            }
-
-                            // Build and add app descriptor
-                            Component app = new Component();
-                            app.title = String.valueOf(pack.loadLabel(pm));
-                            app.subtitle = pack.getPackageName();
-                            app.componentInfo = pack;
-                            selectedApps.add(app);
-                        }
-                        Component[] selectedAppsArray = selectedApps.toArray(new Component[selectedApps.size()]);
-                        Arrays.sort(selectedAppsArray, new Comparator<Component>() {
-                            @Override
-                            public int compare(Component lhs, Component rhs) {
-                                return lhs.subtitle.compareTo(rhs.subtitle);
-                            }
-                        });
-                        return selectedAppsArray;
-                    }
-                });
+    boolean isCategorized() {
+        return false;
+    }
+
+    @Override
+    Object[] scanPackage(PackageManager pm, MyPackageInfo pack, Map<String, MyPermissionInfo> permissions) {
+        // System app filter
+        if ((
+                (pack.isSystemApplication() ?
+                        APP_TYPE_SYSTEM :
+                        APP_TYPE_USER)
+                & appType) == 0) {
+            return null;
+        }
+
+        // Metadata filter
+        if (!checkMetaDataFilter(pack.getMetaData())) {
+            return null;
+        }
+
+        // Build app descriptor
+        Component app = new Component();
+        app.title = String.valueOf(pack.loadLabel(pm));
+        app.subtitle = pack.getPackageName();
+        app.componentInfo = pack;
+        return new Component[] { app };
     }
 
     private boolean checkMetaDataFilter(Bundle metaData) {
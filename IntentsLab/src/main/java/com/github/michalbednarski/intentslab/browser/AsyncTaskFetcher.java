@@ -22,8 +22,8 @@ abstract class AsyncTaskFetcher extends Fetcher {
 
 
     @Override
-    final Promise<Object, Throwable, Void> getEntriesAsync(final Context context) {
-        DeferredAsyncTask<Void, Void, Object> deferredAsyncTask = new DeferredAsyncTask<Void, Void, Object>() {
+    final Promise<Object, Throwable, Object> getEntriesAsync(final Context context) {
+        DeferredAsyncTask<Void, Object, Object> deferredAsyncTask = new DeferredAsyncTask<Void, Object, Object>() {
             @Override
             protected Object doInBackgroundSafe(Void... objects) throws Exception {
                 return getEntries(context);
@@ -22,12 +22,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PermissionInfo;
 import android.content.pm.ProviderInfo;
 import android.content.pm.ServiceInfo;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -40,6 +40,7 @@ import android.widget.BaseAdapter;
 import android.widget.BaseExpandableListAdapter;
 import android.widget.ExpandableListAdapter;
 import android.widget.ExpandableListView;
+import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -50,11 +51,22 @@ import com.github.michalbednarski.intentslab.PermissionInfoFragment;
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.appinfo.MyComponentInfo;
 import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManager;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
+import com.github.michalbednarski.intentslab.appinfo.MyPermissionInfo;
 import com.github.michalbednarski.intentslab.editor.IntentEditorConstants;
 import com.github.michalbednarski.intentslab.providerlab.ProviderInfoFragment;
 
 import org.jdeferred.DoneCallback;
 import org.jdeferred.FailCallback;
+import org.jdeferred.ProgressCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Fragment for displaying components or other data provided by {@link Fetcher}
@@ -82,10 +94,90 @@ public class BrowseComponentsFragment extends Fragment {
 
     private Object mLoadedData;
 
+    /**
+     * Entries received as progress from fetcher that is still running,
+     * kept sorted using {@link Fetcher#CATEGORY_ORDER} or {@link Fetcher#COMPONENT_ORDER}
+     */
+    private ArrayList<Fetcher.Category> mPartialCategories;
+    private ArrayList<Fetcher.Component> mPartialComponents;
+
+    /**
+     * Partial results are coalesced so we don't rebuild list for every package
+     */
+    private final Handler mHandler = new Handler();
+    private boolean mPartialUpdatePending;
+    private final Runnable mUpdatePartialViewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPartialUpdatePending = false;
+            if (mProgressIndicator != null && mLoadedData == null) {
+                updateView();
+            }
+        }
+    };
+
+    /**
+     * Interval between refreshes of fetchers that support it,
+     * see {@link RegisteredReceiverFetcher#isAutoRefreshEnabled()}
+     */
+    private static final long AUTO_REFRESH_INTERVAL = 3000;
+
+    private AutoRefreshTask mAutoRefreshTask;
+    private final Runnable mAutoRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mProgressIndicator == null) {
+                // View isn't shown, check again later
+                scheduleAutoRefresh();
+                return;
+            }
+            mAutoRefreshTask = new AutoRefreshTask((RegisteredReceiverFetcher) mFetcher);
+            mAutoRefreshTask.execute();
+        }
+    };
+
+    /**
+     * Patches loaded list when package is installed, updated or removed,
+     * so we don't have to run fetcher again
+     */
+    private final MyPackageManager.OnPackageChangedListener mOnPackageChangedListener = new MyPackageManager.OnPackageChangedListener() {
+        @Override
+        public void onPackageChanged(final String packageName, MyPackageInfo oldPackageInfo, final MyPackageInfo newPackageInfo) {
+            if (!(mFetcher instanceof PackagesFetcher) || !(mLoadedData instanceof Object[])) {
+                // Not using packages or still loading, in that case result will include changes
+                return;
+            }
+            final PackagesFetcher fetcher = (PackagesFetcher) mFetcher;
+            if (fetcher.needsPermissions()) {
+                // Permissions are already loaded, so this doesn't wait for scan
+                MyPackageManagerImpl.getInstance(getActivity()).getPermissions().done(new DoneCallback<Map<String, MyPermissionInfo>>() {
+                    @Override
+                    public void onDone(Map<String, MyPermissionInfo> permissions) {
+                        applyPackageChange(fetcher, packageName, newPackageInfo, permissions);
+                    }
+                });
+            } else {
+                applyPackageChange(fetcher, packageName, newPackageInfo, null);
+            }
+        }
+    };
+
+    private void applyPackageChange(PackagesFetcher fetcher, String packageName, MyPackageInfo newPackageInfo, Map<String, MyPermissionInfo> permissions) {
+        // Fetcher might have been changed in meantime
+        if (mFetcher != fetcher || !(mLoadedData instanceof Object[]) || getActivity() == null) {
+            return;
+        }
+        mLoadedData = fetcher.applyPackageChange(getActivity().getPackageManager(), (Object[]) mLoadedData, packageName, newPackageInfo, permissions);
+        if (mProgressIndicator != null) {
+            updateView();
+        }
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setRetainInstance(true);
+        MyPackageManagerImpl.getInstance(getActivity()).addOnPackageChangedListener(mOnPackageChangedListener);
         if (savedInstanceState != null) {
             mFetcher = savedInstanceState.getParcelable(ARG_FETCHER);
         } else {
@@ -116,7 +208,7 @@ public class BrowseComponentsFragment extends Fragment {
         mCustomErrorText = (TextView) view.findViewById(R.id.custom_error);
 
         // Fill views
-        if (mLoadedData != null) {
+        if (mLoadedData != null || mPartialCategories != null || mPartialComponents != null) {
             updateView();
         }
         return view;
@@ -138,6 +230,9 @@ public class BrowseComponentsFragment extends Fragment {
         if (mCallback != null) {
             mCallback.mCancelled = true;
         }
+        mHandler.removeCallbacks(mUpdatePartialViewRunnable);
+        stopAutoRefresh();
+        MyPackageManagerImpl.getInstance(getActivity()).removeOnPackageChangedListener(mOnPackageChangedListener);
     }
 
     Fetcher getFetcher() {
@@ -149,6 +244,7 @@ public class BrowseComponentsFragment extends Fragment {
         if (mCallback != null) {
             mCallback.mCancelled = true;
         }
+        stopAutoRefresh();
 
         clearDataAndShowLoadingIndicator();
         startFetcher();
@@ -158,13 +254,38 @@ public class BrowseComponentsFragment extends Fragment {
         mCallback = new MyCallback();
         mFetcher
                 .getEntriesAsync(getActivity().getApplicationContext())
+                .progress(mCallback)
                 .done(mCallback)
                 .fail(mCallback);
     }
 
-    private class MyCallback implements DoneCallback<Object>, FailCallback<Throwable> {
+    private class MyCallback implements DoneCallback<Object>, FailCallback<Throwable>, ProgressCallback<Object> {
         boolean mCancelled;
 
+        @Override
+        public void onProgress(Object batch) {
+            if (mCancelled) {
+                return;
+            }
+            if (batch instanceof Fetcher.Category[]) {
+                if (mPartialCategories == null) {
+                    mPartialCategories = new ArrayList<>();
+                }
+                insertSorted(mPartialCategories, (Fetcher.Category[]) batch, Fetcher.CATEGORY_ORDER);
+            } else if (batch instanceof Fetcher.Component[]) {
+                if (mPartialComponents == null) {
+                    mPartialComponents = new ArrayList<>();
+                }
+                insertSorted(mPartialComponents, (Fetcher.Component[]) batch, Fetcher.COMPONENT_ORDER);
+            } else if (BuildConfig.DEBUG) {
+                throw new AssertionError("Fetcher " + mFetcher + " notified unexpected progress " + batch);
+            }
+            if (!mPartialUpdatePending) {
+                mPartialUpdatePending = true;
+                mHandler.post(mUpdatePartialViewRunnable);
+            }
+        }
+
         @Override
         public void onDone(Object result) {
             if (!mCancelled) {
@@ -176,8 +297,13 @@ public class BrowseComponentsFragment extends Fragment {
                     throw new AssertionError("Fetcher " + mFetcher + " returned unexpected value " + result);
                 }
                 mLoadedData = result;
-                updateView();
+                mPartialCategories = null;
+                mPartialComponents = null;
+                if (mProgressIndicator != null) {
+                    updateView();
+                }
                 mCallback = null;
+                scheduleAutoRefresh();
             }
         }
 
@@ -185,30 +311,134 @@ public class BrowseComponentsFragment extends Fragment {
         public void onFail(Throwable result) {
             if (!mCancelled) {
                 mLoadedData = new Fetcher.CustomError(result.getMessage());
-                updateView();
+                mPartialCategories = null;
+                mPartialComponents = null;
+                if (mProgressIndicator != null) {
+                    updateView();
+                }
+            }
+        }
+    }
+
+    private void scheduleAutoRefresh() {
+        if (mFetcher instanceof RegisteredReceiverFetcher &&
+                ((RegisteredReceiverFetcher) mFetcher).isAutoRefreshEnabled() &&
+                mLoadedData instanceof Fetcher.Category[]) {
+            mHandler.postDelayed(mAutoRefreshRunnable, AUTO_REFRESH_INTERVAL);
+        }
+    }
+
+    private void stopAutoRefresh() {
+        mHandler.removeCallbacks(mAutoRefreshRunnable);
+        if (mAutoRefreshTask != null) {
+            mAutoRefreshTask.cancel(false);
+            mAutoRefreshTask = null;
+        }
+    }
+
+    /**
+     * Dumps registered receivers again and shows changed list,
+     * adapter is reused so list is updated in place
+     */
+    private class AutoRefreshTask extends AsyncTask<Void, Void, Fetcher.Category[]> {
+        private final RegisteredReceiverFetcher mRefreshedFetcher;
+        private final Context mAppContext;
+
+        AutoRefreshTask(RegisteredReceiverFetcher fetcher) {
+            mRefreshedFetcher = fetcher;
+            mAppContext = getActivity().getApplicationContext();
+        }
+
+        @Override
+        protected Fetcher.Category[] doInBackground(Void... params) {
+            return mRefreshedFetcher.refresh(mAppContext);
+        }
+
+        @Override
+        protected void onPostExecute(Fetcher.Category[] result) {
+            if (mAutoRefreshTask != this) {
+                return;
+            }
+            mAutoRefreshTask = null;
+            if (result != null) {
+                mLoadedData = result;
+                if (mProgressIndicator != null) {
+                    updateView();
+                }
             }
+            scheduleAutoRefresh();
+        }
+    }
+
+    private static <T> void insertSorted(ArrayList<T> list, T[] newItems, Comparator<? super T> comparator) {
+        for (T item : newItems) {
+            int position = Collections.binarySearch(list, item, comparator);
+            list.add(position < 0 ? ~position : position, item);
         }
     }
 
     private void updateView() {
         Object o = mLoadedData;
+        if (o == null) {
+            // Still loading, show what we have so far
+            // (copy lists as they're modified before adapter is notified)
+            if (mPartialCategories != null) {
+                showCategories(new ArrayList<>(mPartialCategories), false);
+            } else if (mPartialComponents != null) {
+                showComponents(new ArrayList<>(mPartialComponents), false);
+            }
+            return;
+        }
+
         if (o instanceof Fetcher.Category[]) {
-            ExpandableAdapter adapter = new ExpandableAdapter((Fetcher.Category[]) o);
-            mExpandableListView.setEmptyView(mEmptyMessage);
+            showCategories(Arrays.asList((Fetcher.Category[]) o), true);
+        } else if (o instanceof Fetcher.Component[]) {
+            showComponents(Arrays.asList((Fetcher.Component[]) o), true);
+        } else {
+            mCustomErrorText.setText(((Fetcher.CustomError) o).message);
+            mCustomErrorText.setVisibility(View.VISIBLE);
+        }
+        mProgressIndicator.setVisibility(View.GONE);
+    }
+
+    /**
+     * Show categories in list, reusing current adapter if there's one
+     * so partial results don't reset scroll position
+     */
+    private void showCategories(List<Fetcher.Category> categories, boolean complete) {
+        ExpandableListAdapter currentAdapter = mExpandableListView.getExpandableListAdapter();
+        if (currentAdapter instanceof ExpandableAdapter) {
+            ((ExpandableAdapter) currentAdapter).setCategories(categories);
+        } else {
+            ExpandableAdapter adapter = new ExpandableAdapter(categories);
             mExpandableListView.setAdapter(adapter);
             mExpandableListView.setOnChildClickListener(adapter);
             mExpandableListView.setVisibility(View.VISIBLE);
-        } else if (o instanceof Fetcher.Component[]) {
-            NonExpandableAdapter adapter = new NonExpandableAdapter((Fetcher.Component[]) o);
-            mNonExpandableListView.setEmptyView(mEmptyMessage);
+            mProgressIndicator.setVisibility(View.GONE);
+        }
+        if (complete) {
+            mExpandableListView.setEmptyView(mEmptyMessage);
+        }
+    }
+
+    /**
+     * Show components in list, reusing current adapter if there's one
+     * so partial results don't reset scroll position
+     */
+    private void showComponents(List<Fetcher.Component> components, boolean complete) {
+        ListAdapter currentAdapter = mNonExpandableListView.getAdapter();
+        if (currentAdapter instanceof NonExpandableAdapter) {
+            ((NonExpandableAdapter) currentAdapter).setComponents(components);
+        } else {
+            NonExpandableAdapter adapter = new NonExpandableAdapter(components);
             mNonExpandableListView.setAdapter(adapter);
             mNonExpandableListView.setOnItemClickListener(adapter);
             mNonExpandableListView.setVisibility(View.VISIBLE);
-        } else {
-            mCustomErrorText.setText(((Fetcher.CustomError) o).message);
-            mCustomErrorText.setVisibility(View.VISIBLE);
+            mProgressIndicator.setVisibility(View.GONE);
+        }
+        if (complete) {
+            mNonExpandableListView.setEmptyView(mEmptyMessage);
         }
-        mProgressIndicator.setVisibility(View.GONE);
     }
 
     private void clearDataAndShowLoadingIndicator() {
@@ -229,6 +459,8 @@ public class BrowseComponentsFragment extends Fragment {
         }
 
         mLoadedData = null;
+        mPartialCategories = null;
+        mPartialComponents = null;
     }
 
 
@@ -320,10 +552,10 @@ public class BrowseComponentsFragment extends Fragment {
         }
 
         // Permission
-        if (baseComponentInfo instanceof PermissionInfo) {
-            PackageItemInfo componentInfo = (PackageItemInfo) baseComponentInfo;
+        if (baseComponentInfo instanceof MyPermissionInfo) {
+            MyPermissionInfo permissionInfo = (MyPermissionInfo) baseComponentInfo;
             Bundle arguments = new Bundle();
-            arguments.putString(PermissionInfoFragment.ARG_PERMISSION_NAME, componentInfo.name);
+            arguments.putString(PermissionInfoFragment.ARG_PERMISSION_NAME, permissionInfo.getName());
             activity.openFragment(
                     PermissionInfoFragment.class,
                     arguments
@@ -356,20 +588,25 @@ public class BrowseComponentsFragment extends Fragment {
     }
 
     private class ExpandableAdapter extends BaseExpandableListAdapter implements ExpandableListView.OnChildClickListener {
-        private final Fetcher.Category[] mCategories;
+        private List<Fetcher.Category> mCategories;
+
+        ExpandableAdapter(List<Fetcher.Category> categories) {
+            mCategories = categories;
+        }
 
-        ExpandableAdapter(Fetcher.Category[] categories) {
+        void setCategories(List<Fetcher.Category> categories) {
             mCategories = categories;
+            notifyDataSetChanged();
         }
 
         @Override
         public int getGroupCount() {
-            return mCategories.length;
+            return mCategories.size();
         }
 
         @Override
         public int getChildrenCount(int groupPosition) {
-            return mCategories[groupPosition].components.length;
+            return mCategories.get(groupPosition).components.length;
         }
 
         @Override
@@ -384,12 +621,15 @@ public class BrowseComponentsFragment extends Fragment {
 
         @Override
         public long getGroupId(int groupPosition) {
-            return getCombinedGroupId(groupPosition);
+            // Categories may be inserted while loading, so we can't use position as id
+            // Categories without subtitle (registered receivers) are identified by title
+            Fetcher.Category category = mCategories.get(groupPosition);
+            return (category.subtitle != null ? category.subtitle : category.title).hashCode();
         }
 
         @Override
         public long getChildId(int groupPosition, int childPosition) {
-            return getCombinedChildId(groupPosition, childPosition);
+            return childPosition;
         }
 
         @Override
@@ -404,7 +644,7 @@ public class BrowseComponentsFragment extends Fragment {
                         (LayoutInflater) parent.getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
                 convertView = inflater.inflate(android.R.layout.simple_expandable_list_item_2, parent, false);
             }
-            Fetcher.Category category = mCategories[groupPosition];
+            Fetcher.Category category = mCategories.get(groupPosition);
             ((TextView) convertView.findViewById(android.R.id.text1)).setText(category.title);
             ((TextView) convertView.findViewById(android.R.id.text2)).setText(category.subtitle);
             return convertView;
@@ -417,7 +657,7 @@ public class BrowseComponentsFragment extends Fragment {
                         (LayoutInflater) parent.getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
                 convertView = inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
             }
-            Fetcher.Component component = mCategories[groupPosition].components[childPosition];
+            Fetcher.Component component = mCategories.get(groupPosition).components[childPosition];
             ((TextView) convertView.findViewById(android.R.id.text1)).setText(component.title);
             return convertView;
         }
@@ -429,21 +669,26 @@ public class BrowseComponentsFragment extends Fragment {
 
         @Override
         public boolean onChildClick(ExpandableListView parent, View v, int groupPosition, int childPosition, long id) {
-            showComponent(mCategories[groupPosition].components[childPosition].componentInfo);
+            showComponent(mCategories.get(groupPosition).components[childPosition].componentInfo);
             return false;
         }
     }
 
     private class NonExpandableAdapter extends BaseAdapter implements AdapterView.OnItemClickListener {
-        private final Fetcher.Component[] mComponents;
+        private List<Fetcher.Component> mComponents;
+
+        private NonExpandableAdapter(List<Fetcher.Component> components) {
+            mComponents = components;
+        }
 
-        private NonExpandableAdapter(Fetcher.Component[] components) {
+        void setComponents(List<Fetcher.Component> components) {
             mComponents = components;
+            notifyDataSetChanged();
         }
 
         @Override
         public int getCount() {
-            return mComponents.length;
+            return mComponents.size();
         }
 
         @Override
@@ -463,7 +708,7 @@ public class BrowseComponentsFragment extends Fragment {
                         (LayoutInflater) parent.getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
                 convertView = inflater.inflate(android.R.layout.simple_list_item_2, parent, false);
             }
-            Fetcher.Component component = mComponents[position];
+            Fetcher.Component component = mComponents.get(position);
             ((TextView) convertView.findViewById(android.R.id.text1)).setText(component.title);
             ((TextView) convertView.findViewById(android.R.id.text2)).setText(component.subtitle);
             return convertView;
@@ -471,7 +716,7 @@ public class BrowseComponentsFragment extends Fragment {
 
         @Override
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-            showComponent(mComponents[position].componentInfo);
+            showComponent(mComponents.get(position).componentInfo);
         }
     }
 }
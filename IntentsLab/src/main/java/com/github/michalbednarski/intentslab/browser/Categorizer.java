@@ -36,6 +36,13 @@ abstract class Categorizer<C> {
         Fetcher.Component cmp = new Fetcher.Component();
         cmp.title = getTitleForComponent(component);
         cmp.componentInfo = component;
+        addExistingToCategory(category, cmp);
+    }
+
+    /**
+     * Add entry that was already created for previous result
+     */
+    void addExistingToCategory(String category, Fetcher.Component cmp) {
         if (mMap.containsKey(category)) {
             mMap.get(category).add(cmp);
         } else {
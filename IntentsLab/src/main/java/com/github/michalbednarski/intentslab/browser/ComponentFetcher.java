@@ -20,9 +20,7 @@ package com.github.michalbednarski.intentslab.browser;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
-import android.content.Context;
 import android.content.pm.PackageManager;
-import android.content.pm.PermissionInfo;
 import android.content.pm.ProviderInfo;
 import android.os.Build;
 import android.os.Bundle;
@@ -37,28 +35,19 @@ import android.widget.Spinner;
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.appinfo.MyComponentInfo;
 import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
-import com.github.michalbednarski.intentslab.appinfo.MyPackageManager;
-import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
 import com.github.michalbednarski.intentslab.appinfo.MyPermissionInfo;
 import com.github.michalbednarski.intentslab.editor.IntentEditorConstants;
 
-import org.jdeferred.DoneFilter;
-import org.jdeferred.Promise;
-import org.jdeferred.impl.DefaultDeferredManager;
-import org.jdeferred.multiple.MultipleResults;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Comparator;
 import java.util.Map;
 
 /**
  * Fetcher for application components
  */
-public class ComponentFetcher extends Fetcher {
+public class ComponentFetcher extends PackagesFetcher {
     private static final String TAG = "ComponentFetcher";
 
     static final boolean DEVELOPMENT_PERMISSIONS_SUPPORTED =
@@ -152,75 +141,55 @@ public class ComponentFetcher extends Fetcher {
 
     // Fetching
     @Override
-    Promise<Object, Throwable, Void> getEntriesAsync(Context context) {
-        MyPackageManager myPackageManager = MyPackageManagerImpl.getInstance(context);
-
-        Promise<Collection<MyPackageInfo>, Void, Void> packagesPromise = myPackageManager.getPackages(false);
-        Promise<Map<String, MyPermissionInfo>, Void, Void> permissionsPromise = myPackageManager.getPermissions();
-
-        DefaultDeferredManager dm = new DefaultDeferredManager();
-        final PackageManager pm = context.getPackageManager();
-        return dm
-                .when(packagesPromise, permissionsPromise)
-                .then(new DoneFilter<MultipleResults, Object>() {
-                    @Override
-                    public Object filterDone(MultipleResults result) {
-                        @SuppressWarnings("unchecked")
-                        Collection<MyPackageInfo> packages = (Collection<MyPackageInfo>) result.get(0).getResult();
-                        @SuppressWarnings("unchecked")
-                        Map<String, MyPermissionInfo> permissions = (Map<String, MyPermissionInfo>) result.get(1).getResult();
-
-                        ArrayList<Category> selectedApps = new ArrayList<Category>();
-
-                        //
-                        for (MyPackageInfo pack : packages) {
-                            // System app filter
-                            if (((
-                                    pack.isSystemApplication() ?
-                                            APP_TYPE_SYSTEM :
-                                            APP_TYPE_USER)
-                                    & appType) == 0) {
-                                continue;
-                            }
-
-                            // Scan components
-                            ArrayList<Component> selectedComponents = new ArrayList<Component>();
-
-                            if ((type & PackageManager.GET_ACTIVITIES) != 0) {
-                                scanComponents(permissions, pack.getActivities(), selectedComponents, false);
-                            }
-                            if ((type & PackageManager.GET_RECEIVERS) != 0) {
-                                scanComponents(permissions, pack.getReceivers(), selectedComponents, false);
-                            }
-                            if ((type & PackageManager.GET_SERVICES) != 0) {
-                                scanComponents(permissions, pack.getServices(), selectedComponents, false);
-                            }
-                            if ((type & PackageManager.GET_PROVIDERS) != 0) {
-                                scanComponents(permissions, pack.getProviders(), selectedComponents, testWritePermissionForProviders);
-                            }
-
-                            // Check if we filtered out all components and skip whole app if so
-                            if (selectedComponents.isEmpty()) {
-                                continue;
-                            }
-
-                            // Build and add app descriptor
-                            Category app = new Category();
-                            app.title = String.valueOf(pack.loadLabel(pm));
-                            app.subtitle = pack.getPackageName();
-                            app.components = selectedComponents.toArray(new Component[selectedComponents.size()]);
-                            selectedApps.add(app);
-                        }
-                        Category[] selectedAppsArray = selectedApps.toArray(new Category[selectedApps.size()]);
-                        Arrays.sort(selectedAppsArray, new Comparator<Category>() {
-                            @Override
-                            public int compare(Category lhs, Category rhs) {
-                                return lhs.subtitle.compareTo(rhs.subtitle);
-                            }
-                        });
-                        return selectedAppsArray;
-                    }
-                });
+    boolean isCategorized() {
+        return true;
+    }
+
+    @Override
+    boolean needsPermissions() {
+        // Permission map is only used if result depends on protectionLevel
+        return (protection & PROTECTION_ANY_PERMISSION) != PROTECTION_ANY_PERMISSION &&
+                (protection & PROTECTION_ANY_PERMISSION) != 0;
+    }
+
+    @Override
+    Object[] scanPackage(PackageManager pm, MyPackageInfo pack, Map<String, MyPermissionInfo> permissions) {
+        // System app filter
+        if (((
+                pack.isSystemApplication() ?
+                        APP_TYPE_SYSTEM :
+                        APP_TYPE_USER)
+                & appType) == 0) {
+            return null;
+        }
+
+        // Scan components
+        ArrayList<Component> selectedComponents = new ArrayList<Component>();
+
+        if ((type & PackageManager.GET_ACTIVITIES) != 0) {
+            scanComponents(permissions, pack.getActivities(), selectedComponents, false);
+        }
+        if ((type & PackageManager.GET_RECEIVERS) != 0) {
+            scanComponents(permissions, pack.getReceivers(), selectedComponents, false);
+        }
+        if ((type & PackageManager.GET_SERVICES) != 0) {
+            scanComponents(permissions, pack.getServices(), selectedComponents, false);
+        }
+        if ((type & PackageManager.GET_PROVIDERS) != 0) {
+            scanComponents(permissions, pack.getProviders(), selectedComponents, testWritePermissionForProviders);
+        }
+
+        // Check if we filtered out all components and skip whole app if so
+        if (selectedComponents.isEmpty()) {
+            return null;
+        }
+
+        // Build app descriptor
+        Category app = new Category();
+        app.title = String.valueOf(pack.loadLabel(pm));
+        app.subtitle = pack.getPackageName();
+        app.components = selectedComponents.toArray(new Component[selectedComponents.size()]);
+        return new Category[] { app };
     }
 
     private void scanComponents(Map<String, MyPermissionInfo> pm, MyComponentInfo[] components, ArrayList<Component> outList, boolean checkWritePermission) {
@@ -321,37 +290,6 @@ public class ComponentFetcher extends Fetcher {
         ) & protectionFilter) != 0;
     }
 
-    @SuppressLint("InlinedApi")
-    // TODO: drop this method once we migrate PermissionFetcher to MyPackageManager
-    static boolean checkProtectionLevelRaw(PermissionInfo permissionInfo, int protectionFilter) {
-        // Skip test if all options are checked
-        if ((protectionFilter & PROTECTION_ANY_LEVEL) == PROTECTION_ANY_LEVEL) {
-            return true;
-        }
-
-        // Test protectionLevel
-        int protectionLevel = permissionInfo.protectionLevel;
-        if (protectionLevel == PermissionInfo.PROTECTION_SIGNATURE_OR_SYSTEM) {
-            protectionLevel = PermissionInfo.PROTECTION_SIGNATURE | PermissionInfo.PROTECTION_FLAG_SYSTEM;
-        }
-        int protectionLevelBase = protectionLevel & PermissionInfo.PROTECTION_MASK_BASE;
-        int protectionLevelFlags = protectionLevel & PermissionInfo.PROTECTION_MASK_FLAGS;
-
-        // Match against our flags
-        return ((
-                protectionLevel == PermissionInfo.PROTECTION_NORMAL ? PROTECTION_NORMAL :
-                protectionLevel == PermissionInfo.PROTECTION_DANGEROUS ? PROTECTION_DANGEROUS :
-                (
-                    ((protectionLevelBase == PermissionInfo.PROTECTION_SIGNATURE)
-                        ? PROTECTION_SIGNATURE : 0) |
-                        (((protectionLevelFlags & PermissionInfo.PROTECTION_FLAG_SYSTEM) != 0)
-                                ? PROTECTION_SYSTEM : 0) |
-                        (((protectionLevelFlags & PermissionInfo.PROTECTION_FLAG_DEVELOPMENT) != 0)
-                                ? PROTECTION_DEVELOPMENT : 0)
-                )
-        ) & protectionFilter) != 0;
-    }
-
     // Configuration UI
     @Override
     int getConfigurationLayout() {
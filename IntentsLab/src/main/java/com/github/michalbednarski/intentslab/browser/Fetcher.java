@@ -26,6 +26,8 @@ import org.jdeferred.Promise;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Comparator;
+
 /**
  * Category of data in components browser
  */
@@ -34,14 +36,37 @@ abstract class Fetcher implements Parcelable, Cloneable {
         String title;
         String subtitle;
         Component[] components;
+        String packageName; // Package this entry was built from, set by PackagesFetcher
     }
 
     static final class Component {
         String title;
         String subtitle; // Used only in non categorized mode
         Object componentInfo;
+        String packageName; // Package this entry was built from, set by PackagesFetcher
     }
 
+    /**
+     * Order in which categories are displayed, also used for inserting partial results
+     */
+    static final Comparator<Category> CATEGORY_ORDER = new Comparator<Category>() {
+        @Override
+        public int compare(Category lhs, Category rhs) {
+            return lhs.subtitle.compareTo(rhs.subtitle);
+        }
+    };
+
+    /**
+     * Order in which components are displayed in non categorized mode,
+     * also used for inserting partial results
+     */
+    static final Comparator<Component> COMPONENT_ORDER = new Comparator<Component>() {
+        @Override
+        public int compare(Component lhs, Component rhs) {
+            return lhs.subtitle.compareTo(rhs.subtitle);
+        }
+    };
+
     static final class CustomError {
         CharSequence message;
 
@@ -80,11 +105,16 @@ abstract class Fetcher implements Parcelable, Cloneable {
     /**
      * Fetch data for display in {@link BrowseComponentsFragment}
      *
+     * Fetcher may notify progress with batches of partial results before promise is resolved,
+     * these are {@link Category[]} or {@link Component[]} (same as final result)
+     * and are inserted into list using {@link #CATEGORY_ORDER} or {@link #COMPONENT_ORDER}.
+     * Final result always contains all entries, including ones that were previously passed as progress
+     *
      * @param context The application context
      *
      * @return {@link Category[]}, {@link Component[]} or {@link CustomError}
      */
-    abstract Promise<Object, Throwable, Void> getEntriesAsync(Context context);
+    abstract Promise<Object, Throwable, Object> getEntriesAsync(Context context);
 
 
 
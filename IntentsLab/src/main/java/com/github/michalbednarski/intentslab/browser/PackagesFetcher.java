@@ -0,0 +1,188 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.browser;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManager;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
+import com.github.michalbednarski.intentslab.appinfo.MyPermissionInfo;
+
+import org.jdeferred.DoneCallback;
+import org.jdeferred.ProgressCallback;
+import org.jdeferred.Promise;
+import org.jdeferred.impl.DeferredObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Variation of Fetcher that builds entries from packages provided by {@link MyPackageManager}
+ *
+ * Entries for each package are passed as progress as soon as package is loaded,
+ * so list can be displayed before all packages are scanned
+ */
+abstract class PackagesFetcher extends Fetcher {
+
+    /**
+     * True if this fetcher produces {@link Category Categories},
+     * false if it produces {@link Component Components}
+     */
+    abstract boolean isCategorized();
+
+    /**
+     * True if {@link #scanPackage(PackageManager, MyPackageInfo, Map)} needs permissions map,
+     * in that case we have to wait until all packages are loaded before scanning
+     */
+    boolean needsPermissions() {
+        return false;
+    }
+
+    /**
+     * Build entries for given package.
+     * This method is invoked on main thread.
+     *
+     * @param permissions Permissions map if {@link #needsPermissions()} returned true, null otherwise
+     * @return {@link Category[]} or {@link Component[]} depending on {@link #isCategorized()},
+     *         null if package has no matching entries
+     */
+    abstract Object[] scanPackage(PackageManager pm, MyPackageInfo packageInfo, Map<String, MyPermissionInfo> permissions);
+
+    @Override
+    final Promise<Object, Throwable, Object> getEntriesAsync(Context context) {
+        final DeferredObject<Object, Throwable, Object> deferred = new DeferredObject<>();
+        final MyPackageManager myPackageManager = MyPackageManagerImpl.getInstance(context);
+        final PackageManager pm = context.getPackageManager();
+        final boolean categorized = isCategorized(); // Avoid race conditions
+
+        final ArrayList<Object> foundEntries = new ArrayList<>();
+        final HashSet<String> scannedPackages = new HashSet<>();
+
+        if (needsPermissions()) {
+            // Permissions are available only once all packages are loaded
+            myPackageManager.getPermissions().done(new DoneCallback<Map<String, MyPermissionInfo>>() {
+                @Override
+                public void onDone(final Map<String, MyPermissionInfo> permissions) {
+                    myPackageManager.getPackages(false).done(new DoneCallback<Collection<MyPackageInfo>>() {
+                        @Override
+                        public void onDone(Collection<MyPackageInfo> result) {
+                            for (MyPackageInfo packageInfo : result) {
+                                addEntries(scanPackageAndTagEntries(pm, packageInfo, permissions), foundEntries);
+                            }
+                            deferred.resolve(packResult(foundEntries, categorized));
+                        }
+                    });
+                }
+            });
+        } else {
+            // Scan packages as they're loaded
+            myPackageManager.getPackages(false).progress(new ProgressCallback<MyPackageInfo>() {
+                @Override
+                public void onProgress(MyPackageInfo packageInfo) {
+                    if (scannedPackages.add(packageInfo.getPackageName())) {
+                        Object[] entries = scanPackageAndTagEntries(pm, packageInfo, null);
+                        if (addEntries(entries, foundEntries)) {
+                            deferred.notify(entries);
+                        }
+                    }
+                }
+            }).done(new DoneCallback<Collection<MyPackageInfo>>() {
+                @Override
+                public void onDone(Collection<MyPackageInfo> result) {
+                    // Scan packages that weren't passed as progress
+                    // (all of them if they were already loaded)
+                    for (MyPackageInfo packageInfo : result) {
+                        if (scannedPackages.add(packageInfo.getPackageName())) {
+                            addEntries(scanPackageAndTagEntries(pm, packageInfo, null), foundEntries);
+                        }
+                    }
+                    deferred.resolve(packResult(foundEntries, categorized));
+                }
+            });
+        }
+        return deferred.promise();
+    }
+
+    /**
+     * Update result previously returned by this fetcher after package was changed,
+     * entries built from old version of package are replaced with ones from new version.
+     * This method is invoked on main thread.
+     *
+     * @param loadedEntries {@link Category[]} or {@link Component[]} returned by {@link #getEntriesAsync(Context)}
+     * @param newPackageInfo New version of package or null if it was removed
+     * @param permissions Permissions map if {@link #needsPermissions()} returned true, null otherwise
+     * @return New sorted array of same type as loadedEntries
+     */
+    final Object applyPackageChange(PackageManager pm, Object[] loadedEntries, String packageName, MyPackageInfo newPackageInfo, Map<String, MyPermissionInfo> permissions) {
+        boolean categorized = loadedEntries instanceof Category[];
+        ArrayList<Object> entries = new ArrayList<>(loadedEntries.length);
+        for (Object entry : loadedEntries) {
+            String entryPackageName = categorized ? ((Category) entry).packageName : ((Component) entry).packageName;
+            if (!packageName.equals(entryPackageName)) {
+                entries.add(entry);
+            }
+        }
+        if (newPackageInfo != null) {
+            addEntries(scanPackageAndTagEntries(pm, newPackageInfo, permissions), entries);
+        }
+        return packResult(entries, categorized);
+    }
+
+    private Object[] scanPackageAndTagEntries(PackageManager pm, MyPackageInfo packageInfo, Map<String, MyPermissionInfo> permissions) {
+        Object[] entries = scanPackage(pm, packageInfo, permissions);
+        if (entries != null) {
+            String packageName = packageInfo.getPackageName();
+            for (Object entry : entries) {
+                if (entry instanceof Category) {
+                    ((Category) entry).packageName = packageName;
+                } else {
+                    ((Component) entry).packageName = packageName;
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean addEntries(Object[] entries, ArrayList<Object> outEntries) {
+        if (entries == null || entries.length == 0) {
+            return false;
+        }
+        Collections.addAll(outEntries, entries);
+        return true;
+    }
+
+    @SuppressWarnings("SuspiciousToArrayCall")
+    private static Object packResult(ArrayList<Object> entries, boolean categorized) {
+        if (categorized) {
+            Category[] categories = entries.toArray(new Category[entries.size()]);
+            Arrays.sort(categories, CATEGORY_ORDER);
+            return categories;
+        } else {
+            Component[] components = entries.toArray(new Component[entries.size()]);
+            Arrays.sort(components, COMPONENT_ORDER);
+            return components;
+        }
+    }
+}
@@ -18,65 +18,68 @@
 
 package com.github.michalbednarski.intentslab.browser;
 
-import android.content.Context;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PermissionInfo;
 import android.os.Parcel;
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.Utils;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
+import com.github.michalbednarski.intentslab.appinfo.MyPermissionInfo;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Fetcher for permissions
  */
-public class PermissionsFetcher extends AsyncTaskFetcher {
+public class PermissionsFetcher extends PackagesFetcher {
     private boolean mGrouped = true;
     private int mProtectionFilter =
             ComponentFetcher.PROTECTION_ANY_LEVEL;
     private String mNameSubstring;
 
     @Override
-    Object getEntries(Context context) {
-        PackageManager pm = context.getPackageManager();
-        List<PackageInfo> installedPackages = pm.getInstalledPackages(PackageManager.GET_PERMISSIONS);
-        ArrayList<Component> foundPermissions = new ArrayList<Component>();
-        final boolean grouped = mGrouped; // Avoid race conditions
-        ArrayList<Category> apps = grouped ? new ArrayList<Category>() : null;
+    boolean isCategorized() {
+        return mGrouped;
+    }
 
-        for (PackageInfo aPackage : installedPackages) {
-            if (aPackage.permissions == null || aPackage.permissions.length == 0) {
-                continue;
-            }
+    @Override
+    Object[] scanPackage(PackageManager pm, MyPackageInfo packageInfo, Map<String, MyPermissionInfo> permissions) {
+        Collection<MyPermissionInfo> definedPermissions = packageInfo.getDefinedPermissions();
+        if (definedPermissions == null || definedPermissions.isEmpty()) {
+            return null;
+        }
 
-            for (PermissionInfo permission : aPackage.permissions) {
-                if (ComponentFetcher.checkProtectionLevelRaw(permission, mProtectionFilter) &&
-                        (mNameSubstring == null || permission.name.toLowerCase().contains(mNameSubstring.toLowerCase()))
-                    ) {
-                    Component component = new Component();
-                    component.title = permission.name;
-                    component.subtitle = String.valueOf(permission.loadLabel(pm));
-                    component.componentInfo = permission;
-                    foundPermissions.add(component);
-                }
+        String nameSubstring = mNameSubstring != null ? mNameSubstring.toLowerCase() : null;
+        ArrayList<Component> foundPermissions = new ArrayList<Component>();
+        for (MyPermissionInfo permission : definedPermissions) {
+            if (ComponentFetcher.checkProtectionLevel(permission, mProtectionFilter) &&
+                    (nameSubstring == null || permission.getName().toLowerCase().contains(nameSubstring))
+                ) {
+                Component component = new Component();
+                component.title = permission.getName();
+                component.subtitle = String.valueOf(permission.loadLabel(pm));
+                component.componentInfo = permission;
+                foundPermissions.add(component);
             }
+        }
 
-            if (grouped && !foundPermissions.isEmpty()) {
-                Category category = new Category();
-                category.title = String.valueOf(aPackage.applicationInfo.loadLabel(pm));
-                category.subtitle = aPackage.packageName;
-                category.components = foundPermissions.toArray(new Component[foundPermissions.size()]);
-                apps.add(category);
-                foundPermissions.clear();
-            }
+        if (foundPermissions.isEmpty()) {
+            return null;
         }
-        return grouped ?
-                apps.toArray(new Category[apps.size()]) :
-                foundPermissions.toArray(new Component[foundPermissions.size()]);
+
+        Component[] foundPermissionsArray = foundPermissions.toArray(new Component[foundPermissions.size()]);
+        if (!mGrouped) {
+            return foundPermissionsArray;
+        }
+
+        Category category = new Category();
+        category.title = String.valueOf(packageInfo.loadLabel(pm));
+        category.subtitle = packageInfo.getPackageName();
+        category.components = foundPermissionsArray;
+        return new Category[] { category };
     }
 
     @Override
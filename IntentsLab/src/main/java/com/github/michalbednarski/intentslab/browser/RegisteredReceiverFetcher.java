@@ -22,9 +22,11 @@ import android.content.Context;
 import android.content.IntentFilter;
 import android.graphics.Typeface;
 import android.os.Parcel;
+import android.os.SystemClock;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.style.StyleSpan;
+import android.util.Log;
 
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.Utils;
@@ -34,25 +36,61 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Fetcher for receivers registered with {@link Context#registerReceiver(android.content.BroadcastReceiver, IntentFilter)}
  */
 public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
+    private static final String TAG = "ReReFetcher";
+
+    /**
+     * Time for which last snapshot is reused when list is opened again
+     */
+    private static final long SNAPSHOT_TTL = 30000;
+
+    /**
+     * Receivers found in single dump along with categorized list of them
+     */
+    private static class Snapshot {
+        long time;
+        boolean excludeProtected;
+        LinkedHashMap<String, RegisteredReceiverInfo> receivers;
+        Category[] categories;
+    }
+
+    /**
+     * Last taken snapshot, guarded by RegisteredReceiverFetcher.class
+     */
+    private static Snapshot sLastSnapshot;
 
     private boolean mExcludeProtected = true;
+    private boolean mAutoRefresh;
+
+    /**
+     * True if {@link BrowseComponentsFragment} should periodically call {@link #refresh(Context)}
+     */
+    boolean isAutoRefreshEnabled() {
+        return mAutoRefresh;
+    }
 
     @Override
     Object getEntries(Context context) {
+        synchronized (RegisteredReceiverFetcher.class) {
+            Snapshot snapshot = sLastSnapshot;
+            if (snapshot != null && snapshot.excludeProtected == mExcludeProtected &&
+                    SystemClock.elapsedRealtime() - snapshot.time < SNAPSHOT_TTL) {
+                return snapshot.categories;
+            }
+        }
         try {
-            final Categorizer<RegisteredReceiverInfo> categorizer = new ProcessCategorizer();
-            (new RegisteredReceiversParser(mExcludeProtected) {
-                @Override
-                protected void onReceiverFound(RegisteredReceiverInfo receiverInfo) {
-                    categorizer.add(receiverInfo);
-                }
-            }).parse(context);
-            return categorizer.getResult();
+            LinkedHashMap<String, RegisteredReceiverInfo> receivers = dumpReceivers(context);
+            ProcessCategorizer categorizer = new ProcessCategorizer();
+            for (RegisteredReceiverInfo receiverInfo : receivers.values()) {
+                categorizer.add(receiverInfo);
+            }
+            return saveSnapshot(receivers, categorizer.getResult());
         } catch (SecurityException e) {
             // Create message about error
             SpannableStringBuilder ssb = new SpannableStringBuilder(context.getString(R.string.registered_receivers_denied));
@@ -76,6 +114,102 @@ public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
         }
     }
 
+    /**
+     * Dump receivers again and apply changes since last snapshot to its list,
+     * so only added and removed receivers have to be categorized.
+     * This method is called on background thread
+     *
+     * @return Updated list or null if nothing changed or dump failed
+     */
+    Category[] refresh(Context context) {
+        LinkedHashMap<String, RegisteredReceiverInfo> receivers;
+        try {
+            receivers = dumpReceivers(context);
+        } catch (Throwable e) {
+            Log.w(TAG, "Refreshing registered receivers failed", e);
+            return null;
+        }
+
+        Snapshot previous;
+        synchronized (RegisteredReceiverFetcher.class) {
+            previous = sLastSnapshot;
+        }
+        ProcessCategorizer categorizer = new ProcessCategorizer();
+        if (previous == null || previous.excludeProtected != mExcludeProtected) {
+            // Nothing to compare with
+            for (RegisteredReceiverInfo receiverInfo : receivers.values()) {
+                categorizer.add(receiverInfo);
+            }
+            return saveSnapshot(receivers, categorizer.getResult());
+        }
+
+        // Find removed receivers and keep entries of remaining ones
+        boolean changed = false;
+        for (Category category : previous.categories) {
+            for (Component component : category.components) {
+                if (receivers.containsKey(getDiffKey((RegisteredReceiverInfo) component.componentInfo))) {
+                    categorizer.addExistingToCategory(category.title, component);
+                } else {
+                    changed = true;
+                }
+            }
+        }
+
+        // Add new receivers
+        for (Map.Entry<String, RegisteredReceiverInfo> entry : receivers.entrySet()) {
+            if (!previous.receivers.containsKey(entry.getKey())) {
+                categorizer.add(entry.getValue());
+                changed = true;
+            }
+        }
+
+        if (!changed) {
+            synchronized (RegisteredReceiverFetcher.class) {
+                if (sLastSnapshot == previous) {
+                    previous.time = SystemClock.elapsedRealtime();
+                }
+            }
+            return null;
+        }
+        return saveSnapshot(receivers, categorizer.getResult());
+    }
+
+    /**
+     * Run dump and parse it
+     *
+     * @return Receivers keyed by {@link #getDiffKey(RegisteredReceiverInfo)}, in dump order
+     */
+    private LinkedHashMap<String, RegisteredReceiverInfo> dumpReceivers(Context context) throws Throwable {
+        final LinkedHashMap<String, RegisteredReceiverInfo> receivers = new LinkedHashMap<String, RegisteredReceiverInfo>();
+        (new RegisteredReceiversParser(mExcludeProtected) {
+            @Override
+            protected void onReceiverFound(RegisteredReceiverInfo receiverInfo) {
+                receivers.put(getDiffKey(receiverInfo), receiverInfo);
+            }
+        }).parse(context);
+        return receivers;
+    }
+
+    /**
+     * Key identifying receiver between dumps,
+     * filters may be added to existing ReceiverList so their count is included
+     */
+    private static String getDiffKey(RegisteredReceiverInfo receiverInfo) {
+        return receiverInfo.id + "#" + receiverInfo.intentFilters.length;
+    }
+
+    private Category[] saveSnapshot(LinkedHashMap<String, RegisteredReceiverInfo> receivers, Category[] categories) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.time = SystemClock.elapsedRealtime();
+        snapshot.excludeProtected = mExcludeProtected;
+        snapshot.receivers = receivers;
+        snapshot.categories = categories;
+        synchronized (RegisteredReceiverFetcher.class) {
+            sLastSnapshot = snapshot;
+        }
+        return categories;
+    }
+
     private class ProcessCategorizer extends Categorizer<RegisteredReceiverInfo> {
 
         @Override
@@ -113,11 +247,13 @@ public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
     @Override
     void initConfigurationForm(FetcherOptionsDialog dialog) {
         dialog.setBoxChecked(R.id.exclude_protected, mExcludeProtected);
+        dialog.setBoxChecked(R.id.auto_refresh, mAutoRefresh);
     }
 
     @Override
     void updateFromConfigurationForm(FetcherOptionsDialog dialog) {
         mExcludeProtected = dialog.isBoxChecked(R.id.exclude_protected);
+        mAutoRefresh = dialog.isBoxChecked(R.id.auto_refresh);
     }
 
 
@@ -135,13 +271,20 @@ public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-
+        dest.writeInt(
+                (mExcludeProtected ? 1 : 0) |
+                (mAutoRefresh ? 2 : 0)
+        );
     }
 
     public static final Creator<RegisteredReceiverFetcher> CREATOR = new Creator<RegisteredReceiverFetcher>() {
         @Override
         public RegisteredReceiverFetcher createFromParcel(Parcel source) {
-            return new RegisteredReceiverFetcher();
+            int flags = source.readInt();
+            RegisteredReceiverFetcher fetcher = new RegisteredReceiverFetcher();
+            fetcher.mExcludeProtected = (flags & 1) != 0;
+            fetcher.mAutoRefresh = (flags & 2) != 0;
+            return fetcher;
         }
 
         @Override
@@ -156,6 +299,7 @@ public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
         Fetcher unserializeFromJSON(JSONObject jsonObject) throws JSONException {
             RegisteredReceiverFetcher fetcher = new RegisteredReceiverFetcher();
             fetcher.mExcludeProtected = jsonObject.getBoolean("excludeProtected");
+            fetcher.mAutoRefresh = jsonObject.optBoolean("autoRefresh", false);
             return fetcher;
         }
     };
@@ -164,6 +308,7 @@ public class RegisteredReceiverFetcher extends AsyncTaskFetcher {
     JSONObject serializeToJSON() throws JSONException {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("excludeProtected", mExcludeProtected);
+        jsonObject.put("autoRefresh", mAutoRefresh);
         return jsonObject;
     }
 }
@@ -32,6 +32,11 @@ public class RegisteredReceiverInfo implements Parcelable {
     public IntentFilter[] intentFilters;
     public String[] filterPermissions;
 
+    /**
+     * Identity of ReceiverList in dump, used for finding changes between dumps
+     */
+    public String id;
+
 
     public String getOverallPermission() throws MixedPermissionsException {
         String firstPermission = filterPermissions[0];
@@ -58,6 +63,7 @@ public class RegisteredReceiverInfo implements Parcelable {
             intentFilter.writeToParcel(dest, flags);
         }
         dest.writeStringArray(filterPermissions);
+        dest.writeString(id);
     }
 
     public static final Creator<RegisteredReceiverInfo> CREATOR = new Creator<RegisteredReceiverInfo>() {
@@ -74,6 +80,7 @@ public class RegisteredReceiverInfo implements Parcelable {
             }
             receiverInfo.intentFilters = filters;
             receiverInfo.filterPermissions = source.createStringArray();
+            receiverInfo.id = source.readString();
             return receiverInfo;
         }
 
@@ -24,15 +24,18 @@ import android.os.PatternMatcher;
 import android.util.Log;
 import com.github.michalbednarski.intentslab.Utils;
 
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by mb on 20.02.14.
+ *
+ * Dump is tokenized line by line in reused buffer: lines are dispatched on
+ * first character after indentation and Strings are created only for extracted values,
+ * as output on busy devices is megabytes long and most lines are skipped
  */
 public abstract class RegisteredReceiversParser {
     private static final String TAG = "ReReParser";
@@ -49,48 +52,38 @@ public abstract class RegisteredReceiversParser {
      */
     protected abstract void onReceiverFound(RegisteredReceiverInfo receiverInfo);
 
-    // Expressions for dump parsing
-    private static final Pattern PATTERN_RECEIVER_LIST_START =
-            Pattern.compile("  \\* ReceiverList\\{.*\\}");
-    private static final Pattern PATTERN_RECEIVER_LIST_SECOND_LINE =
-            Pattern.compile("    app=ProcessRecord\\{[0-9a-f]+ \\d+:(.*)/[0-9au]+\\} pid=(\\d+) uid=(\\d+)");
-    private static final Pattern PATTERN_RECEIVER_LIST_SECOND_LINE_V2 =
-            Pattern.compile("    app=\\d+:(.*)/[0-9au]+ pid=(\\d+) uid=(\\d+)( .*)?");
-    private static final Pattern PATTERN_RECEIVER_FILTER_START =
-            Pattern.compile("    Filter #\\d+: BroadcastFilter\\{.*\\}");
-    private static final Pattern PATTERN_RECEIVER_FILTER_ACTION =
-            Pattern.compile("      Action: \"(.*)\"");
-    private static final Pattern PATTERN_RECEIVER_FILTER_CATEGORY =
-            Pattern.compile("      Category: \"(.*)\"");
-    private static final Pattern PATTERN_RECEIVER_FILTER_SCHEME =
-            Pattern.compile("      Scheme: \"(.*)\"");
-    private static final Pattern PATTERN_RECEIVER_FILTER_AUTHORITY =
-            Pattern.compile("      Authority: \"(.*)\": (-?\\d+)( WILD)?");
-    private static final Pattern PATTERN_RECEIVER_FILTER_TYPE =
-            Pattern.compile("      Type: \"(.*)\"");
-    private static final Pattern PATTERN_RECEIVER_FILTER_PATH =
-            Pattern.compile("      Path: \"PatternMatcher\\{(LITERAL|PREFIX|GLOB): (.*)\\}\"");
-    private static final Pattern PATTERN_RECEIVER_FILTER_PRIORITY =
-            Pattern.compile("      mPriority=(-?\\d+),.*");
-    private static final Pattern PATTERN_RECEIVER_FILTER_PERMISSION =
-            Pattern.compile("      requiredPermission=(.*)");
-    private static final Pattern PATTERN_LIST_END =
-            Pattern.compile("\\s*Receiver Resolver Table:");
+    // Tokens for dump parsing, matched after line indentation
+    private static final String TOKEN_LIST_HEADER = "Registered Receivers:";
+    private static final String TOKEN_RECEIVER_LIST_START = "* ReceiverList{";
+    private static final String TOKEN_APP = "app=";
+    private static final String TOKEN_APP_PROCESS_RECORD = "ProcessRecord{";
+    private static final String TOKEN_PID = " pid=";
+    private static final String TOKEN_UID = " uid=";
+    private static final String TOKEN_FILTER_START = "Filter #";
+    private static final String TOKEN_FILTER_ACTION = "Action: \"";
+    private static final String TOKEN_FILTER_AUTHORITY = "Authority: \"";
+    private static final String TOKEN_FILTER_CATEGORY = "Category: \"";
+    private static final String TOKEN_FILTER_SCHEME = "Scheme: \"";
+    private static final String TOKEN_FILTER_TYPE = "Type: \"";
+    private static final String TOKEN_FILTER_PATH = "Path: \"PatternMatcher{";
+    private static final String TOKEN_FILTER_PRIORITY = "mPriority=";
+    private static final String TOKEN_FILTER_PERMISSION = "requiredPermission=";
+    private static final String TOKEN_LIST_END = "Receiver Resolver Table:";
 
 
 
 
     private final boolean mExcludeProtected;
 
+    // Parsing state
+    private RegisteredReceiverInfo mReceiverInfo;
+    private final ArrayList<IntentFilter> mFilters = new ArrayList<IntentFilter>();
+    private final ArrayList<String> mFilterPermissions = new ArrayList<String>();
+    private IntentFilter mCurrentFilter;
+
     public void parse(Context context) throws Throwable {
         InputStream inputStream = null;
         try {
-            // Define variables
-            RegisteredReceiverInfo receiverInfo = null;
-            ArrayList<IntentFilter> filters = new ArrayList<IntentFilter>();
-            ArrayList<String> filterPermissions = new ArrayList<String>();
-            IntentFilter currentFilter = new IntentFilter();
-
             // Start dumping receivers
             if (android.os.Build.VERSION.SDK_INT >= 8) {
                 inputStream = Utils.dumpSystemService(context, "activity", new String[]{"broadcasts"});
@@ -98,182 +91,445 @@ public abstract class RegisteredReceiversParser {
                 // Legacy syntax
                 inputStream = Utils.dumpSystemService(context, "activity.broadcasts", new String[0]);
             }
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            // Find start of receiver list
-            String line;
-            do {
-                line = reader.readLine().trim();
-            } while (!line.contains("Registered Receivers:"));
-
-            // Start parsing
-            while ((line = reader.readLine()) != null) {
-                if (VERBOSE) {
-                    Log.v(TAG, "Parsing: " + line);
-                }
+            parse(inputStream);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (Exception ignored) {}
+        }
+    }
+
+    /**
+     * Parse output of "dumpsys activity broadcasts", stream isn't closed
+     */
+    void parse(InputStream inputStream) throws Exception {
+        LineReader reader = new LineReader(new InputStreamReader(inputStream));
+        mReceiverInfo = null;
+        mFilters.clear();
+        mFilterPermissions.clear();
+        mCurrentFilter = null;
+
+        // Find start of receiver list
+        do {
+            if (!reader.readLine()) {
+                throw new Exception("Registered receivers not found in dump");
+            }
+        } while (!reader.contains(TOKEN_LIST_HEADER));
+
+        // Start parsing
+        parsing:
+        while (reader.readLine()) {
+            if (VERBOSE) {
+                Log.v(TAG, "Parsing: " + reader);
+            }
+
+            int start = reader.skipIndent();
+            if (start == reader.mLength) {
+                continue;
+            }
 
-                // Match receiver start
-                Matcher matcher = PATTERN_RECEIVER_LIST_START.matcher(line);
-                if (matcher.find()) {
-                    line = reader.readLine();
-                    matcher = PATTERN_RECEIVER_LIST_SECOND_LINE.matcher(line);
-                    if (!matcher.find()) {
-                        // Try again using different syntax
-                        matcher = PATTERN_RECEIVER_LIST_SECOND_LINE_V2.matcher(line);
-                        if (!matcher.find()) {
-                            throw new Exception("Unexpected second line");
+            switch (reader.mLine[start]) {
+                case '*':
+                    // Receiver start
+                    if (reader.startsWith(start, TOKEN_RECEIVER_LIST_START)) {
+                        int idStart = start + TOKEN_RECEIVER_LIST_START.length();
+                        int idEnd = reader.indexOf(' ', idStart);
+                        String id = reader.substring(idStart, idEnd != -1 ? idEnd : reader.mLength);
+                        if (!reader.readLine()) {
+                            throw new Exception("Unexpected end of dump");
                         }
+                        RegisteredReceiverInfo receiverInfo = parseAppLine(reader);
+                        receiverInfo.id = id;
+                        finishReceiver();
+                        mReceiverInfo = receiverInfo;
+                        continue;
+                    }
+                    break;
+
+                case 'F':
+                    // Filter start
+                    if (reader.startsWith(start, TOKEN_FILTER_START)) {
+                        dropCurrentFilterIfEmpty();
+                        mCurrentFilter = new IntentFilter();
+                        mFilters.add(mCurrentFilter);
+                        mFilterPermissions.add(null); // Will replace if we find
+                        continue;
                     }
+                    break;
 
-                    // Finish previous info // this code is also below
-                    if (receiverInfo != null && !filters.isEmpty()) {
-                        if (currentFilter != null && currentFilter.countActions() == 0) {
-                            final int lastIndex = filters.size() - 1;
-                            filters.remove(lastIndex);
-                            filterPermissions.remove(lastIndex);
+                case 'A':
+                    if (reader.startsWith(start, TOKEN_FILTER_ACTION)) {
+                        String action = reader.quotedValue(start + TOKEN_FILTER_ACTION.length());
+                        if (action != null) {
+                            if (!mExcludeProtected || !Utils.isProtectedBroadcast(action)) {
+                                mCurrentFilter.addAction(action);
+                            }
+                            continue;
                         }
-                        if (!filters.isEmpty()) {
-                            receiverInfo.intentFilters = filters.toArray(new IntentFilter[filters.size()]);
-                            receiverInfo.filterPermissions = filterPermissions.toArray(new String[filterPermissions.size()]);
-                            filters.clear();
-                            filterPermissions.clear();
-                            onReceiverFound(receiverInfo);
+                    } else if (reader.startsWith(start, TOKEN_FILTER_AUTHORITY)) {
+                        if (parseAuthority(reader, start + TOKEN_FILTER_AUTHORITY.length())) {
+                            continue;
                         }
                     }
-                    currentFilter = null;
+                    break;
 
-                    // Prepare new info
-                    receiverInfo = new RegisteredReceiverInfo();
-                    receiverInfo.processName = matcher.group(1);
-                    receiverInfo.pid = Integer.parseInt(matcher.group(2));
-                    receiverInfo.uid = Integer.parseInt(matcher.group(3));
+                case 'C':
+                    if (reader.startsWith(start, TOKEN_FILTER_CATEGORY)) {
+                        String category = reader.quotedValue(start + TOKEN_FILTER_CATEGORY.length());
+                        if (category != null) {
+                            mCurrentFilter.addCategory(category);
+                            continue;
+                        }
+                    }
+                    break;
 
-                    continue;
-                }
+                case 'S':
+                    if (reader.startsWith(start, TOKEN_FILTER_SCHEME)) {
+                        String scheme = reader.quotedValue(start + TOKEN_FILTER_SCHEME.length());
+                        if (scheme != null) {
+                            mCurrentFilter.addDataScheme(scheme);
+                            continue;
+                        }
+                    }
+                    break;
 
-                // Match filter start
-                matcher = PATTERN_RECEIVER_FILTER_START.matcher(line);
-                if (matcher.find()) {
-                    if (currentFilter != null && currentFilter.countActions() == 0) {
-                        final int lastIndex = filters.size() - 1;
-                        filters.remove(lastIndex);
-                        filterPermissions.remove(lastIndex);
+                case 'P':
+                    if (reader.startsWith(start, TOKEN_FILTER_PATH)) {
+                        if (parsePath(reader, start + TOKEN_FILTER_PATH.length())) {
+                            continue;
+                        }
                     }
-                    currentFilter = new IntentFilter();
-                    filters.add(currentFilter);
-                    filterPermissions.add(null); // Will replace if we find
-                    continue;
-                }
+                    break;
 
-                // Match filter components
-                matcher = PATTERN_RECEIVER_FILTER_ACTION.matcher(line);
-                if (matcher.find()) {
-                    final String action = matcher.group(1);
-                    if (!mExcludeProtected || !Utils.isProtectedBroadcast(action)) {
-                        currentFilter.addAction(action);
+                case 'T':
+                    if (reader.startsWith(start, TOKEN_FILTER_TYPE)) {
+                        String type = reader.quotedValue(start + TOKEN_FILTER_TYPE.length());
+                        if (type != null) {
+                            try {
+                                if (type.contains("/")) {
+                                    mCurrentFilter.addDataType(type);
+                                } else {
+                                    mCurrentFilter.addDataType(type + "/*");
+                                }
+                            } catch (IntentFilter.MalformedMimeTypeException e) {
+                                Log.w(TAG, "Malformed type: " + type);
+                                e.printStackTrace();
+                            }
+                            continue;
+                        }
                     }
-                    continue;
-                }
+                    break;
 
-                matcher = PATTERN_RECEIVER_FILTER_CATEGORY.matcher(line);
-                if (matcher.find()) {
-                    currentFilter.addCategory(matcher.group(1));
-                    continue;
-                }
+                case 'm':
+                    // Filter priority
+                    if (reader.startsWith(start, TOKEN_FILTER_PRIORITY)) {
+                        int valueStart = start + TOKEN_FILTER_PRIORITY.length();
+                        int valueEnd = reader.indexOf(',', valueStart);
+                        if (valueEnd != -1) {
+                            mCurrentFilter.setPriority(reader.parseInt(valueStart, valueEnd));
+                            continue;
+                        }
+                    }
+                    break;
 
-                matcher = PATTERN_RECEIVER_FILTER_SCHEME.matcher(line);
-                if (matcher.find()) {
-                    currentFilter.addDataScheme(matcher.group(1));
-                    continue;
-                }
+                case 'r':
+                    // Filter permission
+                    if (reader.startsWith(start, TOKEN_FILTER_PERMISSION)) {
+                        mFilterPermissions.set(mFilterPermissions.size() - 1,
+                                reader.substring(start + TOKEN_FILTER_PERMISSION.length(), reader.mLength));
+                        continue;
+                    }
+                    break;
 
-                matcher = PATTERN_RECEIVER_FILTER_AUTHORITY.matcher(line);
-                if (matcher.find()) {
-                    String host = matcher.group(1);
-                    if (matcher.group(3) != null) { // " WILD" at end of parsed line
-                        host = "*" + host; // Prepend wildcard
+                case 'R':
+                    // List end
+                    if (reader.startsWith(start, TOKEN_LIST_END)) {
+                        break parsing;
                     }
-                    currentFilter.addDataAuthority(host, matcher.group(2));
-                    continue;
-                }
+                    break;
+            }
+
+            if (VERBOSE) {
+                Log.v(TAG, "No matches!");
+            }
+        }
+
+        if (VERBOSE) {
+            Log.v(TAG, "Finished");
+        }
+
+        // Finish last info
+        finishReceiver();
+    }
+
+    /**
+     * Parse line following receiver list start, one of:
+     * <pre>
+     *     app=ProcessRecord{41ad3c28 1234:com.example/u0a12} pid=1234 uid=10012
+     *     app=1234:com.example/u0a12 pid=1234 uid=10012 user=0
+     * </pre>
+     */
+    private static RegisteredReceiverInfo parseAppLine(LineReader reader) throws Exception {
+        int start = reader.skipIndent();
+        if (!reader.startsWith(start, TOKEN_APP)) {
+            throw new Exception("Unexpected second line");
+        }
+        start += TOKEN_APP.length();
+        boolean hasProcessRecord = reader.startsWith(start, TOKEN_APP_PROCESS_RECORD);
+        if (hasProcessRecord) {
+            // Skip hash code
+            start = reader.indexOf(' ', start);
+            if (start == -1) {
+                throw new Exception("Unexpected second line");
+            }
+            start++;
+        }
+
+        // Process name is between ':' following pid and last '/' before pid= field
+        int pidPosition = reader.indexOf(TOKEN_PID, start);
+        int processNameStart = reader.indexOf(':', start);
+        int processNameEnd = pidPosition == -1 ? -1 : reader.lastIndexOf('/', processNameStart, pidPosition);
+        int uidPosition = pidPosition == -1 ? -1 : reader.indexOf(TOKEN_UID, pidPosition);
+        if (uidPosition == -1 || processNameStart == -1 || processNameEnd == -1 ||
+                (hasProcessRecord && reader.mLine[pidPosition - 1] != '}')) {
+            throw new Exception("Unexpected second line");
+        }
 
-                matcher = PATTERN_RECEIVER_FILTER_PATH.matcher(line);
-                if (matcher.find()) {
-                    switch (matcher.group(1).charAt(0)) {
-                        case 'L': // LITERAL
-                            currentFilter.addDataPath(matcher.group(2), PatternMatcher.PATTERN_LITERAL);
-                            break;
-                        case 'P': // PREFIX
-                            currentFilter.addDataPath(matcher.group(2), PatternMatcher.PATTERN_PREFIX);
-                            break;
-                        case 'G': // GLOB
-                            currentFilter.addDataPath(matcher.group(2), PatternMatcher.PATTERN_SIMPLE_GLOB);
-                            break;
+        RegisteredReceiverInfo receiverInfo = new RegisteredReceiverInfo();
+        receiverInfo.processName = reader.substring(processNameStart + 1, processNameEnd);
+        receiverInfo.pid = reader.parseInt(pidPosition + TOKEN_PID.length(), uidPosition);
+        int uidStart = uidPosition + TOKEN_UID.length();
+        int uidEnd = reader.indexOf(' ', uidStart);
+        receiverInfo.uid = reader.parseInt(uidStart, uidEnd == -1 ? reader.mLength : uidEnd);
+        return receiverInfo;
+    }
+
+    /**
+     * Parse authority line, {@code "host": port} optionally followed by " WILD"
+     */
+    private boolean parseAuthority(LineReader reader, int valueStart) {
+        int wildStart = reader.mLength - " WILD".length();
+        boolean wild = reader.startsWith(wildStart, " WILD");
+        int lineEnd = wild ? wildStart : reader.mLength;
+        int hostEnd = reader.lastIndexOf('"', valueStart, lineEnd);
+        if (hostEnd == -1 || !reader.startsWith(hostEnd, "\": ")) {
+            return false;
+        }
+        String host = reader.substring(valueStart, hostEnd);
+        if (wild) {
+            host = "*" + host; // Prepend wildcard
+        }
+        mCurrentFilter.addDataAuthority(host, reader.substring(hostEnd + 3, lineEnd));
+        return true;
+    }
+
+    /**
+     * Parse path line, pattern type and path followed by closing brace and quote
+     */
+    private boolean parsePath(LineReader reader, int valueStart) {
+        int typeEnd = reader.indexOf(':', valueStart);
+        int pathEnd = reader.mLength - 2;
+        if (typeEnd == -1 || !reader.startsWith(pathEnd, "}\"") || typeEnd + 2 > pathEnd) {
+            return false;
+        }
+        String path = reader.substring(typeEnd + 2, pathEnd);
+        switch (reader.mLine[valueStart]) {
+            case 'L': // LITERAL
+                mCurrentFilter.addDataPath(path, PatternMatcher.PATTERN_LITERAL);
+                break;
+            case 'P': // PREFIX
+                mCurrentFilter.addDataPath(path, PatternMatcher.PATTERN_PREFIX);
+                break;
+            case 'G': // GLOB
+                mCurrentFilter.addDataPath(path, PatternMatcher.PATTERN_SIMPLE_GLOB);
+                break;
+        }
+        return true;
+    }
+
+    private void dropCurrentFilterIfEmpty() {
+        if (mCurrentFilter != null && mCurrentFilter.countActions() == 0) {
+            final int lastIndex = mFilters.size() - 1;
+            mFilters.remove(lastIndex);
+            mFilterPermissions.remove(lastIndex);
+        }
+    }
+
+    /**
+     * Report current receiver if it has any filter with actions and reset state for next one
+     */
+    private void finishReceiver() {
+        if (mReceiverInfo != null && !mFilters.isEmpty()) {
+            dropCurrentFilterIfEmpty();
+            if (!mFilters.isEmpty()) {
+                mReceiverInfo.intentFilters = mFilters.toArray(new IntentFilter[mFilters.size()]);
+                mReceiverInfo.filterPermissions = mFilterPermissions.toArray(new String[mFilterPermissions.size()]);
+                onReceiverFound(mReceiverInfo);
+            }
+        }
+        mFilters.clear();
+        mFilterPermissions.clear();
+        mCurrentFilter = null;
+        mReceiverInfo = null;
+    }
+
+    /**
+     * Reads lines into reused buffer, without allocating String for each line
+     */
+    private static class LineReader {
+        private final Reader mReader;
+        private final char[] mReadBuffer = new char[8192];
+        private int mReadPosition;
+        private int mReadLength;
+
+        char[] mLine = new char[256];
+        int mLength;
+
+        LineReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Read next line into {@link #mLine}, without line terminator
+         *
+         * @return false if end of stream was reached
+         */
+        boolean readLine() throws IOException {
+            mLength = 0;
+            boolean readAnything = false;
+            while (true) {
+                if (mReadPosition == mReadLength) {
+                    mReadLength = mReader.read(mReadBuffer);
+                    mReadPosition = 0;
+                    if (mReadLength <= 0) {
+                        mReadLength = 0;
+                        return readAnything;
                     }
-                    continue;
                 }
+                readAnything = true;
 
-                matcher = PATTERN_RECEIVER_FILTER_TYPE.matcher(line);
-                if (matcher.find()) {
-                    String type = matcher.group(1);
-                    try {
-                        if (type.contains("/")) {
-                            currentFilter.addDataType(type);
-                        } else {
-                            currentFilter.addDataType(type + "/*");
-                        }
-                    } catch (IntentFilter.MalformedMimeTypeException e) {
-                        Log.w(TAG, "Malformed type: " + type);
-                        e.printStackTrace();
+                // Copy until end of line
+                int lineEnd = mReadPosition;
+                while (lineEnd < mReadLength && mReadBuffer[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                append(mReadPosition, lineEnd);
+                if (lineEnd < mReadLength) {
+                    mReadPosition = lineEnd + 1;
+                    if (mLength != 0 && mLine[mLength - 1] == '\r') {
+                        mLength--;
                     }
-                    continue;
+                    return true;
                 }
+                mReadPosition = mReadLength;
+            }
+        }
+
+        private void append(int from, int to) {
+            int count = to - from;
+            if (mLength + count > mLine.length) {
+                char[] newLine = new char[Math.max(mLine.length * 2, mLength + count)];
+                System.arraycopy(mLine, 0, newLine, 0, mLength);
+                mLine = newLine;
+            }
+            System.arraycopy(mReadBuffer, from, mLine, mLength, count);
+            mLength += count;
+        }
 
-                // Match filter priority
-                matcher = PATTERN_RECEIVER_FILTER_PRIORITY.matcher(line);
-                if (matcher.find()) {
-                    currentFilter.setPriority(Integer.parseInt(matcher.group(1)));
-                    continue;
+        int skipIndent() {
+            int i = 0;
+            while (i < mLength && (mLine[i] == ' ' || mLine[i] == '\t')) {
+                i++;
+            }
+            return i;
+        }
+
+        boolean startsWith(int offset, String prefix) {
+            int length = prefix.length();
+            if (offset < 0 || offset + length > mLength) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (mLine[offset + i] != prefix.charAt(i)) {
+                    return false;
                 }
+            }
+            return true;
+        }
+
+        boolean contains(String string) {
+            return indexOf(string, 0) != -1;
+        }
 
-                // Match filter permission
-                matcher = PATTERN_RECEIVER_FILTER_PERMISSION.matcher(line);
-                if (matcher.find()) {
-                    filterPermissions.set(filterPermissions.size() - 1, matcher.group(1));
-                    continue;
+        int indexOf(char c, int from) {
+            for (int i = from; i < mLength; i++) {
+                if (mLine[i] == c) {
+                    return i;
                 }
+            }
+            return -1;
+        }
 
-                // Match list end
-                if (PATTERN_LIST_END.matcher(line).find()) {
-                    break;
+        int indexOf(String string, int from) {
+            for (int i = from, end = mLength - string.length(); i <= end; i++) {
+                if (startsWith(i, string)) {
+                    return i;
                 }
+            }
+            return -1;
+        }
 
-                if (VERBOSE) {
-                    Log.v(TAG, "No matches!");
+        /**
+         * Find last occurrence of character in range [from, to)
+         */
+        int lastIndexOf(char c, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (mLine[i] == c) {
+                    return i;
                 }
             }
+            return -1;
+        }
 
-            if (VERBOSE) {
-                Log.v(TAG, "Finished");
+        /**
+         * Get value of line ending with quote, starting at given offset
+         *
+         * @return Value or null if line doesn't end with quote
+         */
+        String quotedValue(int start) {
+            if (mLength <= start || mLine[mLength - 1] != '"') {
+                return null;
             }
+            return substring(start, mLength - 1);
+        }
 
-            // Finish last info // TODO: this duplicates "Finish previous info" above
-            if (receiverInfo != null && !filters.isEmpty()) {
-                if (currentFilter != null && currentFilter.countActions() == 0) {
-                    final int lastIndex = filters.size() - 1;
-                    filters.remove(lastIndex);
-                    filterPermissions.remove(lastIndex);
-                }
-                if (!filters.isEmpty()) {
-                    receiverInfo.intentFilters = filters.toArray(new IntentFilter[filters.size()]);
-                    receiverInfo.filterPermissions = filterPermissions.toArray(new String[filterPermissions.size()]);
-                    onReceiverFound(receiverInfo);
+        String substring(int start, int end) {
+            return new String(mLine, start, end - start);
+        }
+
+        int parseInt(int start, int end) {
+            if (start >= end) {
+                throw new NumberFormatException("Empty number");
+            }
+            boolean negative = mLine[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (i == end) {
+                throw new NumberFormatException("Empty number");
+            }
+            int value = 0;
+            for (; i < end; i++) {
+                char c = mLine[i];
+                if (c < '0' || c > '9') {
+                    throw new NumberFormatException("Invalid number " + substring(start, end));
                 }
+                value = value * 10 + (c - '0');
             }
-        } finally {
-            try {
-                inputStream.close();
-            } catch (Exception ignored) {}
+            return negative ? -value : value;
+        }
+
+        @Override
+        public String toString() {
+            return substring(0, mLength);
         }
     }
 }
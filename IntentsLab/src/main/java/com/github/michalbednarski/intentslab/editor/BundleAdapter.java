@@ -37,17 +37,14 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.github.michalbednarski.intentslab.R;
-import com.github.michalbednarski.intentslab.Utils;
 import com.github.michalbednarski.intentslab.sandbox.ClassLoaderDescriptor;
 import com.github.michalbednarski.intentslab.sandbox.ISandboxedBundle;
 import com.github.michalbednarski.intentslab.sandbox.SandboxManager;
 import com.github.michalbednarski.intentslab.sandbox.SandboxedObject;
 import com.github.michalbednarski.intentslab.valueeditors.framework.EditorLauncher;
+import com.github.michalbednarski.intentslab.xposedhooks.api.BundleMethods;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
 
 public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.BundleAdapterAggregate> extends BaseAdapter implements OnClickListener,
 		OnItemClickListener, View.OnCreateContextMenuListener, EditorLauncher.EditorLauncherWithSandboxCallback {
@@ -60,6 +57,20 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
 
     private boolean mUseSandbox = false;
     private ISandboxedBundle mSandboxedBundle = null;
+
+    /**
+     * Previews of values in sandboxed bundle, matching {@link #mKeys}
+     *
+     * Loaded together with keys and set to null when bundle is modified,
+     * so rows don't need to call sandbox when bound
+     */
+    private String[] mSandboxedPreviews = null;
+
+    /**
+     * Set when loading {@link #mSandboxedPreviews} failed,
+     * so rows won't retry that call when bound
+     */
+    private boolean mSandboxedPreviewsFailed = false;
     private ArrayList<Runnable> mSandboxedBundleReadyCallbacks = null;
 
 	/*static final String[] bundleContainableTypes = { "Byte", "Char", "Short",
@@ -72,35 +83,13 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
 			"Bundle", "IBinder" };*/
 
 
+    /**
+     * Put value into bundle using put* method matching its type
+     *
+     * @see BundleMethods#put(Bundle, String, Object)
+     */
     public static void putInBundle(Bundle bundle, String key, Object value) {
-        if (value == null) {
-            bundle.putString(key, null);
-            return;
-        }
-
-        Pattern putMethodName = Pattern.compile("put[A-Z][A-Za-z]+");
-        for (Method method : Bundle.class.getMethods()) {
-            if (
-                    putMethodName.matcher(method.getName()).matches() &&
-                    !method.isVarArgs()) {
-                final Class<?>[] parameterTypes = method.getParameterTypes();
-                if (
-                        parameterTypes.length == 2 &&
-                        parameterTypes[0] == String.class &&
-                        Utils.toWrapperClass(parameterTypes[1]).isInstance(value)) {
-                    try {
-                        method.invoke(bundle, key, value);
-                        return;
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
-                        // continue
-                    } catch (InvocationTargetException e) {
-                        throw new RuntimeException("Method " + method.getName() + " of bundle thrown exception", e);
-                    }
-                }
-            }
-        }
-        throw new RuntimeException("No put* method found");
+        BundleMethods.put(bundle, key, value);
     }
 
     private final EditorLauncher mEditorLauncher;
@@ -137,8 +126,7 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
             if (mSandboxedBundle != null && mSandboxedBundle.asBinder().isBinderAlive()) {
                 if (alwaysUpdateKeySet) {
                     try {
-                        mKeys = mSandboxedBundle.getKeySet();
-                        mKeysCount = mKeys.length;
+                        loadSandboxedEntries();
                         notifyDataSetChanged();
                     } catch (RemoteException e) {
                         e.printStackTrace();
@@ -180,8 +168,7 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
                     mSandboxedBundle = SandboxManager.getSandbox().sandboxBundle(mBundle, new ClassLoaderDescriptor("com.github.michalbednarski.intentslab.samples"));
 
                     // Update key set
-                    mKeys = mSandboxedBundle.getKeySet();
-                    mKeysCount = mKeys.length;
+                    loadSandboxedEntries();
 
                     // Notify all callbacks that we're ready
                     for (Runnable readyCallback : mSandboxedBundleReadyCallbacks) {
@@ -198,6 +185,24 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
         });
     }
 
+    /**
+     * Load keys and previews of values from sandboxed bundle
+     */
+    private void loadSandboxedEntries() throws RemoteException {
+        String[] entries = mSandboxedBundle.describeEntries();
+        int count = entries.length / 2;
+        String[] keys = new String[count];
+        String[] previews = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = entries[i * 2];
+            previews[i] = entries[i * 2 + 1];
+        }
+        mKeys = keys;
+        mKeysCount = count;
+        mSandboxedPreviews = previews;
+        mSandboxedPreviewsFailed = false;
+    }
+
     public void shutdown() {
         if (mUseSandbox) {
             SandboxManager.unrefSandbox();
@@ -212,6 +217,8 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
 		}
         mUseSandbox = false;
         mSandboxedBundle = null;
+        mSandboxedPreviews = null;
+        mSandboxedPreviewsFailed = false;
 		updateKeySet();
 	}
 
@@ -280,10 +287,18 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
         String valueAsString;
 
         if (mUseSandbox) {
-            try {
-                valueAsString = mSandboxedBundle.getAsString(key);
-            } catch (RemoteException e) {
-                // TODO: resandbox bundle
+            if (mSandboxedPreviews == null && !mSandboxedPreviewsFailed) {
+                // Bundle was modified, reload all previews at once
+                try {
+                    loadSandboxedEntries();
+                } catch (RemoteException e) {
+                    // TODO: resandbox bundle
+                    mSandboxedPreviewsFailed = true;
+                }
+            }
+            if (mSandboxedPreviews != null && position < mSandboxedPreviews.length && key.equals(mKeys[position])) {
+                valueAsString = mSandboxedPreviews[position];
+            } else {
                 valueAsString = "[Sandbox error]";
             }
         } else {
@@ -352,6 +367,8 @@ public class BundleAdapter<OwnerFragment extends Fragment & BundleAdapter.Bundle
                     } catch (Exception e) {
                         e.printStackTrace(); // Cannot recover
                     }
+                    mSandboxedPreviews = null;
+                    mSandboxedPreviewsFailed = false;
                     if (keySetChange) {
                         updateKeySet();
                     }
@@ -399,6 +416,8 @@ skipSandbox: {
                 } catch (Exception e) {
                     e.printStackTrace(); // Cannot recover
                 }
+                mSandboxedPreviews = null;
+                mSandboxedPreviewsFailed = false;
                 if (keySetChange) {
                     updateKeySet();
                 }
@@ -434,6 +453,8 @@ skipSandbox: {
                     } catch (RemoteException e) {
                         e.printStackTrace(); // TODO: resandbox bundle
                     }
+                    mSandboxedPreviews = null;
+                    mSandboxedPreviewsFailed = false;
                 } else {
                     mBundle.remove(key);
                 }
@@ -23,7 +23,6 @@ import android.app.Dialog;
 import android.content.ComponentName;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
@@ -45,16 +44,13 @@ import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.SingleFragmentActivity;
 import com.github.michalbednarski.intentslab.Utils;
 import com.github.michalbednarski.intentslab.appinfo.MyComponentInfo;
-import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
 import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
 import com.github.michalbednarski.intentslab.browser.ComponentInfoFragment;
 
 import org.jdeferred.DoneCallback;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -486,12 +482,12 @@ public class FindComponentDialog extends DialogFragment implements AdapterView.O
 
 
     /**
-     * Task scanning components in apps and matches intent filters.
+     * Task finding components in apps with matching intent filters.
      *
      * To start or restart use following code:
      *   (new ListFiltersTask()).execute();
      */
-    private class ListFiltersTask implements DoneCallback<Collection<MyPackageInfo>> {
+    private class ListFiltersTask implements DoneCallback<List<MyComponentInfo[]>> {
         private int mComponentType;
         private String mAction;
         private Set<String> mCategories;
@@ -536,33 +532,30 @@ public class FindComponentDialog extends DialogFragment implements AdapterView.O
                 }
             }
 
-            // Prepare package info
+            // Find matching components using intent filter index
             MyPackageManagerImpl
                     .getInstance(getActivity())
-                    .getPackages(true)
+                    .findComponentsByIntentFilter(mComponentType, mAction, mCategories, mInsensitiveAndSubstring)
                     .done(this);
         }
 
 
         @Override
-        public void onDone(Collection<MyPackageInfo> result) {
+        public void onDone(List<MyComponentInfo[]> result) {
             mAppsWithMatchingFilters.clear();
 
-            // Temporary list holding currently scanned intent filters
+            // Temporary list holding matching components of currently processed app
             ArrayList<ComponentWithMatchingFilters> matchingComponents = new ArrayList<ComponentWithMatchingFilters>();
 
-            // Iterate through packages
-            for (MyPackageInfo extendedPackageInfo : result) {
-
-                // Scan intent filters in package
-                scanIntentFiltersInPackage(extendedPackageInfo, matchingComponents);
-
-                // Add IntentFilters to list
-                if (matchingComponents.size() != 0) {
-                    // Add app to list and refresh
-                    mAppsWithMatchingFilters.add(new AppWithMatchingFilters(matchingComponents));
-                    matchingComponents.clear(); // Clear list so we can use it again for next app
+            // Iterate through apps with matching components
+            for (MyComponentInfo[] componentsInPackage : result) {
+                for (MyComponentInfo component : componentsInPackage) {
+                    matchingComponents.add(new ComponentWithMatchingFilters(component));
                 }
+
+                // Add app to list
+                mAppsWithMatchingFilters.add(new AppWithMatchingFilters(matchingComponents));
+                matchingComponents.clear(); // Clear list so we can use it again for next app
             }
 
             // Set flags that we're finished
@@ -572,111 +565,5 @@ public class FindComponentDialog extends DialogFragment implements AdapterView.O
             hideProgressAndShowList();
             mAppListAdapter.notifyDataSetChanged();
         }
-
-        private void scanIntentFiltersInPackage(MyPackageInfo extendedPackageInfo, ArrayList<ComponentWithMatchingFilters> matchingComponents) {
-
-            // Get components list
-            MyComponentInfo[] components = null;
-            switch (mComponentType) {
-                case IntentEditorConstants.ACTIVITY:
-                    components = extendedPackageInfo.getActivities();
-                    break;
-                case IntentEditorConstants.BROADCAST:
-                    components = extendedPackageInfo.getReceivers();
-                    break;
-                case IntentEditorConstants.SERVICE:
-                    components = extendedPackageInfo.getServices();
-                    break;
-            }
-
-            // Skip app if no components are found
-            if (components == null) {
-                return;
-            }
-
-
-            // Iterate over components
-            for (MyComponentInfo component : components) {
-                IntentFilter[] intentFilters = component.getIntentFilters();
-                if (intentFilters != null) {
-                    // Test the intent filters
-                    for (IntentFilter intentFilter : intentFilters) {
-                        if (testIntentFilter(intentFilter)) {
-
-                            // Component matched, add to list
-                            matchingComponents.add(
-                                    new ComponentWithMatchingFilters(component)
-                            );
-
-                            // End scanning this component, scan next in package
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-
-        private boolean testIntentFilter(IntentFilter intentFilter) {
-            // Check if IntentFilter is valid
-            if (intentFilter.countActions() == 0) {
-                return false;
-            }
-
-            // Perform tests
-            if (mInsensitiveAndSubstring) {
-                // Lax tests
-
-                // Lax action test
-                if (mAction != null) {
-                    boolean foundAction = false;
-                    for (final Iterator<String> actionsIterator = intentFilter.actionsIterator(); actionsIterator.hasNext();) {
-                        if (actionsIterator.next().toLowerCase().contains(mAction)) {
-                            foundAction = true;
-                            break;
-                        }
-                    }
-                    if (!foundAction) {
-                        return false;
-                    }
-                }
-
-                // Lax category test
-                if (mCategories != null) {
-                    if (intentFilter.countCategories() == 0) {
-                        return false; // No categories but we require some
-                    }
-
-                    String[] categories = mCategories.toArray(new String[mCategories.size()]);
-                    boolean[] foundCategories = new boolean[categories.length];
-
-                    for (final Iterator<String> categoriesIterator = intentFilter.categoriesIterator(); categoriesIterator.hasNext();) {
-                        final String filterCategory = categoriesIterator.next().toLowerCase();
-                        for (int i = 0, categoriesLength = categories.length; i < categoriesLength; i++) {
-                            String category = categories[i];
-                            if (filterCategory.contains(category)) {
-                                foundCategories[i] = true;
-                            }
-                        }
-                    }
-                    for (boolean foundCategory : foundCategories) {
-                        if (!foundCategory) {
-                            return false;
-                        }
-                    }
-                }
-            } else {
-                // Strict tests
-                if (mAction != null && !intentFilter.hasAction(mAction)) {
-                    return false;
-                }
-                if (intentFilter.matchCategories(mCategories) != null) {
-                    return false;
-                }
-            }
-
-            // If we reached this point IntentFilter matches filtering criteria
-            return true;
-        }
-
     }
 }
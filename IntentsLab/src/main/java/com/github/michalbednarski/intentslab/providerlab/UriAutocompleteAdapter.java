@@ -20,9 +20,6 @@ package com.github.michalbednarski.intentslab.providerlab;
 
 import android.content.Context;
 import android.content.IntentFilter;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.ProviderInfo;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -47,6 +44,11 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
     Suggestions mSuggestions = null;
     private IntentFilter[] mIntentFilters;
 
+    /**
+     * Last filtered text, refiltered once installed packages are loaded
+     */
+    private volatile String mLastConstraint;
+
     private class Suggestions {
         private String[] suggestions;
         private String prefix;
@@ -60,6 +62,14 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
 
     public UriAutocompleteAdapter(Context context) {
         mContext = context;
+        UriSuggestionsIndex.load(context, new Runnable() {
+            @Override
+            public void run() {
+                if (mLastConstraint != null) {
+                    mMyFilter.filter(mLastConstraint);
+                }
+            }
+        });
     }
 
     public void setIntentFilters(IntentFilter[] filters) {
@@ -111,6 +121,7 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
                 return null;
             }
             String constraint = constraintSeq.toString();
+            mLastConstraint = constraint;
             int pos = constraint.indexOf(':');
             if (pos != -1) {
                 String scheme = constraint.substring(0, pos);
@@ -215,29 +226,13 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
                 tokens = constraint.split(" ");
             }
 
-            ArrayList<String> a = new ArrayList<String>();
-
-            // Scan and filter providers
-            PackageManager packageManager = mContext.getPackageManager();
-            for (PackageInfo packageInfo : packageManager.getInstalledPackages(PackageManager.GET_PROVIDERS)) {
-                if (packageInfo.providers != null) {
-                    scanProviders:
-                    for (ProviderInfo provider : packageInfo.providers) {
-                        if (provider.authority != null) {
-                            for (String authority : provider.authority.split(";")) {
-                                if (tokens != null) {
-                                    for (String token : tokens) {
-                                        if (!authority.contains(token)) {
-                                            continue scanProviders;
-                                        }
-                                    }
-                                }
-                                a.add(authority);
-                            }
-                        }
-                    }
-                }
+            // Filter providers
+            UriSuggestionsIndex index = UriSuggestionsIndex.get();
+            if (index == null) {
+                // Installed packages aren't loaded yet, we'll refilter when they are
+                return null;
             }
+            List<String> a = index.findAuthorities(tokens);
 
             // Return results
             Suggestions suggestions = new Suggestions(a.toArray(new String[a.size()]), "content://");
@@ -253,9 +248,11 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
          * for package: and similar schemes
          */
         private FilterResults generatePackageSuggestions(String scheme, String constraint) {
-            PackageManager packageManager = mContext.getPackageManager();
-            List<PackageInfo> installedPackages = packageManager.getInstalledPackages(0);
-
+            UriSuggestionsIndex index = UriSuggestionsIndex.get();
+            if (index == null) {
+                // Installed packages aren't loaded yet, we'll refilter when they are
+                return null;
+            }
 
             // Trim constraints and get search tokens
             if (constraint.startsWith(scheme + ":")) {
@@ -269,23 +266,8 @@ public class UriAutocompleteAdapter extends BaseAdapter implements Filterable {
                 tokens = constraint.split(" ");
             }
 
-            // Iterate over packages and filter matching
-            ArrayList<String> packageNames = new ArrayList<String>();
-            packages:
-            for (PackageInfo packageInfo : installedPackages) {
-                if (tokens != null) {
-                    String packageKeywords = packageInfo.packageName;
-                    if (packageInfo.applicationInfo != null) {
-                        packageKeywords += " " + packageInfo.applicationInfo.loadDescription(packageManager);
-                    }
-                    for (String token : tokens) {
-                        if (!packageKeywords.contains(token)) {
-                            continue packages;
-                        }
-                    }
-                }
-                packageNames.add(packageInfo.packageName);
-            }
+            // Filter package names
+            List<String> packageNames = index.findPackageNames(tokens);
 
             // Return results
             Suggestions suggestions = new Suggestions(packageNames.toArray(new String[packageNames.size()]), scheme + ":");
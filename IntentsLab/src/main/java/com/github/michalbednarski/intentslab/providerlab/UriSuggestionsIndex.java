@@ -0,0 +1,199 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.providerlab;
+
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+
+import com.github.michalbednarski.intentslab.appinfo.MyComponentInfo;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageInfo;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManager;
+import com.github.michalbednarski.intentslab.appinfo.MyPackageManagerImpl;
+
+import org.jdeferred.DoneCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Sorted provider authorities and package names of installed packages,
+ * used for content: and package: suggestions in {@link UriAutocompleteAdapter}
+ *
+ * Built from packages already loaded by {@link MyPackageManager}
+ * and rebuilt lazily after any package changes
+ */
+class UriSuggestionsIndex {
+
+    /**
+     * Packages collection from {@link MyPackageManager}, kept up to date by it
+     * Guarded by class lock
+     */
+    private static Collection<MyPackageInfo> sPackages;
+
+    /**
+     * Index built from {@link #sPackages}, null if it has to be rebuilt
+     * Guarded by class lock
+     */
+    private static UriSuggestionsIndex sIndex;
+
+    /**
+     * Used only on main thread
+     */
+    private static boolean sListenerRegistered;
+
+    private final String[] mAuthorities;
+    private final String[] mPackageNames;
+
+    private UriSuggestionsIndex(Collection<MyPackageInfo> packages) {
+        HashSet<String> authorities = new HashSet<String>();
+        ArrayList<String> packageNames = new ArrayList<String>();
+        for (MyPackageInfo packageInfo : packages) {
+            packageNames.add(packageInfo.getPackageName());
+            for (MyComponentInfo provider : packageInfo.getProviders()) {
+                ProviderInfo providerInfo = provider.getProviderInfo();
+                if (providerInfo.authority != null) {
+                    authorities.addAll(Arrays.asList(providerInfo.authority.split(";")));
+                }
+            }
+        }
+        mAuthorities = authorities.toArray(new String[authorities.size()]);
+        Arrays.sort(mAuthorities);
+        mPackageNames = packageNames.toArray(new String[packageNames.size()]);
+        Arrays.sort(mPackageNames);
+    }
+
+    /**
+     * Request loading of packages, must be called on main thread
+     *
+     * @param onLoaded Called on main thread when packages are loaded,
+     *                 not called if they were already available
+     */
+    static void load(Context context, final Runnable onLoaded) {
+        synchronized (UriSuggestionsIndex.class) {
+            if (sPackages != null) {
+                return;
+            }
+        }
+
+        MyPackageManager packageManager = MyPackageManagerImpl.getInstance(context);
+        if (!sListenerRegistered) {
+            sListenerRegistered = true;
+            packageManager.addOnPackageChangedListener(new MyPackageManager.OnPackageChangedListener() {
+                @Override
+                public void onPackageChanged(String packageName, MyPackageInfo oldPackageInfo, MyPackageInfo newPackageInfo) {
+                    synchronized (UriSuggestionsIndex.class) {
+                        sIndex = null;
+                    }
+                }
+            });
+        }
+        packageManager.getPackages(false).done(new DoneCallback<Collection<MyPackageInfo>>() {
+            @Override
+            public void onDone(Collection<MyPackageInfo> result) {
+                synchronized (UriSuggestionsIndex.class) {
+                    sPackages = result;
+                    sIndex = null;
+                }
+                onLoaded.run();
+            }
+        });
+    }
+
+    /**
+     * Get index, building it if needed
+     *
+     * @return The index or null if packages aren't loaded yet
+     */
+    static synchronized UriSuggestionsIndex get() {
+        if (sIndex == null && sPackages != null) {
+            sIndex = new UriSuggestionsIndex(sPackages);
+        }
+        return sIndex;
+    }
+
+    /**
+     * Find authorities containing all tokens
+     *
+     * @param tokens Search tokens or null to return all authorities
+     */
+    List<String> findAuthorities(String[] tokens) {
+        return find(mAuthorities, tokens);
+    }
+
+    /**
+     * Find package names containing all tokens
+     *
+     * @param tokens Search tokens or null to return all package names
+     */
+    List<String> findPackageNames(String[] tokens) {
+        return find(mPackageNames, tokens);
+    }
+
+    /**
+     * Find strings containing all tokens,
+     * strings starting with first token come first
+     */
+    private static List<String> find(String[] sortedStrings, String[] tokens) {
+        if (tokens == null || tokens.length == 0) {
+            return Arrays.asList(sortedStrings);
+        }
+
+        // Strings starting with first token form range in sorted array
+        String prefix = tokens[0];
+        int prefixStart = Arrays.binarySearch(sortedStrings, prefix);
+        if (prefixStart < 0) {
+            prefixStart = -prefixStart - 1;
+        }
+        int prefixEnd = prefixStart;
+        while (prefixEnd < sortedStrings.length && sortedStrings[prefixEnd].startsWith(prefix)) {
+            prefixEnd++;
+        }
+
+        ArrayList<String> results = new ArrayList<String>();
+        for (int i = prefixStart; i < prefixEnd; i++) {
+            if (containsAll(sortedStrings[i], tokens, 1)) {
+                results.add(sortedStrings[i]);
+            }
+        }
+
+        // Then ones that only contain it
+        for (int i = 0; i < sortedStrings.length; i++) {
+            if (i == prefixStart && prefixEnd > prefixStart) {
+                i = prefixEnd - 1;
+                continue;
+            }
+            if (containsAll(sortedStrings[i], tokens, 0)) {
+                results.add(sortedStrings[i]);
+            }
+        }
+        return results;
+    }
+
+    private static boolean containsAll(String string, String[] tokens, int firstToken) {
+        for (int i = firstToken; i < tokens.length; i++) {
+            if (!string.contains(tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ListFragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -32,6 +33,7 @@ import android.text.style.ForegroundColorSpan;
 import android.view.*;
 import android.widget.CursorAdapter;
 import android.widget.TextView;
+import android.widget.Toast;
 import com.github.michalbednarski.intentslab.R;
 import com.github.michalbednarski.intentslab.providerlab.AdvancedQueryActivity;
 
@@ -120,6 +122,9 @@ public class LogViewerFragment extends ListFragment implements LoaderManager.Loa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Entries could be dropped while log was written, update their count in menu
+        ActivityCompat.invalidateOptionsMenu(getActivity());
+
         setListAdapter(new CursorAdapter(getActivity(), data, false) {
             @Override
             public View newView(Context context, Cursor cursor, ViewGroup parent) {
@@ -161,12 +166,23 @@ public class LogViewerFragment extends ListFragment implements LoaderManager.Loa
         inflater.inflate(R.menu.proxy_operations_log, menu);
     }
 
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        int droppedEntries = ProxyProviderDatabase.getInstance(getActivity()).getDroppedEntriesCount();
+        menu.findItem(R.id.dropped_entries)
+                .setVisible(droppedEntries != 0)
+                .setTitle(getResources().getQuantityString(R.plurals.n_proxy_log_entries_dropped, droppedEntries, droppedEntries));
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.clear_log:
                 ProxyProviderDatabase.getInstance(getActivity()).clearLog();
                 return true;
+            case R.id.dropped_entries:
+                Toast.makeText(getActivity(), R.string.proxy_log_entries_dropped_explanation, Toast.LENGTH_LONG).show();
+                return true;
         }
         return false;
     }
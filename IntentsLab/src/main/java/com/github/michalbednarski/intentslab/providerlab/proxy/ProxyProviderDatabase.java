@@ -20,21 +20,43 @@ package com.github.michalbednarski.intentslab.providerlab.proxy;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.ContentObservable;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.preference.PreferenceManager;
+import android.util.Log;
 import com.github.michalbednarski.intentslab.Utils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by mb on 10.09.13.
  */
 class ProxyProviderDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "ProxyProviderDatabase";
     private static final int DB_VERSION = 1;
 
+    /**
+     * Preference with maximum number of log entries waiting to be written,
+     * entries above that are dropped so chatty app can't exhaust our memory
+     */
+    static final String PREF_MAX_PENDING_ENTRIES = "proxy-log-max-pending-entries";
+    private static final int DEFAULT_MAX_PENDING_ENTRIES = 1000;
+
+    /**
+     * Maximum number of entries inserted in single transaction
+     */
+    private static final int MAX_BATCH_SIZE = 200;
+
     private static ProxyProviderDatabase sInstance = null;
 
     public static ProxyProviderDatabase getInstance(Context context) {
@@ -46,8 +68,57 @@ class ProxyProviderDatabase extends SQLiteOpenHelper {
 
     public final ContentObservable mContentObservable = new ContentObservable();
 
+    /**
+     * Entries logged by binder threads, written to database on {@link #mWriterHandler}
+     */
+    private final ConcurrentLinkedQueue<OperationLogEntryBuilder> mPendingEntries = new ConcurrentLinkedQueue<OperationLogEntryBuilder>();
+    private final AtomicInteger mPendingEntriesCount = new AtomicInteger();
+    private final AtomicInteger mDroppedEntriesCount = new AtomicInteger();
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+    private volatile int mMaxPendingEntries;
+
+    private final Handler mWriterHandler;
+
+    @SuppressWarnings("FieldCanBeLocal") // Preferences keep only weak reference to listener
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (PREF_MAX_PENDING_ENTRIES.equals(key)) {
+                readMaxPendingEntries(sharedPreferences);
+            }
+        }
+    };
+
     private ProxyProviderDatabase(Context context) {
         super(context.getApplicationContext(), "ProxyProviderDatabase", null, DB_VERSION);
+
+        // Read configured bound
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        readMaxPendingEntries(preferences);
+        preferences.registerOnSharedPreferenceChangeListener(mPreferenceChangeListener);
+
+        // Start writer thread
+        HandlerThread writerThread = new HandlerThread("ProxyProviderLog");
+        writerThread.start();
+        mWriterHandler = new Handler(writerThread.getLooper());
+    }
+
+    private void readMaxPendingEntries(SharedPreferences preferences) {
+        int maxPendingEntries = DEFAULT_MAX_PENDING_ENTRIES;
+        try {
+            maxPendingEntries = Integer.parseInt(preferences.getString(PREF_MAX_PENDING_ENTRIES, String.valueOf(DEFAULT_MAX_PENDING_ENTRIES)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid " + PREF_MAX_PENDING_ENTRIES + " preference", e);
+        }
+        mMaxPendingEntries = maxPendingEntries;
+    }
+
+    /**
+     * Number of log entries dropped because there were too many entries waiting to be written,
+     * since log was last cleared. Shown in {@link LogViewerFragment}
+     */
+    int getDroppedEntriesCount() {
+        return mDroppedEntriesCount.get();
     }
 
     @Override
@@ -149,16 +220,82 @@ class ProxyProviderDatabase extends SQLiteOpenHelper {
             return this;
         }
 
+        /**
+         * Queue this entry for writing, this must be called on binder thread of logged call
+         * and builder must not be used after that
+         */
         void writeToLog() {
             mContentValues.put("uid", Binder.getCallingUid());
-            mContentValues.put("others", mOthers.toString());
-            getWritableDatabase().insertOrThrow("operations", "uri", mContentValues);
-            mContentObservable.dispatchChange(false);
+            enqueueEntry(this);
+        }
+    }
+
+    private void enqueueEntry(OperationLogEntryBuilder entry) {
+        // Reserve place in queue or drop entry if it's full
+        if (mPendingEntriesCount.incrementAndGet() > mMaxPendingEntries) {
+            mPendingEntriesCount.decrementAndGet();
+            int dropped = mDroppedEntriesCount.incrementAndGet();
+            if (dropped == 1 || dropped % 100 == 0) {
+                Log.w(TAG, "Log writer can't keep up, dropped " + dropped + " entries so far");
+            }
+            return;
+        }
+        mPendingEntries.offer(entry);
+
+        // Wake up writer
+        if (mWriteScheduled.compareAndSet(false, true)) {
+            mWriterHandler.post(mWritePendingEntriesRunnable);
         }
     }
 
+    /**
+     * Write all pending entries in batched transactions and notify observers once
+     */
+    private final Runnable mWritePendingEntriesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Clear flag before draining, so entries added meanwhile schedule another run
+            mWriteScheduled.set(false);
+
+            SQLiteDatabase db = getWritableDatabase();
+            boolean written = false;
+            OperationLogEntryBuilder entry = mPendingEntries.poll();
+            while (entry != null) {
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < MAX_BATCH_SIZE && entry != null; i++) {
+                        mPendingEntriesCount.decrementAndGet();
+                        entry.mContentValues.put("others", entry.mOthers.toString());
+                        try {
+                            db.insertOrThrow("operations", "uri", entry.mContentValues);
+                        } catch (Exception e) {
+                            Log.e(TAG, "Failed writing log entry", e);
+                        }
+                        entry = mPendingEntries.poll();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                written = true;
+            }
+            if (written) {
+                mContentObservable.dispatchChange(false);
+            }
+        }
+    };
+
     void clearLog() {
-        getWritableDatabase().delete("operations", null, null);
-        mContentObservable.dispatchChange(false);
+        // Dropped entries count refers to log that is being cleared
+        mDroppedEntriesCount.set(0);
+
+        // Clear on writer thread so pending entries aren't reordered with it
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete("operations", null, null);
+                mContentObservable.dispatchChange(false);
+            }
+        });
     }
 }
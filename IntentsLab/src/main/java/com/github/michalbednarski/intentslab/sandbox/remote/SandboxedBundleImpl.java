@@ -21,6 +21,7 @@ package com.github.michalbednarski.intentslab.sandbox.remote;
 import android.os.Bundle;
 import android.os.RemoteException;
 
+import com.github.michalbednarski.intentslab.Utils;
 import com.github.michalbednarski.intentslab.editor.BundleAdapter;
 import com.github.michalbednarski.intentslab.sandbox.ISandboxedBundle;
 import com.github.michalbednarski.intentslab.sandbox.SandboxedObject;
@@ -32,6 +33,12 @@ import java.util.Set;
  */
 public class SandboxedBundleImpl extends ISandboxedBundle.Stub {
 
+    /**
+     * Maximum length of value preview returned from {@link #describeEntries()},
+     * keeps transaction small for bundles with large values
+     */
+    private static final int MAX_PREVIEW_LENGTH = 300;
+
     private final ClassLoader mClassLoader;
     private Bundle mBundle;
 
@@ -57,6 +64,28 @@ public class SandboxedBundleImpl extends ISandboxedBundle.Stub {
         return mBundle.get(key).toString();
     }
 
+    @Override
+    public String[] describeEntries() throws RemoteException {
+        final Set<String> keySet = mBundle.keySet();
+        String[] entries = new String[keySet.size() * 2];
+        int i = 0;
+        for (String key : keySet) {
+            String preview;
+            try {
+                preview = String.valueOf(mBundle.get(key));
+            } catch (Exception e) {
+                // Don't let one broken value fail whole listing
+                preview = "[" + Utils.describeException(e) + "]";
+            }
+            if (preview.length() > MAX_PREVIEW_LENGTH) {
+                preview = preview.substring(0, MAX_PREVIEW_LENGTH) + "\u2026";
+            }
+            entries[i++] = key;
+            entries[i++] = preview;
+        }
+        return entries;
+    }
+
     @Override
     public SandboxedObject getWrapped(String key) throws RemoteException {
         return new SandboxedObject(mBundle.get(key));
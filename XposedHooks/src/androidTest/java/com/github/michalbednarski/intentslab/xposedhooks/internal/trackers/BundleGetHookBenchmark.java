@@ -0,0 +1,107 @@
+package com.github.michalbednarski.intentslab.xposedhooks.internal.trackers;
+
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Benchmark of overhead that Bundle get*() hooks add to {@link Bundle#getString(String)}
+ * in process where bundle isn't tracked
+ *
+ * Hook bodies are called directly since Xposed isn't available in tests,
+ * previous implementation is emulated with same locking as XposedHelpers additional fields.
+ * Results are printed to logcat
+ */
+public class BundleGetHookBenchmark extends AndroidTestCase {
+    private static final String TAG = "BundleGetHookBenchmark";
+
+    private static final int ITERATIONS = 200000;
+
+    /**
+     * Emulation of XposedHelpers.getAdditionalInstanceField()
+     */
+    private static final WeakHashMap<Object, HashMap<String, Object>> sLegacyAdditionalFields = new WeakHashMap<Object, HashMap<String, Object>>();
+
+    private static Object legacyGetTag(Object target) {
+        HashMap<String, Object> fields;
+        synchronized (sLegacyAdditionalFields) {
+            fields = sLegacyAdditionalFields.get(target);
+            if (fields == null) {
+                return null;
+            }
+        }
+        synchronized (fields) {
+            return fields.get("XIntentsLab.ObjectTrackerTag");
+        }
+    }
+
+    public void testTagStore() {
+        TrackerTagStore store = new TrackerTagStore();
+        Bundle tagged = new Bundle();
+        Bundle untagged = new Bundle();
+        Object tag = new Object();
+        assertFalse(store.isArmed());
+        assertNull(store.get(tagged));
+
+        store.put(tagged, tag);
+        assertTrue(store.isArmed());
+        assertSame(tag, store.get(tagged));
+        assertNull(store.get(untagged));
+
+        store.put(tagged, null);
+        assertNull(store.get(tagged));
+    }
+
+    public void testGetStringOverhead() {
+        Bundle bundle = new Bundle();
+        bundle.putString("k", "v");
+
+        TrackerTagStore unarmedStore = new TrackerTagStore();
+        TrackerTagStore armedStore = new TrackerTagStore();
+        armedStore.put(new Bundle(), new Object());
+
+        // Warm up
+        runGets(bundle, 0, null);
+        runGets(bundle, 1, unarmedStore);
+        runGets(bundle, 1, armedStore);
+        runGets(bundle, 2, null);
+
+        long baseline = runGets(bundle, 0, null);
+        long unarmed = runGets(bundle, 1, unarmedStore);
+        long armed = runGets(bundle, 1, armedStore);
+        long legacy = runGets(bundle, 2, null);
+        Log.i(TAG, "Per getString(): no hook " + baseline + "ns" +
+                ", unarmed " + (unarmed - baseline) + "ns overhead" +
+                ", armed untagged " + (armed - baseline) + "ns overhead" +
+                ", legacy " + (legacy - baseline) + "ns overhead");
+    }
+
+    /**
+     * @param mode 0 - no hook, 1 - lookup in given store, 2 - legacy lookup
+     * @return Average time of call in nanoseconds
+     */
+    private static long runGets(Bundle bundle, int mode, TrackerTagStore store) {
+        int found = 0;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (bundle.getString("k") != null) {
+                found++;
+            }
+            if (mode == 1) {
+                if (store.get(bundle) != null) {
+                    found--;
+                }
+            } else if (mode == 2) {
+                if (legacyGetTag(bundle) != null) {
+                    found--;
+                }
+            }
+        }
+        long time = System.nanoTime() - startTime;
+        assertEquals(ITERATIONS, found);
+        return time / ITERATIONS;
+    }
+}
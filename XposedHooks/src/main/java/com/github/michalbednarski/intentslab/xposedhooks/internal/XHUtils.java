@@ -187,6 +187,15 @@ public class XHUtils {
      * At index 0 is caller of hooked method
      */
     public static StackTraceElement[] getHookedMethodStackTrace() {
+        return getHookedMethodStackTrace(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get stack trace of hooked method, limited to given number of innermost frames
+     *
+     * At index 0 is caller of hooked method
+     */
+    public static StackTraceElement[] getHookedMethodStackTrace(int maxDepth) {
         StackTraceElement[] stackTrace = new Throwable().getStackTrace();
 
         // Find handleHookedMethod call index
@@ -201,8 +210,9 @@ public class XHUtils {
         i++; // Method itself (replaced with native one by Xposed)
 
         // Get slice of stack trace
-        StackTraceElement[] newStackTrace = new StackTraceElement[stackTrace.length - i];
-        System.arraycopy(stackTrace, i, newStackTrace, 0, stackTrace.length - i);
+        int length = Math.min(stackTrace.length - i, maxDepth);
+        StackTraceElement[] newStackTrace = new StackTraceElement[length];
+        System.arraycopy(stackTrace, i, newStackTrace, 0, length);
         return newStackTrace;
     }
 
@@ -46,6 +46,17 @@ public class BundleTrackerImpl extends BaseTrackerImpl implements BundleTracker
                 dispatchUpdate();
             }
         }
+
+        @Override
+        public void reportReads(ReadBundleEntryInfo[] infos) throws RemoteException {
+            synchronized (mReadExtrasLegacy) {
+                for (ReadBundleEntryInfo info : infos) {
+                    mReadExtras.add(info);
+                    mReadExtrasLegacy.add(info.name);
+                }
+                dispatchUpdate();
+            }
+        }
     };
 
     BundleTrackerImpl() {
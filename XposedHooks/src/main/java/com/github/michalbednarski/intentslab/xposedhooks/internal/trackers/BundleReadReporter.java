@@ -0,0 +1,236 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.xposedhooks.internal.trackers;
+
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.github.michalbednarski.intentslab.xposedhooks.api.ReadBundleEntryInfo;
+import com.github.michalbednarski.intentslab.xposedhooks.internal.IBundleTracker;
+import com.github.michalbednarski.intentslab.xposedhooks.internal.XHUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Collects reads of tracked bundles in hooked process and reports them to trackers in batches
+ *
+ * Reads are deduplicated by key, method and call site,
+ * stack is only walked for first few reads of each key with each method in each flush window,
+ * so bundle read in loop costs one report and few stack walks per window
+ *
+ * Instance is created in zygote, but Handler is created only on first read in app process,
+ * reads in processes without main looper are dropped
+ */
+class BundleReadReporter {
+    private final int mMaxStackDepth;
+    private final int mMaxStackWalksPerEntry;
+    private final long mFlushDelay;
+
+    /**
+     * Handler of main looper, created on first read
+     * Guarded by this
+     */
+    private Handler mHandler;
+    private boolean mFlushScheduled = false;
+
+    /**
+     * Reads of each tracker, keyed by tracker binder
+     * Guarded by this
+     */
+    private final WeakHashMap<IBinder, TrackerReads> mTrackerReads = new WeakHashMap<IBinder, TrackerReads>();
+
+    /**
+     * Doesn't reference tracker, since that would keep key of weak map alive
+     */
+    private static class TrackerReads {
+        /**
+         * Number of stack walks done for key and method since {@link #stackWalksWindowStart}
+         */
+        final HashMap<String, Integer> stackWalks = new HashMap<String, Integer>();
+        long stackWalksWindowStart;
+
+        /**
+         * Already reported keys, methods and call sites
+         */
+        final HashSet<ReadSite> reported = new HashSet<ReadSite>();
+
+        /**
+         * Reads not yet sent to tracker
+         */
+        ArrayList<ReadBundleEntryInfo> pending = new ArrayList<ReadBundleEntryInfo>();
+    }
+
+    /**
+     * Key, method and stack of read, compared by whole stack so distinct call sites are never merged
+     */
+    private static class ReadSite {
+        final String name;
+        final String methodName;
+        final StackTraceElement[] stackTrace;
+        private final int mHashCode;
+
+        ReadSite(String name, String methodName, StackTraceElement[] stackTrace) {
+            this.name = name;
+            this.methodName = methodName;
+            this.stackTrace = stackTrace;
+            mHashCode = (String.valueOf(name).hashCode() * 31 + methodName.hashCode()) * 31 + Arrays.hashCode(stackTrace);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ReadSite)) {
+                return false;
+            }
+            ReadSite other = (ReadSite) o;
+            return mHashCode == other.mHashCode &&
+                    (name == null ? other.name == null : name.equals(other.name)) &&
+                    methodName.equals(other.methodName) &&
+                    Arrays.equals(stackTrace, other.stackTrace);
+        }
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param maxStackDepth Number of innermost stack frames included in reports
+     * @param maxStackWalksPerEntry Number of reads of each key with each method in flush window for which stack
+     *                              is captured, later reads in that window are assumed to come from
+     *                              already reported call sites
+     * @param flushDelay Time in milliseconds for which reads are collected before they're sent,
+     *                   also length of window for maxStackWalksPerEntry
+     */
+    BundleReadReporter(int maxStackDepth, int maxStackWalksPerEntry, long flushDelay) {
+        mMaxStackDepth = maxStackDepth;
+        mMaxStackWalksPerEntry = maxStackWalksPerEntry;
+        mFlushDelay = flushDelay;
+    }
+
+    /**
+     * Record read from within get*() hook
+     */
+    void recordRead(IBundleTracker tracker, String name, String methodName) {
+        String entryKey = name + "\0" + methodName;
+
+        synchronized (this) {
+            if (mHandler == null) {
+                // Create handler after fork, in process that will deliver flush
+                Looper mainLooper = Looper.getMainLooper();
+                if (mainLooper == null) {
+                    return;
+                }
+                mHandler = new Handler(mainLooper);
+            }
+
+            TrackerReads reads = getTrackerReads(tracker);
+
+            // Start new window, so reads from call sites not seen yet are reported eventually
+            long now = SystemClock.uptimeMillis();
+            if (now - reads.stackWalksWindowStart >= mFlushDelay) {
+                reads.stackWalks.clear();
+                reads.stackWalksWindowStart = now;
+            }
+
+            Integer walks = reads.stackWalks.get(entryKey);
+            if (walks == null) {
+                walks = 0;
+            } else if (walks >= mMaxStackWalksPerEntry) {
+                return;
+            }
+            reads.stackWalks.put(entryKey, walks + 1);
+        }
+
+        // Walk stack outside lock
+        StackTraceElement[] stackTrace = XHUtils.getHookedMethodStackTrace(mMaxStackDepth);
+        ReadSite readSite = new ReadSite(name, methodName, stackTrace);
+
+        synchronized (this) {
+            TrackerReads reads = getTrackerReads(tracker);
+            if (!reads.reported.add(readSite)) {
+                return;
+            }
+            ReadBundleEntryInfo info = new ReadBundleEntryInfo();
+            info.name = name;
+            info.methodName = methodName;
+            info.stackTrace = stackTrace;
+            reads.pending.add(info);
+
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mFlushDelay);
+            }
+        }
+    }
+
+    private TrackerReads getTrackerReads(IBundleTracker tracker) {
+        IBinder binder = tracker.asBinder();
+        TrackerReads reads = mTrackerReads.get(binder);
+        if (reads == null) {
+            reads = new TrackerReads();
+            mTrackerReads.put(binder, reads);
+        }
+        return reads;
+    }
+
+    /**
+     * Send all pending reads, one transaction per tracker
+     */
+    private void flush() {
+        ArrayList<IBinder> trackers = new ArrayList<IBinder>();
+        ArrayList<ArrayList<ReadBundleEntryInfo>> batches = new ArrayList<ArrayList<ReadBundleEntryInfo>>();
+        synchronized (this) {
+            mFlushScheduled = false;
+            for (Map.Entry<IBinder, TrackerReads> entry : mTrackerReads.entrySet()) {
+                TrackerReads reads = entry.getValue();
+                if (!reads.pending.isEmpty()) {
+                    trackers.add(entry.getKey());
+                    batches.add(reads.pending);
+                    reads.pending = new ArrayList<ReadBundleEntryInfo>();
+                }
+            }
+        }
+
+        for (int i = 0; i < trackers.size(); i++) {
+            ArrayList<ReadBundleEntryInfo> batch = batches.get(i);
+            try {
+                IBundleTracker.Stub.asInterface(trackers.get(i))
+                        .reportReads(batch.toArray(new ReadBundleEntryInfo[batch.size()]));
+            } catch (RemoteException e) {
+                e.printStackTrace(); // Probably tracker is dead
+            }
+        }
+    }
+}
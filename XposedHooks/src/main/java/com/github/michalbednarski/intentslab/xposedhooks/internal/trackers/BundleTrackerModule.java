@@ -21,16 +21,13 @@ package com.github.michalbednarski.intentslab.xposedhooks.internal.trackers;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Parcel;
-import android.os.RemoteException;
 
-import com.github.michalbednarski.intentslab.xposedhooks.api.ReadBundleEntryInfo;
+import com.github.michalbednarski.intentslab.xposedhooks.api.BundleMethods;
 import com.github.michalbednarski.intentslab.xposedhooks.internal.IBundleTracker;
 import com.github.michalbednarski.intentslab.xposedhooks.internal.ParcelOffsets;
-import com.github.michalbednarski.intentslab.xposedhooks.internal.XHUtils;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 
 import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
@@ -41,6 +38,23 @@ import de.robv.android.xposed.XposedHelpers;
  */
 public class BundleTrackerModule extends ObjectTrackerModule<Bundle, IBundleTracker> {
 
+    /**
+     * Number of innermost stack frames included in read reports
+     */
+    private static final int MAX_REPORTED_STACK_DEPTH = 24;
+
+    /**
+     * Number of reads of each key with each get*() method in flush window for which stack is captured
+     */
+    private static final int MAX_STACK_WALKS_PER_ENTRY = 16;
+
+    /**
+     * Time for which reads are collected before they're sent to tracker, also window for MAX_STACK_WALKS_PER_ENTRY
+     */
+    private static final long REPORT_FLUSH_DELAY = 250;
+
+    private final BundleReadReporter mReadReporter = new BundleReadReporter(MAX_REPORTED_STACK_DEPTH, MAX_STACK_WALKS_PER_ENTRY, REPORT_FLUSH_DELAY);
+
     @Override
     IBundleTracker asInterface(IBinder binder) {
         return IBundleTracker.Stub.asInterface(binder);
@@ -141,37 +155,21 @@ public class BundleTrackerModule extends ObjectTrackerModule<Bundle, IBundleTrac
         });
 
         // Read reporting (get*())
-        for (Method method : Bundle.class.getDeclaredMethods()) {
-            Class<?>[] parameterTypes = method.getParameterTypes();
-            int parameterCount = parameterTypes.length;
-            Class<?> returnType = method.getReturnType();
-            if (
-                    (parameterCount == 1 || parameterCount == 2) && // 1-2 parameters
-                    parameterTypes[0] == String.class && // first is String
-                    (parameterCount == 1 || parameterTypes[1] == returnType) && // second if exist is same as return type
-                    returnType != Void.TYPE && // method has return type (not void)
-                    (method.getModifiers() & (Modifier.PUBLIC | Modifier.STATIC)) == Modifier.PUBLIC && // public and not static
-                    method.getName().startsWith("get") // name starts with "get"
-                    ) {
-                final String methodName = method.getName();
-                XposedBridge.hookMethod(method, new XC_MethodHook() {
-                    @Override
-                    protected void afterHookedMethod(MethodHookParam param) {
-                        IBundleTracker tracker = getTracker((Bundle) param.thisObject);
-                        if (tracker != null) {
-                            ReadBundleEntryInfo info = new ReadBundleEntryInfo();
-                            info.name = (String) param.args[0];
-                            info.methodName = methodName;
-                            info.stackTrace = XHUtils.getHookedMethodStackTrace();
-                            try {
-                                tracker.reportRead(info);
-                            } catch (RemoteException e) {
-                                e.printStackTrace(); // Probably tracker is dead
-                            }
-                        }
+        for (Method method : BundleMethods.getDeclaredGetMethods()) {
+            final String methodName = method.getName();
+            XposedBridge.hookMethod(method, new XC_MethodHook() {
+                @Override
+                protected void afterHookedMethod(MethodHookParam param) {
+                    // Fast path for processes that never received tagged bundle
+                    if (!isTrackingArmed()) {
+                        return;
                     }
-                });
-            }
+                    IBundleTracker tracker = getTracker((Bundle) param.thisObject);
+                    if (tracker != null) {
+                        mReadReporter.recordRead(tracker, (String) param.args[0], methodName);
+                    }
+                }
+            });
         }
     }
 }
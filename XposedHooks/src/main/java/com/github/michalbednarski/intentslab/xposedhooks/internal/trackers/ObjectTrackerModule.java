@@ -25,13 +25,14 @@ import android.os.RemoteException;
 
 import com.github.michalbednarski.intentslab.xposedhooks.internal.XHUtils;
 
-import de.robv.android.xposed.XposedHelpers;
-
 /**
  * Base class with utilities for object tracking
  */
 public abstract class ObjectTrackerModule<O, I extends IInterface> {
-    private static final String FIELD_TRACKER = "XIntentsLab.ObjectTrackerTag";
+    /**
+     * Tags of all tracked objects in this process
+     */
+    private static final TrackerTagStore sTags = new TrackerTagStore();
 
     static final int MAGIC_PARCEL_INT = 0x80000000 | 'X' << 24 | 'I' << 16 | 'n' << 8 | 'L';
 
@@ -95,16 +96,30 @@ public abstract class ObjectTrackerModule<O, I extends IInterface> {
         }
     }
 
+    /**
+     * Get tracker of object
+     *
+     * Until any object in this process gets tag this only reads volatile flag,
+     * so it's cheap enough to be called from hooks of hot methods
+     */
+    @SuppressWarnings("unchecked")
     I getTracker(O target) {
-        return (I) XposedHelpers.getAdditionalInstanceField(target, FIELD_TRACKER);
+        return (I) sTags.get(target);
     }
 
     void setTracker(O target, I tag) {
-        XposedHelpers.setAdditionalInstanceField(target, FIELD_TRACKER, tag);
+        sTags.put(target, tag);
     }
 
     public static void setTrackerStatic(Object target, Object tag) {
-        XposedHelpers.setAdditionalInstanceField(target, FIELD_TRACKER, tag);
+        sTags.put(target, tag);
+    }
+
+    /**
+     * True if any object in this process was tagged
+     */
+    static boolean isTrackingArmed() {
+        return sTags.isArmed();
     }
 
 
@@ -0,0 +1,164 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.xposedhooks.internal.trackers;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Map from tracked objects to their tracker tags,
+ * comparing objects by identity and not keeping them alive
+ *
+ * Hooks run for every Bundle and Intent in every process, while tags are rare,
+ * so until first tag is stored {@link #get(Object)} only reads volatile flag.
+ * After that lookups lock this store, which is only used for tags
+ * (unlike XposedHelpers additional fields that share one global lock)
+ */
+class TrackerTagStore {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Set when first tag is stored and never cleared
+     */
+    private volatile boolean mArmed = false;
+
+    private final ReferenceQueue<Object> mQueue = new ReferenceQueue<Object>();
+    private Entry[] mTable = new Entry[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    private static class Entry extends WeakReference<Object> {
+        final int hash;
+        Object tag;
+        Entry next;
+
+        Entry(Object target, int hash, Object tag, Entry next, ReferenceQueue<Object> queue) {
+            super(target, queue);
+            this.hash = hash;
+            this.tag = tag;
+            this.next = next;
+        }
+    }
+
+    /**
+     * True if any tag was ever stored
+     */
+    boolean isArmed() {
+        return mArmed;
+    }
+
+    /**
+     * Get tag of object
+     *
+     * @return The tag or null if object isn't tagged
+     */
+    Object get(Object target) {
+        if (!mArmed) {
+            return null;
+        }
+        int hash = System.identityHashCode(target);
+        synchronized (this) {
+            for (Entry entry = mTable[indexFor(hash, mTable.length)]; entry != null; entry = entry.next) {
+                if (entry.hash == hash && entry.get() == target) {
+                    return entry.tag;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set tag of object
+     *
+     * @param tag The tag or null to remove it
+     */
+    synchronized void put(Object target, Object tag) {
+        expungeStaleEntries();
+
+        int hash = System.identityHashCode(target);
+        int index = indexFor(hash, mTable.length);
+        Entry previous = null;
+        for (Entry entry = mTable[index]; entry != null; previous = entry, entry = entry.next) {
+            if (entry.hash == hash && entry.get() == target) {
+                if (tag != null) {
+                    entry.tag = tag;
+                } else {
+                    unlink(index, previous, entry);
+                }
+                return;
+            }
+        }
+
+        if (tag == null) {
+            return;
+        }
+        mTable[index] = new Entry(target, hash, tag, mTable[index], mQueue);
+        mSize++;
+        mArmed = true;
+        if (mSize > mTable.length * 3 / 4) {
+            resize(mTable.length * 2);
+        }
+    }
+
+    private static int indexFor(int hash, int length) {
+        return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+    private void unlink(int index, Entry previous, Entry entry) {
+        if (previous == null) {
+            mTable[index] = entry.next;
+        } else {
+            previous.next = entry.next;
+        }
+        entry.next = null;
+        entry.tag = null;
+        mSize--;
+    }
+
+    /**
+     * Remove entries of objects that were garbage collected
+     */
+    private void expungeStaleEntries() {
+        Object stale;
+        while ((stale = mQueue.poll()) != null) {
+            Entry staleEntry = (Entry) stale;
+            int index = indexFor(staleEntry.hash, mTable.length);
+            Entry previous = null;
+            for (Entry entry = mTable[index]; entry != null; previous = entry, entry = entry.next) {
+                if (entry == staleEntry) {
+                    unlink(index, previous, entry);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void resize(int newLength) {
+        Entry[] newTable = new Entry[newLength];
+        for (Entry entry : mTable) {
+            while (entry != null) {
+                Entry next = entry.next;
+                int index = indexFor(entry.hash, newLength);
+                entry.next = newTable[index];
+                newTable[index] = entry;
+                entry = next;
+            }
+        }
+        mTable = newTable;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * IntentsLab - Android app for playing with Intents and Binder IPC
+ * Copyright (C) 2014 Michał Bednarski
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.michalbednarski.intentslab.xposedhooks.api;
+
+import android.os.Bundle;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective lookup of {@link Bundle} put and get methods,
+ * shared by IntentsLab value editors and bundle tracking hooks
+ *
+ * Put methods are resolved once per class of value and kept in dispatch table,
+ * so putting value is single map lookup
+ */
+public class BundleMethods {
+
+    /**
+     * Puts value of specific class into Bundle
+     */
+    public interface Putter {
+        void put(Bundle bundle, String key, Object value);
+    }
+
+    /**
+     * Class of value => Putter for it
+     */
+    private static final ConcurrentHashMap<Class<?>, Putter> sPutters = new ConcurrentHashMap<Class<?>, Putter>();
+
+    static {
+        // Direct putters for common types, these don't go through reflection at all
+        sPutters.put(String.class, new Putter() {
+            @Override
+            public void put(Bundle bundle, String key, Object value) {
+                bundle.putString(key, (String) value);
+            }
+        });
+        sPutters.put(Integer.class, new Putter() {
+            @Override
+            public void put(Bundle bundle, String key, Object value) {
+                bundle.putInt(key, (Integer) value);
+            }
+        });
+        sPutters.put(Long.class, new Putter() {
+            @Override
+            public void put(Bundle bundle, String key, Object value) {
+                bundle.putLong(key, (Long) value);
+            }
+        });
+        sPutters.put(Boolean.class, new Putter() {
+            @Override
+            public void put(Bundle bundle, String key, Object value) {
+                bundle.putBoolean(key, (Boolean) value);
+            }
+        });
+        sPutters.put(Bundle.class, new Putter() {
+            @Override
+            public void put(Bundle bundle, String key, Object value) {
+                bundle.putBundle(key, (Bundle) value);
+            }
+        });
+    }
+
+    private static final HashMap<Class<?>, Class<?>> PRIMITIVE_TO_WRAPPER_CLASS_MAP = new HashMap<Class<?>, Class<?>>();
+    static {
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Boolean.TYPE, Boolean.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Byte.TYPE, Byte.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Character.TYPE, Character.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Short.TYPE, Short.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Integer.TYPE, Integer.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Long.TYPE, Long.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Float.TYPE, Float.class);
+        PRIMITIVE_TO_WRAPPER_CLASS_MAP.put(Double.TYPE, Double.class);
+    }
+
+    private static Class<?> toWrapperClass(Class<?> aClass) {
+        Class<?> wrapperClass = PRIMITIVE_TO_WRAPPER_CLASS_MAP.get(aClass);
+        return wrapperClass != null ? wrapperClass : aClass;
+    }
+
+    /**
+     * Put value into bundle using put* method matching its class
+     *
+     * @throws RuntimeException if there's no put* method accepting value
+     */
+    public static void put(Bundle bundle, String key, Object value) {
+        if (value == null) {
+            bundle.putString(key, null);
+            return;
+        }
+        getPutter(value.getClass()).put(bundle, key, value);
+    }
+
+    /**
+     * Get putter for values of given class, resolving it on first use
+     *
+     * @throws RuntimeException if there's no put* method accepting value of this class
+     */
+    public static Putter getPutter(Class<?> valueClass) {
+        Putter putter = sPutters.get(valueClass);
+        if (putter == null) {
+            final Method method = findPutMethod(valueClass);
+            if (method == null) {
+                throw new RuntimeException("No put* method found");
+            }
+            putter = new Putter() {
+                @Override
+                public void put(Bundle bundle, String key, Object value) {
+                    try {
+                        method.invoke(bundle, key, value);
+                    } catch (IllegalAccessException e) {
+                        throw new RuntimeException(e);
+                    } catch (InvocationTargetException e) {
+                        throw new RuntimeException("Method " + method.getName() + " of bundle thrown exception", e);
+                    }
+                }
+            };
+            // Resolution gives same result for every thread, so losing race doesn't matter
+            sPutters.put(valueClass, putter);
+        }
+        return putter;
+    }
+
+    /**
+     * Find put* method of Bundle which accepts values of given class
+     *
+     * If multiple methods match, one with most specific parameter type is used,
+     * for example putString() is preferred over putCharSequence() and putSerializable()
+     *
+     * @return The method or null if there's none
+     */
+    static Method findPutMethod(Class<?> valueClass) {
+        Method bestMethod = null;
+        Class<?> bestType = null;
+        for (Method method : Bundle.class.getMethods()) {
+            String name = method.getName();
+            if (
+                    name.length() > 3 &&
+                    name.startsWith("put") &&
+                    Character.isUpperCase(name.charAt(3)) &&
+                    !method.isVarArgs()) {
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                if (parameterTypes.length == 2 && parameterTypes[0] == String.class) {
+                    Class<?> type = toWrapperClass(parameterTypes[1]);
+                    if (type.isAssignableFrom(valueClass) && (bestType == null || (bestType.isAssignableFrom(type) && bestType != type))) {
+                        bestMethod = method;
+                        bestType = type;
+                    }
+                }
+            }
+        }
+        return bestMethod;
+    }
+
+    /**
+     * Check if method is one of Bundle get* methods reading entry:
+     * public, non-static, taking key and optionally default value of same type as returned one
+     */
+    public static boolean isGetMethod(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        int parameterCount = parameterTypes.length;
+        Class<?> returnType = method.getReturnType();
+        return
+                (parameterCount == 1 || parameterCount == 2) && // 1-2 parameters
+                parameterTypes[0] == String.class && // first is String
+                (parameterCount == 1 || parameterTypes[1] == returnType) && // second if exist is same as return type
+                returnType != Void.TYPE && // method has return type (not void)
+                (method.getModifiers() & (Modifier.PUBLIC | Modifier.STATIC)) == Modifier.PUBLIC && // public and not static
+                method.getName().startsWith("get"); // name starts with "get"
+    }
+
+    /**
+     * Get get* methods declared directly in Bundle class
+     *
+     * @see #isGetMethod(Method)
+     */
+    public static List<Method> getDeclaredGetMethods() {
+        ArrayList<Method> getMethods = new ArrayList<Method>();
+        for (Method method : Bundle.class.getDeclaredMethods()) {
+            if (isGetMethod(method)) {
+                getMethods.add(method);
+            }
+        }
+        return getMethods;
+    }
+}